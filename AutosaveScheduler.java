@@ -0,0 +1,172 @@
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Saves the session in the background so a killed process loses at most a
+ * bounded amount of work. A save is started when changes have been waiting
+ * for the configured interval, or sooner once the number of dirty records
+ * reaches the configured threshold.
+ *
+ * The save itself is supplied by the caller. It should snapshot the changed
+ * records quickly and write them without blocking the interactive loop, and
+ * return false if it could not run yet (for example because a command is in
+ * progress), in which case it is retried on the next check.
+ *
+ * Settings (system properties):
+ * <ul>
+ *   <li>{@code library.autosave.seconds}: maximum time changes wait before
+ *       being saved (default 60, 0 disables autosave)</li>
+ *   <li>{@code library.autosave.maxDirty}: number of dirty records that
+ *       triggers a save right away (default 100)</li>
+ * </ul>
+ *
+ * @author jeffreyhaddad
+ */
+public class AutosaveScheduler {
+
+    /** How often the dirty count and the interval are checked, in milliseconds */
+    private static final long CHECK_PERIOD_MS = 1000;
+
+    private final BooleanSupplier save;
+    private final long intervalMs;
+    private final int maxDirty;
+    private ScheduledExecutorService executor;
+    /** Time of the last completed save, or 0 if none yet */
+    private volatile long lastSaveTime;
+    /** Time unsaved changes were first seen, or 0 if everything is saved */
+    private volatile long pendingSince;
+    /** Number of saves completed in the background */
+    private volatile int saveCount;
+
+    /**
+     * Creates a scheduler configured from the system properties.
+     * @param save performs one save; returns false if it could not run yet
+     */
+    public AutosaveScheduler(BooleanSupplier save) {
+        this(save, Long.getLong("library.autosave.seconds", 60) * 1000,
+                Integer.getInteger("library.autosave.maxDirty", 100));
+    }
+
+    /**
+     * Creates a scheduler with explicit settings.
+     * @param save performs one save; returns false if it could not run yet
+     * @param intervalMs maximum time changes wait before being saved (0 disables)
+     * @param maxDirty number of dirty records that triggers a save right away
+     */
+    public AutosaveScheduler(BooleanSupplier save, long intervalMs, int maxDirty) {
+        this.save = save;
+        this.intervalMs = intervalMs;
+        this.maxDirty = Math.max(1, maxDirty);
+    }
+
+    /**
+     * Returns true if autosave is enabled.
+     * @return whether an interval was configured
+     */
+    public boolean isEnabled() {
+        return intervalMs > 0;
+    }
+
+    /**
+     * Starts the background checks on a daemon thread. Does nothing if
+     * autosave is disabled.
+     */
+    public synchronized void start() {
+        if (!isEnabled() || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.min(CHECK_PERIOD_MS, intervalMs);
+        executor.scheduleWithFixedDelay(this::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background checks and waits for a save in progress to finish.
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    /**
+     * Returns the number of records changed since they were last saved.
+     * @return dirty items plus dirty members
+     */
+    public static int getDirtyRecords() {
+        return LibraryItem.getDirtyCount() + Person.getDirtyCount();
+    }
+
+    /**
+     * Returns the time of the last completed save.
+     * @return last save time, or null if nothing was saved yet
+     */
+    public Date getLastSaveTime() {
+        return lastSaveTime == 0 ? null : new Date(lastSaveTime);
+    }
+
+    /**
+     * Returns how long the oldest unsaved change has been waiting, as seen by
+     * the last check.
+     * @return lag in milliseconds, 0 if everything is saved
+     */
+    public long getLagMillis() {
+        long since = pendingSince;
+        return since == 0 ? 0 : System.currentTimeMillis() - since;
+    }
+
+    /**
+     * Records a save done outside the scheduler, such as the one on exit.
+     */
+    public void markSaved() {
+        lastSaveTime = System.currentTimeMillis();
+        pendingSince = 0;
+    }
+
+    private void check() {
+        try {
+            int dirty = getDirtyRecords();
+            long now = System.currentTimeMillis();
+            if (dirty == 0) {
+                pendingSince = 0;
+                return;
+            }
+            if (pendingSince == 0) {
+                pendingSince = now;
+            }
+            boolean due = dirty >= maxDirty || now - pendingSince >= intervalMs;
+            if (due && save.getAsBoolean()) {
+                markSaved();
+                saveCount++;
+            }
+        } catch (RuntimeException e) {
+            // Keep the schedule alive; the next check tries again
+            System.out.println("Autosave failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (!isEnabled()) {
+            return "Autosave: disabled";
+        }
+        Date last = getLastSaveTime();
+        return "Autosave: every " + (intervalMs / 1000) + " s or " + maxDirty + " changes, last save "
+                + (last == null ? "never" : last.toString()) + ", lag " + (getLagMillis() / 1000) + " s, "
+                + getDirtyRecords() + " unsaved record(s), " + saveCount + " autosave(s)";
+    }
+}
@@ -0,0 +1,311 @@
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bulk checkouts and returns, such as a class borrowing a set of books or
+ * a return bin being emptied.
+ *
+ * A batch is a list of (member ID, serial number) entries. Members and items
+ * are resolved through hash indexes built in one pass over the lists, so a
+ * batch costs one scan instead of one scan per entry. For returns the member
+ * ID may be left empty; the item's current borrower is used.
+ *
+ * In {@link Mode#ALL_OR_NOTHING} mode the first failing entry undoes the
+ * entries already applied and the whole batch fails. In
+ * {@link Mode#PER_ENTRY} mode each entry succeeds or fails on its own. The
+ * events of the applied entries are written to the circulation log in a
+ * single append, and only then are the loans counted by the recommender and
+ * the popularity ranking, so a rolled-back batch leaves no trace there.
+ *
+ * @author jeffreyhaddad
+ */
+public class BatchCirculation {
+
+    /** How a failing entry affects the rest of the batch */
+    public enum Mode {
+        /** Apply every entry or none */
+        ALL_OR_NOTHING,
+        /** Apply every entry that can be applied */
+        PER_ENTRY
+    }
+
+    /** Members by ID */
+    private final HashMap<String, Person> membersById = new HashMap<>();
+    /** Items by serial number (the first item with each serial) */
+    private final LongObjectMap<LibraryItem> itemsBySerial;
+    /** Current borrower of each lent item */
+    private final HashMap<LibraryItem, Person> holders = new HashMap<>();
+    private final List<Person> members;
+    private final CirculationLog log;
+
+    /**
+     * Indexes the members and items for a batch.
+     *
+     * @param members current members
+     * @param items current items
+     * @param log circulation log the applied entries are written to
+     */
+    public BatchCirculation(List<Person> members, List<LibraryItem> items, CirculationLog log) {
+        this.members = members;
+        this.log = log;
+        for (Person member : members) {
+            membersById.putIfAbsent(Main.memberId(member), member);
+        }
+        indexHolders();
+        itemsBySerial = new LongObjectMap<>(items.size());
+        for (LibraryItem item : items) {
+            itemsBySerial.putIfAbsent(item.getSerialNumber(), item);
+        }
+    }
+
+    private void indexHolders() {
+        holders.clear();
+        for (Person member : members) {
+            for (LibraryItem item : member.getBorrowedItem()) {
+                holders.put(item, member);
+            }
+        }
+    }
+
+    /**
+     * Parses batch entries from lines of the form {@code memberId,serial}.
+     * Blank lines are skipped.
+     *
+     * @param lines input lines
+     * @return parsed entries
+     * @throws NumberFormatException if a serial number is not a number
+     */
+    public static ArrayList<Entry> parse(List<String> lines) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (String line : lines) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] tokens = line.split(",", -1);
+            if (tokens.length == 1) {
+                entries.add(new Entry("", Long.parseLong(tokens[0].trim())));
+            } else {
+                entries.add(new Entry(tokens[0].trim(), Long.parseLong(tokens[1].trim())));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Lends the items of the batch to the members.
+     *
+     * @param entries member and item of each loan
+     * @param mode all-or-nothing or per-entry
+     * @return outcome of every entry
+     */
+    public Report borrow(List<Entry> entries, Mode mode) {
+        return run(entries, mode, true);
+    }
+
+    /**
+     * Takes back the items of the batch.
+     *
+     * @param entries member (or empty for the current borrower) and item of each return
+     * @param mode all-or-nothing or per-entry
+     * @return outcome of every entry
+     */
+    public Report giveBack(List<Entry> entries, Mode mode) {
+        return run(entries, mode, false);
+    }
+
+    private Report run(List<Entry> entries, Mode mode, boolean borrow) {
+        long start = System.nanoTime();
+        Report report = new Report(entries.size());
+        LinkedHashMap<Object, Undo> applied = new LinkedHashMap<>();
+        ArrayList<CirculationLog.Event> events = new ArrayList<>();
+        ArrayList<Person> borrowers = new ArrayList<>();
+        ArrayList<LibraryItem> lent = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            LibraryItem item = itemsBySerial.get(entry.serialNb);
+            Person member = entry.memberId.isEmpty() && !borrow ? holders.get(item) : membersById.get(entry.memberId);
+            String failure = null;
+            if (item == null) {
+                failure = "item " + entry.serialNb + " not found";
+            } else if (member == null) {
+                failure = "member " + (entry.memberId.isEmpty() ? "holding " + entry.serialNb : entry.memberId)
+                        + " not found";
+            } else {
+                applied.computeIfAbsent(item, k -> new Undo(item));
+                applied.computeIfAbsent(member, k -> new Undo(member));
+                boolean done = borrow ? Main.checkOut(member, item) : Main.takeBack(member, item);
+                if (done) {
+                    if (borrow) {
+                        holders.put(item, member);
+                        borrowers.add(member);
+                        lent.add(item);
+                    } else {
+                        holders.remove(item);
+                    }
+                    events.add(new CirculationLog.Event(borrow ? CirculationLog.Type.BORROW : CirculationLog.Type.RETURN,
+                            now, item.getSerialNumber(), Main.memberId(member)));
+                } else {
+                    failure = borrow ? "not available or over the member's limit" : "not borrowed by this member";
+                }
+            }
+            report.outcomes[i] = failure;
+            if (failure != null && mode == Mode.ALL_OR_NOTHING) {
+                ArrayList<Undo> undos = new ArrayList<>(applied.values());
+                for (int u = undos.size() - 1; u >= 0; u--) {
+                    undos.get(u).restore();
+                }
+                indexHolders();
+                events.clear();
+                borrowers.clear();
+                lent.clear();
+                report.rolledBack = true;
+                break;
+            }
+        }
+        if (!events.isEmpty()) {
+            log.recordAll(events);
+        }
+        for (int i = 0; i < lent.size(); i++) {
+            Main.loanRecorded(borrowers.get(i), lent.get(i));
+        }
+        report.applied = events.size();
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * One (member ID, serial number) pair of a batch.
+     */
+    public static final class Entry {
+        private final String memberId;
+        private final long serialNb;
+
+        /**
+         * Creates an entry.
+         * @param memberId ID of the member (may be empty for returns)
+         * @param serialNb serial number of the item
+         */
+        public Entry(String memberId, long serialNb) {
+            this.memberId = memberId == null ? "" : memberId;
+            this.serialNb = serialNb;
+        }
+
+        public String getMemberId() {
+            return memberId;
+        }
+
+        public long getSerialNumber() {
+            return serialNb;
+        }
+    }
+
+    /**
+     * Outcome of a batch: which entries failed and how fast it ran.
+     */
+    public static final class Report {
+        /** Failure reason of each entry, or null if it was applied */
+        private final String[] outcomes;
+        private int applied;
+        private boolean rolledBack;
+        private long elapsedNanos;
+
+        Report(int size) {
+            outcomes = new String[size];
+        }
+
+        /**
+         * Returns why an entry failed.
+         * @param index entry index
+         * @return failure reason, or null if the entry was applied (and not rolled back)
+         */
+        public String getFailure(int index) {
+            return outcomes[index];
+        }
+
+        public int getApplied() {
+            return applied;
+        }
+
+        public boolean isRolledBack() {
+            return rolledBack;
+        }
+
+        /**
+         * Returns the number of entries processed per second.
+         * @return throughput
+         */
+        public double getEntriesPerSecond() {
+            return elapsedNanos == 0 ? 0 : outcomes.length * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < outcomes.length; i++) {
+                if (outcomes[i] != null) {
+                    text.append("Entry ").append(i + 1).append(": ").append(outcomes[i]).append('\n');
+                }
+            }
+            text.append(rolledBack ? "Batch rolled back; nothing was applied." : applied + " of " + outcomes.length
+                    + " entries applied.");
+            text.append(String.format(" %d entries in %.3f ms (%.0f entries/s)", outcomes.length,
+                    elapsedNanos / 1e6, getEntriesPerSecond()));
+            return text.toString();
+        }
+    }
+
+    /**
+     * The state of an item or member before the batch touched it.
+     */
+    private static final class Undo {
+        private final LibraryItem item;
+        private char status;
+        private Date dateAvailable;
+        private int pastOwnerCount;
+        private final Person member;
+        private ArrayList<LibraryItem> borrowed;
+        private double balance;
+
+        Undo(LibraryItem item) {
+            this.item = item;
+            this.member = null;
+            status = item.getStatus();
+            dateAvailable = item.getDateAvailable();
+            pastOwnerCount = item.getPastOwners().size();
+        }
+
+        Undo(Person member) {
+            this.item = null;
+            this.member = member;
+            borrowed = new ArrayList<>(member.getBorrowedItem());
+            if (member instanceof Civilian) {
+                balance = ((Civilian) member).getCurrentBal();
+            }
+        }
+
+        void restore() {
+            if (item != null) {
+                item.setStatus(status);
+                item.setDateAvailable(dateAvailable);
+                item.truncatePastOwners(pastOwnerCount);
+            } else {
+                for (LibraryItem loan : new ArrayList<>(member.getBorrowedItem())) {
+                    member.removeBorrowedItem(loan);
+                }
+                for (LibraryItem loan : borrowed) {
+                    member.addBorrowedItem(loan);
+                }
+                member.markDirty();
+                if (member instanceof Civilian) {
+                    Civilian civilian = (Civilian) member;
+                    civilian.addCredit(balance - civilian.getCurrentBal());
+                }
+            }
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.Date;
+import java.util.List;
 
 /**
  * Represents a book in the library system. Extends {@link LibraryItem}.
@@ -8,11 +9,6 @@ import java.util.Date;
  */
 public class Book extends LibraryItem{
    
-    /**
-     * The default cost of a book.
-     */
-    private static double BOOK_COST = 8;
-
     /**
      * Number of pages in the book.
      */
@@ -60,23 +56,25 @@ public class Book extends LibraryItem{
      * @param nbOfPages Number of pages
      */
     public void setNbOfPages(int nbOfPages) {
+        int old = this.nbOfPages;
         if (nbOfPages < 20) {
             this.nbOfPages = 20;
         } else {
             this.nbOfPages = nbOfPages;
         }
+        markDirty();
+        fireChanged("pages", old, this.nbOfPages);
     }
     
     /**
-     * Sets the cost of the book. Minimum cost is 8.
-     * @param BOOK_COST Cost to set
+     * Sets the cost added to the price of every book. Minimum cost is 8.
+     * The change is published as a new price table version.
+     * @param bookCost Cost to set
+     * @param items items to re-price
+     * @return the items' prices before and after the change
      */
-    public void setBookCost(double BOOK_COST) {
-        if (BOOK_COST < 8) {
-            this.BOOK_COST = 8;
-        } else {
-            this.BOOK_COST = BOOK_COST;
-        }
+    public static PricingEngine.Repricing setBookCost(double bookCost, List<LibraryItem> items) {
+        return PricingEngine.reprice(items, prices -> prices.setSurcharge(PriceTable.BOOK, Math.max(8, bookCost)));
     }
     
     /**
@@ -87,14 +85,6 @@ public class Book extends LibraryItem{
         return nbOfPages;
     }
     
-    /**
-     * Gets the price of the book, including base price and book cost.
-     * @return Price of the book
-     */
-    public double getPrice() {
-        return super.getPrice() + BOOK_COST;
-    }
-     
     /**
      * Returns a string representation of the book, including number of pages.
      * @return String representation
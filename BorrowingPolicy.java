@@ -0,0 +1,278 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Borrowing rules compiled into decision tables.
+ *
+ * Rules are written one per line as {@code <member> <rule> <arguments>},
+ * where the member is {@code student}, {@code civilian} or {@code *} for
+ * both:
+ * <pre>
+ * student max 3          # at most 3 items on loan
+ * student max dvd 1      # of which at most 1 DVD
+ * civilian hours 8-20    # may only borrow from 8:00 to 19:59
+ * student max none       # no total limit
+ * </pre>
+ * Rules are applied over the {@link #defaults() default policy}, so a file
+ * that only sets hours keeps the default student limit; {@code none} lifts
+ * a limit.
+ * Compiling turns them into one row per member type: a total limit, a cap
+ * per item type and a bit mask of the hours borrowing is allowed. Checking a
+ * loan is then a few array reads and a count of the member's current loans
+ * by type. A compiled policy never changes; {@link PolicyEngine} swaps in a
+ * new one when the rules are edited.
+ *
+ * @author jeffreyhaddad
+ */
+public final class BorrowingPolicy {
+
+    /** The loan is allowed */
+    public static final int ALLOWED = 0;
+    /** The member already has as many items as allowed */
+    public static final int OVER_LIMIT = 1;
+    /** The member already has as many items of this type as allowed */
+    public static final int OVER_TYPE_CAP = 2;
+    /** Borrowing is not allowed at this hour */
+    public static final int OUTSIDE_HOURS = 3;
+
+    private static final String[] REASONS = {
+        "allowed",
+        "the member has reached their borrowing limit",
+        "the member has reached their limit for this type of item",
+        "borrowing is not allowed at this time of day"
+    };
+    private static final int MEMBER_TYPES = 2;
+    private static final int ITEM_TYPES = 3;
+    private static final int ALL_HOURS = (1 << 24) - 1;
+    private static final long HOUR_MS = 60L * 60 * 1000;
+
+    /** Maximum items on loan, by member type */
+    private final int[] maxTotal = new int[MEMBER_TYPES];
+    /** Maximum items of each type on loan, by member type and item type */
+    private final int[][] maxPerType = new int[MEMBER_TYPES][ITEM_TYPES];
+    /** Bit h set if borrowing is allowed during hour h, by member type */
+    private final int[] allowedHours = new int[MEMBER_TYPES];
+
+    private BorrowingPolicy() {
+        Arrays.fill(maxTotal, Integer.MAX_VALUE);
+        for (int[] caps : maxPerType) {
+            Arrays.fill(caps, Integer.MAX_VALUE);
+        }
+        Arrays.fill(allowedHours, ALL_HOURS);
+    }
+
+    /**
+     * Returns the rules used when no policy file exists: students may have
+     * 3 items on loan, civilians are limited by their balance only.
+     * @return the default policy
+     */
+    public static BorrowingPolicy defaults() {
+        BorrowingPolicy policy = new BorrowingPolicy();
+        policy.maxTotal[PriceTable.STUDENT] = 3;
+        return policy;
+    }
+
+    /**
+     * Compiles rule lines into a policy. Blank lines and text after '#' are
+     * ignored. The rules change the default policy, so a limit no rule
+     * mentions keeps its default.
+     *
+     * @param lines rule lines
+     * @return the compiled policy
+     * @throws IllegalArgumentException if a line is not a valid rule
+     */
+    public static BorrowingPolicy compile(List<String> lines) {
+        BorrowingPolicy policy = defaults();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).replaceAll("#.*", "").trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                policy.apply(line.toLowerCase().split("\\s+"));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + lines.get(i).trim()
+                        + " (" + e.getMessage() + ")");
+            }
+        }
+        return policy;
+    }
+
+    private void apply(String[] tokens) {
+        int[] members = memberTypes(tokens[0]);
+        switch (tokens.length > 1 ? tokens[1] : "") {
+            case "max":
+                if (tokens.length == 3) {
+                    for (int member : members) {
+                        maxTotal[member] = count(tokens[2]);
+                    }
+                } else if (tokens.length == 4) {
+                    int itemType = itemType(tokens[2]);
+                    for (int member : members) {
+                        maxPerType[member][itemType] = count(tokens[3]);
+                    }
+                } else {
+                    throw new IllegalArgumentException("expected max <count> or max <type> <count>");
+                }
+                break;
+            case "hours":
+                String[] range = tokens.length == 3 ? tokens[2].split("-") : new String[0];
+                if (range.length != 2) {
+                    throw new IllegalArgumentException("expected hours <from>-<to>");
+                }
+                int from = Integer.parseInt(range[0]);
+                int to = Integer.parseInt(range[1]);
+                if (from < 0 || to > 24 || from >= to) {
+                    throw new IllegalArgumentException("hours must be within 0-24");
+                }
+                for (int member : members) {
+                    allowedHours[member] = ((1 << to) - 1) & ~((1 << from) - 1);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown rule, expected max or hours");
+        }
+    }
+
+    /**
+     * Parses the count of a max rule, {@code none} meaning no limit.
+     */
+    private static int count(String token) {
+        if (token.equals("none")) {
+            return Integer.MAX_VALUE;
+        }
+        int count = Integer.parseInt(token);
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative");
+        }
+        return count;
+    }
+
+    private static int[] memberTypes(String name) {
+        switch (name) {
+            case "student":
+                return new int[] {PriceTable.STUDENT};
+            case "civilian":
+                return new int[] {PriceTable.CIVILIAN};
+            case "*":
+                return new int[] {PriceTable.CIVILIAN, PriceTable.STUDENT};
+            default:
+                throw new IllegalArgumentException("unknown member type " + name);
+        }
+    }
+
+    private static int itemType(String name) {
+        switch (name) {
+            case "book":
+                return PriceTable.BOOK;
+            case "dvd":
+                return PriceTable.DVD;
+            case "item":
+                return PriceTable.ITEM;
+            default:
+                throw new IllegalArgumentException("unknown item type " + name);
+        }
+    }
+
+    /**
+     * Decides whether a member may borrow an item now.
+     * @param member borrower
+     * @param item item to borrow
+     * @return {@link #ALLOWED} or the reason the loan is refused
+     */
+    public int check(Person member, LibraryItem item) {
+        long now = System.currentTimeMillis();
+        return check(member, item, (int) ((now + TimeZone.getDefault().getOffset(now)) / HOUR_MS % 24));
+    }
+
+    /**
+     * Decides whether a member may borrow an item at the given hour.
+     *
+     * @param member borrower
+     * @param item item to borrow
+     * @param hour hour of the day, 0 to 23
+     * @return {@link #ALLOWED} or the reason the loan is refused
+     */
+    public int check(Person member, LibraryItem item, int hour) {
+        int memberType = PriceTable.typeOf(member);
+        if ((allowedHours[memberType] & (1 << hour)) == 0) {
+            return OUTSIDE_HOURS;
+        }
+        List<LibraryItem> borrowed = member.getBorrowedItem();
+        if (borrowed.size() >= maxTotal[memberType]) {
+            return OVER_LIMIT;
+        }
+        int itemType = PriceTable.typeOf(item);
+        int cap = maxPerType[memberType][itemType];
+        if (cap < borrowed.size() + 1) {
+            int sameType = 0;
+            for (LibraryItem loan : borrowed) {
+                if (PriceTable.typeOf(loan) == itemType) {
+                    sameType++;
+                }
+            }
+            if (sameType >= cap) {
+                return OVER_TYPE_CAP;
+            }
+        }
+        return ALLOWED;
+    }
+
+    /**
+     * Returns a sentence explaining a decision.
+     * @param decision result of {@link #check}
+     * @return the reason
+     */
+    public static String describe(int decision) {
+        return REASONS[decision];
+    }
+
+    /**
+     * Returns the total loan limit of a member type.
+     * @param memberType member type code from {@link PriceTable}
+     * @return maximum items on loan
+     */
+    public int getMaxTotal(int memberType) {
+        return maxTotal[memberType];
+    }
+
+    /**
+     * Returns a copy of this policy with a different total limit for one member type.
+     * @param memberType member type code from {@link PriceTable}
+     * @param limit maximum items on loan
+     * @return the new policy
+     */
+    public BorrowingPolicy withMaxTotal(int memberType, int limit) {
+        BorrowingPolicy copy = new BorrowingPolicy();
+        for (int member = 0; member < MEMBER_TYPES; member++) {
+            copy.maxTotal[member] = maxTotal[member];
+            copy.maxPerType[member] = maxPerType[member].clone();
+            copy.allowedHours[member] = allowedHours[member];
+        }
+        copy.maxTotal[memberType] = limit;
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "Borrowing policy: students " + describeRow(PriceTable.STUDENT) + "; civilians "
+                + describeRow(PriceTable.CIVILIAN);
+    }
+
+    private String describeRow(int member) {
+        StringBuilder text = new StringBuilder(maxTotal[member] == Integer.MAX_VALUE ? "no limit"
+                : "max " + maxTotal[member]);
+        String[] names = {"item", "book", "DVD"};
+        for (int type = 0; type < ITEM_TYPES; type++) {
+            if (maxPerType[member][type] != Integer.MAX_VALUE) {
+                text.append(", max ").append(maxPerType[member][type]).append(' ').append(names[type]);
+            }
+        }
+        if (allowedHours[member] != ALL_HOURS) {
+            text.append(", hours ").append(Integer.numberOfTrailingZeros(allowedHours[member])).append('-')
+                .append(32 - Integer.numberOfLeadingZeros(allowedHours[member]));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,397 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Append-only log of circulation events (borrow, return, reserve) with
+ * their timestamps, so past states can be answered and rebuilt instead of
+ * only the current one.
+ *
+ * Events are appended to {@code circulation.log}, one line each:
+ * {@code type#timeMillis#serial#memberId}. In memory they are indexed
+ * twice:
+ * <ul>
+ *   <li>by item, each item's events in time order, so "who had item X at
+ *       time T" is one binary search;</li>
+ *   <li>by day bucket, so a time range only visits the buckets it covers.</li>
+ * </ul>
+ * {@link #stateAt(long)} rebuilds the loan state of every item at a given
+ * time, processing partitions of items in parallel.
+ *
+ * @author jeffreyhaddad
+ */
+public class CirculationLog {
+
+    /** Default log file name */
+    public static final String LOG_FILE = "circulation.log";
+    /** Width of one time bucket, in milliseconds */
+    private static final long BUCKET_MS = 24L * 60 * 60 * 1000;
+    /** Number of item partitions rebuilt in parallel */
+    private static final int PARTITIONS = 64;
+
+    /** Kind of circulation event */
+    public enum Type {
+        BORROW('B'), RETURN('R'), RESERVE('V');
+
+        private final char code;
+
+        Type(char code) {
+            this.code = code;
+        }
+
+        static Type of(char code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown event type: " + code);
+        }
+    }
+
+    private final File file;
+    private Writer writer;
+    /** Events of each item in time order, keyed by serial number */
+    private final LongObjectMap<ArrayList<Event>> byItem = new LongObjectMap<>();
+    /** Events of each day bucket in time order, keyed by bucket start */
+    private final TreeMap<Long, ArrayList<Event>> byBucket = new TreeMap<>();
+    private int eventCount;
+    /** Called with every event recorded in this process */
+    private final CopyOnWriteArrayList<Consumer<Event>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a log over the given file. Call {@link #open()} before use.
+     * @param file log file (created on the first event)
+     */
+    public CirculationLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the existing events and opens the file for appending. A line
+     * that cannot be parsed (for example one cut short by a crash) is skipped.
+     * @throws IOException if the file cannot be read or opened
+     */
+    public synchronized void open() throws IOException {
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        index(Event.parse(line));
+                    } catch (RuntimeException e) {
+                        System.out.println("Warning: skipping circulation event: " + line);
+                    }
+                }
+            }
+        }
+        writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends an event stamped with the current time.
+     *
+     * @param type kind of event
+     * @param serialNb serial number of the item
+     * @param memberId ID of the member involved
+     * @return the recorded event
+     */
+    public Event record(Type type, long serialNb, String memberId) {
+        return record(new Event(type, System.currentTimeMillis(), serialNb, memberId));
+    }
+
+    /**
+     * Appends an event and indexes it. The line is flushed at once so other
+     * readers see it; a write error is reported but does not undo the event.
+     *
+     * @param event event to record
+     * @return the event
+     */
+    public synchronized Event record(Event event) {
+        index(event);
+        notifyListeners(event);
+        if (writer != null) {
+            try {
+                writer.write(event.toLine());
+                writer.write(System.lineSeparator());
+                writer.flush();
+            } catch (IOException e) {
+                System.out.println("Warning: could not write circulation event: " + e.getMessage());
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Appends several events with a single write, as one journal entry for
+     * a batch.
+     *
+     * @param events events to record
+     */
+    public synchronized void recordAll(List<Event> events) {
+        StringBuilder lines = new StringBuilder();
+        for (Event event : events) {
+            index(event);
+            notifyListeners(event);
+            lines.append(event.toLine()).append(System.lineSeparator());
+        }
+        if (writer != null) {
+            try {
+                writer.write(lines.toString());
+                writer.flush();
+            } catch (IOException e) {
+                System.out.println("Warning: could not write circulation events: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the member holding an item at the given time.
+     *
+     * @param serialNb serial number of the item
+     * @param time point in time, in milliseconds
+     * @return ID of the borrower, or null if the item was not on loan then
+     */
+    public synchronized String holderAt(long serialNb, long time) {
+        Event last = lastLoanEventAt(byItem.get(serialNb), time);
+        return last != null && last.type == Type.BORROW ? last.memberId : null;
+    }
+
+    /**
+     * Returns an item's events in time order.
+     * @param serialNb serial number of the item
+     * @return the item's events (empty if none)
+     */
+    public synchronized ArrayList<Event> history(long serialNb) {
+        ArrayList<Event> events = byItem.get(serialNb);
+        return events == null ? new ArrayList<>() : new ArrayList<>(events);
+    }
+
+    /**
+     * Returns the events in {@code [from, to)}, in time order. Only the day
+     * buckets overlapping the range are visited.
+     *
+     * @param from start of the range (inclusive), in milliseconds
+     * @param to end of the range (exclusive), in milliseconds
+     * @return events in the range
+     */
+    public synchronized ArrayList<Event> between(long from, long to) {
+        ArrayList<Event> found = new ArrayList<>();
+        if (from >= to) {
+            return found;
+        }
+        for (ArrayList<Event> bucket : byBucket.subMap(bucketOf(from), true, bucketOf(to), true).values()) {
+            for (Event event : bucket) {
+                if (event.time >= from && event.time < to) {
+                    found.add(event);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Rebuilds the loan state of every item at the given time: the last
+     * borrow or return of each item at or before it, reservations being
+     * skipped as in {@link #holderAt}. The items' histories are split into
+     * partitions by their position in the item index (history i goes to
+     * partition i modulo the partition count) and the partitions are
+     * replayed in parallel.
+     *
+     * @param time point in time, in milliseconds
+     * @return last borrow or return of each item that had one, keyed by serial number
+     */
+    public Map<Long, Event> stateAt(long time) {
+        ArrayList<ArrayList<Event>> histories;
+        synchronized (this) {
+            histories = new ArrayList<>(byItem.size());
+            for (ArrayList<Event> events : byItem.values()) {
+                histories.add(new ArrayList<>(events));
+            }
+        }
+        HashMap<Long, Event> state = new HashMap<>();
+        IntStream.range(0, PARTITIONS).parallel()
+                .mapToObj(partition -> {
+                    HashMap<Long, Event> part = new HashMap<>();
+                    for (int i = partition; i < histories.size(); i += PARTITIONS) {
+                        Event last = lastLoanEventAt(histories.get(i), time);
+                        if (last != null) {
+                            part.put(last.serialNb, last);
+                        }
+                    }
+                    return part;
+                })
+                .forEachOrdered(state::putAll);
+        return state;
+    }
+
+    /**
+     * Returns the number of events recorded.
+     * @return event count
+     */
+    public synchronized int size() {
+        return eventCount;
+    }
+
+    /**
+     * Closes the log file.
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Registers a listener called with every event recorded from now on, in
+     * the order they are recorded. Events read from the file are not passed on.
+     *
+     * @param listener receiver of the events
+     */
+    public void addListener(Consumer<Event> listener) {
+        listeners.add(listener);
+    }
+
+    private void notifyListeners(Event event) {
+        for (Consumer<Event> listener : listeners) {
+            listener.accept(event);
+        }
+    }
+
+    private void index(Event event) {
+        insertInOrder(byItem.computeIfAbsent(event.serialNb, k -> new ArrayList<>()), event);
+        insertInOrder(byBucket.computeIfAbsent(bucketOf(event.time), k -> new ArrayList<>()), event);
+        eventCount++;
+    }
+
+    /**
+     * Appends the event, or inserts it in place if the clock went backwards.
+     */
+    private static void insertInOrder(ArrayList<Event> events, Event event) {
+        int at = events.size();
+        while (at > 0 && events.get(at - 1).time > event.time) {
+            at--;
+        }
+        events.add(at, event);
+    }
+
+    /**
+     * Returns the last borrow or return at or before the time in a
+     * time-ordered history, or null if there is none.
+     */
+    private static Event lastLoanEventAt(ArrayList<Event> events, long time) {
+        // Reservations do not end a loan; look back to the last borrow or return
+        for (int i = lastIndexAt(events, time); i >= 0; i--) {
+            if (events.get(i).type != Type.RESERVE) {
+                return events.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Binary searches a time-ordered history for the index of the last event
+     * at or before the time, or -1 if there is none.
+     */
+    private static int lastIndexAt(ArrayList<Event> events, long time) {
+        int found = -1;
+        if (events == null) {
+            return found;
+        }
+        int low = 0;
+        int high = events.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (events.get(mid).time <= time) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private static long bucketOf(long time) {
+        return Math.floorDiv(time, BUCKET_MS) * BUCKET_MS;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Circulation log: " + eventCount + " event(s) on " + byItem.size() + " item(s) over "
+                + byBucket.size() + " day(s)";
+    }
+
+    /**
+     * One immutable circulation event.
+     */
+    public static final class Event {
+        private final Type type;
+        private final long time;
+        private final long serialNb;
+        private final String memberId;
+
+        /**
+         * Creates an event.
+         * @param type kind of event
+         * @param time when it happened, in milliseconds
+         * @param serialNb serial number of the item
+         * @param memberId ID of the member involved
+         */
+        public Event(Type type, long time, long serialNb, String memberId) {
+            this.type = type;
+            this.time = time;
+            this.serialNb = serialNb;
+            this.memberId = memberId;
+        }
+
+        static Event parse(String line) {
+            String[] tokens = line.split("#", -1);
+            return new Event(Type.of(tokens[0].charAt(0)), Long.parseLong(tokens[1]),
+                    Long.parseLong(tokens[2]), tokens[3]);
+        }
+
+        String toLine() {
+            return type.code + "#" + time + "#" + serialNb + "#" + memberId;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getSerialNumber() {
+            return serialNb;
+        }
+
+        public String getMemberId() {
+            return memberId;
+        }
+
+        @Override
+        public String toString() {
+            return new Date(time) + " " + type + " " + serialNb + (memberId.isEmpty() ? "" : " by " + memberId);
+        }
+    }
+}
@@ -6,6 +6,8 @@
  * @author jeffreyhaddad
  */
 public class Civilian extends Person {
+    /** Balance given to a civilian registered without credit */
+    public static final double DEFAULT_BALANCE = 50;
     /** Unique identifier for the civilian */
     private String id;
     /** Current balance available for borrowing items */
@@ -27,21 +29,22 @@ public class Civilian extends Person {
         this.id = id;
         setCurrentBal(currentBal);
     }
-    public Civilian(){ this("unkown", "unknown", 'm', 18 , "00-000000", "unknown",50 );}
+    public Civilian(){ this("unkown", "unknown", 'm', 18 , "00-000000", "unknown",DEFAULT_BALANCE );}
 
     //getters and setters
 
     /**
      * Sets the current balance for the civilian.
      * If the provided balance is less than or equal to 0,
-     * a default value of 50 is used.
+     * the default of {@value #DEFAULT_BALANCE} is used.
      * 
      * @param currentBal The balance to set
      */
     private void setCurrentBal(double currentBal) {
         if (currentBal > 0)
             this.currentBal = currentBal;
-        else this.currentBal = 50;
+        else this.currentBal = DEFAULT_BALANCE;
+        markDirty();
     }
     
     /**
@@ -55,7 +58,31 @@ public class Civilian extends Person {
     }
 
 
-    public double getCurrentBal() {
+    /**
+     * Sets the balance to the one of another copy of this member, such as
+     * the copy replicated from the primary process.
+     *
+     * @param balance balance to copy
+     */
+    public void copyBalance(double balance) {
+        this.currentBal = balance;
+        markDirty();
+    }
+
+    /**
+     * Deducts a late fine from the balance. The balance may drop below
+     * zero; the civilian then cannot borrow until credit is added.
+     *
+     * @param fine amount to charge
+     */
+    public void chargeFine(double fine) {
+        if (fine > 0) {
+            currentBal -= fine;
+            markDirty();
+        }
+    }
+
+        public double getCurrentBal() {
         return currentBal;
     }
 
@@ -70,13 +97,18 @@ public class Civilian extends Person {
      * @param item The item to borrow
      * @return true if borrowing succeeded, false otherwise
      */
+    @Override
     public boolean borrowItem(LibraryItem item) {
-        if (item.getPrice() <= currentBal && item.getStatus() == 'a') {
-            currentBal -= item.getPrice();
+        // One price table snapshot for both the check and the charge
+        double price = PricingEngine.current().priceFor(item, this);
+        if (price <= currentBal && item.getStatus() == 'a'
+                && PolicyEngine.current().check(this, item) == BorrowingPolicy.ALLOWED) {
+            currentBal -= price;
             item.setStatus('o');
             item.setRegistration();
-            item.getPastOwners().add(this);
-            getBorrowedItem().add(item);
+            item.addPastOwner(this);
+            addBorrowedItem(item);
+            markDirty();
             return true;
         }
         return false;
@@ -89,11 +121,13 @@ public class Civilian extends Person {
      * @param item The item to return
      * @return true if the item was returned, false otherwise
      */
+    @Override
     public boolean returnItem(LibraryItem item) {
         if (getBorrowedItem().contains(item)){
             item.setStatus('a');
             item.setRegistration();
-            getBorrowedItem().remove(item);
+            removeBorrowedItem(item);
+            markDirty();
             return true;
         }
         return false;
@@ -0,0 +1,168 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * "Members who borrowed this also borrowed": recommendations from the
+ * co-borrowing history.
+ *
+ * Two items co-occur once for every member who borrowed both. The item-item
+ * co-occurrence matrix is kept sparse: one row per item, each row a
+ * {@link LongIntMap} from serial number to count, so counting and ranking
+ * never box a key.
+ *
+ * The matrix is built from every item's past owners when the data is
+ * loaded, one row per task in parallel (each row only reads the shared
+ * member histories, so no merging is needed). Afterwards every borrow
+ * updates it incrementally.
+ *
+ * @author jeffreyhaddad
+ */
+public class CoBorrowRecommender {
+
+    /** Co-occurrence row of each item, keyed by serial number */
+    private final LongObjectMap<LongIntMap> rows = new LongObjectMap<>();
+    /** Serial numbers each member has borrowed (count = number of loans) */
+    private final HashMap<String, LongIntMap> histories = new HashMap<>();
+
+    /**
+     * Rebuilds the matrix from the items' past owners.
+     *
+     * @param items all items
+     * @param ownerIds serialized past owner IDs of an item ("id1&amp;&amp;id2")
+     */
+    public synchronized void build(List<LibraryItem> items, Function<LibraryItem, String> ownerIds) {
+        rows.clear();
+        histories.clear();
+        LongObjectMap<String[]> owners = new LongObjectMap<>();
+        for (LibraryItem item : items) {
+            String ids = ownerIds.apply(item);
+            if (ids == null || ids.isEmpty()) {
+                continue;
+            }
+            String[] split = ids.split("&&");
+            owners.put(item.getSerialNumber(), split);
+            for (String id : split) {
+                if (!id.isEmpty()) {
+                    histories.computeIfAbsent(id, k -> new LongIntMap()).add(item.getSerialNumber(), 1);
+                }
+            }
+        }
+        LongArrayList serials = new LongArrayList(owners.size());
+        ArrayList<String[]> ownerLists = new ArrayList<>(owners.size());
+        owners.forEach((serial, ids) -> {
+            serials.add(serial);
+            ownerLists.add(ids);
+        });
+        // Rows are computed in parallel and stored afterwards, the map itself is not thread-safe
+        LongIntMap[] built = IntStream.range(0, serials.size()).parallel()
+                .mapToObj(i -> buildRow(serials.get(i), ownerLists.get(i))).toArray(LongIntMap[]::new);
+        for (int i = 0; i < built.length; i++) {
+            if (!built[i].isEmpty()) {
+                rows.put(serials.get(i), built[i]);
+            }
+        }
+    }
+
+    /**
+     * Counts the items borrowed by the past owners of one item.
+     */
+    private LongIntMap buildRow(long serial, String[] ownerIds) {
+        LongIntMap row = new LongIntMap();
+        for (String id : distinct(ownerIds)) {
+            LongIntMap history = histories.get(id);
+            if (history != null) {
+                history.forEach((other, loans) -> {
+                    if (other != serial) {
+                        row.add(other, 1);
+                    }
+                });
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Updates the matrix for one borrow. The first loan of an item by a
+     * member adds one co-occurrence with every other item the member borrowed.
+     *
+     * @param memberId ID of the borrower
+     * @param serialNb serial number of the borrowed item
+     */
+    public synchronized void recordBorrow(String memberId, long serialNb) {
+        LongIntMap history = histories.computeIfAbsent(memberId, k -> new LongIntMap());
+        if (history.add(serialNb, 1) > 1) {
+            return;
+        }
+        history.forEach((other, loans) -> {
+            if (other != serialNb) {
+                rows.computeIfAbsent(serialNb, k -> new LongIntMap()).add(other, 1);
+                rows.computeIfAbsent(other, k -> new LongIntMap()).add(serialNb, 1);
+            }
+        });
+    }
+
+    /**
+     * Returns the items most often borrowed by the members who borrowed the given one.
+     *
+     * @param serialNb serial number of the item
+     * @param k maximum number of recommendations
+     * @return serial numbers, most co-borrowed first
+     */
+    public synchronized long[] recommendForItem(long serialNb, int k) {
+        LongIntMap row = rows.get(serialNb);
+        return row == null ? new long[0] : row.top(k, null);
+    }
+
+    /**
+     * Returns the items most co-borrowed with the member's loans that the
+     * member has not borrowed yet.
+     *
+     * @param memberId ID of the member
+     * @param k maximum number of recommendations
+     * @return serial numbers, best first
+     */
+    public synchronized long[] recommendForMember(String memberId, int k) {
+        LongIntMap history = histories.get(memberId);
+        if (history == null) {
+            return new long[0];
+        }
+        LongIntMap scores = new LongIntMap();
+        history.forEach((serial, loans) -> {
+            LongIntMap row = rows.get(serial);
+            if (row != null) {
+                row.forEach(scores::add);
+            }
+        });
+        return scores.top(k, history);
+    }
+
+    /**
+     * Returns the number of non-zero cells in the matrix.
+     * @return co-occurring item pairs (each pair counted in both directions)
+     */
+    public synchronized int getPairCount() {
+        int pairs = 0;
+        for (LongIntMap row : rows.values()) {
+            pairs += row.size();
+        }
+        return pairs;
+    }
+
+    private static List<String> distinct(String[] ids) {
+        ArrayList<String> unique = new ArrayList<>();
+        for (String id : ids) {
+            if (!id.isEmpty() && !unique.contains(id)) {
+                unique.add(id);
+            }
+        }
+        return unique;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Recommender: " + rows.size() + " item(s), " + getPairCount() + " co-borrowed pair(s)";
+    }
+}
@@ -0,0 +1,466 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative ints, laid out like a roaring bitmap.
+ *
+ * Values are split by their high 16 bits into chunks of 65536. A chunk holding
+ * few values keeps them as a sorted {@code char} array (2 bytes per value); a
+ * chunk holding more than {@value #ARRAY_MAX} values switches to a plain
+ * 8 KB bitmap. Intersections and unions work chunk by chunk, with only the
+ * chunks both sides have, and the cardinality is kept up to date so it is
+ * free to read.
+ *
+ * @author jeffreyhaddad
+ */
+public class CompressedBitmap {
+
+    /** Largest number of values an array chunk holds before becoming a bitmap */
+    private static final int ARRAY_MAX = 4096;
+
+    /** High 16 bits of each chunk, in increasing order */
+    private char[] keys = new char[4];
+    /** Chunk of each key */
+    private Chunk[] chunks = new Chunk[4];
+    private int chunkCount;
+    private int cardinality;
+
+    /**
+     * Adds a value.
+     * @param value non-negative value
+     * @return true if the value was not in the set yet
+     */
+    public boolean add(int value) {
+        char high = (char) (value >>> 16);
+        int at = find(high);
+        if (at < 0) {
+            at = -at - 1;
+            insertChunk(at, high, new ArrayChunk());
+        }
+        int before = chunks[at].cardinality();
+        chunks[at] = chunks[at].add((char) value);
+        boolean added = chunks[at].cardinality() > before;
+        if (added) {
+            cardinality++;
+        }
+        return added;
+    }
+
+    /**
+     * Removes a value.
+     * @param value value to remove
+     * @return true if the value was in the set
+     */
+    public boolean remove(int value) {
+        int at = find((char) (value >>> 16));
+        if (at < 0) {
+            return false;
+        }
+        int before = chunks[at].cardinality();
+        chunks[at] = chunks[at].remove((char) value);
+        boolean removed = chunks[at].cardinality() < before;
+        if (removed) {
+            cardinality--;
+            if (chunks[at].cardinality() == 0) {
+                removeChunk(at);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns true if the value is in the set.
+     * @param value value to look for
+     * @return whether the set contains it
+     */
+    public boolean contains(int value) {
+        int at = find((char) (value >>> 16));
+        return at >= 0 && chunks[at].contains((char) value);
+    }
+
+    /**
+     * Returns the number of values in the set.
+     * @return cardinality
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns true if the set is empty.
+     * @return whether there are no values
+     */
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * Calls the consumer with every value, in increasing order.
+     * @param consumer receives the values
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     * Returns the values common to two sets.
+     * @param a first set
+     * @param b second set
+     * @return a new set with the intersection
+     */
+    public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount && j < b.chunkCount) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Chunk chunk = a.chunks[i].and(b.chunks[j]);
+                if (chunk.cardinality() > 0) {
+                    result.insertChunk(result.chunkCount, a.keys[i], chunk);
+                    result.cardinality += chunk.cardinality();
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts the values common to two sets without building the intersection.
+     * @param a first set
+     * @param b second set
+     * @return size of the intersection
+     */
+    public static int andCardinality(CompressedBitmap a, CompressedBitmap b) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount && j < b.chunkCount) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                count += a.chunks[i].andCardinality(b.chunks[j]);
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the values in either of two sets.
+     * @param a first set
+     * @param b second set
+     * @return a new set with the union
+     */
+    public static CompressedBitmap or(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount || j < b.chunkCount) {
+            Chunk chunk;
+            char key;
+            if (j == b.chunkCount || (i < a.chunkCount && a.keys[i] < b.keys[j])) {
+                key = a.keys[i];
+                chunk = a.chunks[i++].copy();
+            } else if (i == a.chunkCount || a.keys[i] > b.keys[j]) {
+                key = b.keys[j];
+                chunk = b.chunks[j++].copy();
+            } else {
+                key = a.keys[i];
+                chunk = a.chunks[i++].or(b.chunks[j++]);
+            }
+            result.insertChunk(result.chunkCount, key, chunk);
+            result.cardinality += chunk.cardinality();
+        }
+        return result;
+    }
+
+    private int find(char high) {
+        return Arrays.binarySearch(keys, 0, chunkCount, high);
+    }
+
+    private void insertChunk(int at, char high, Chunk chunk) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        System.arraycopy(keys, at, keys, at + 1, chunkCount - at);
+        System.arraycopy(chunks, at, chunks, at + 1, chunkCount - at);
+        keys[at] = high;
+        chunks[at] = chunk;
+        chunkCount++;
+    }
+
+    private void removeChunk(int at) {
+        System.arraycopy(keys, at + 1, keys, at, chunkCount - at - 1);
+        System.arraycopy(chunks, at + 1, chunks, at, chunkCount - at - 1);
+        chunks[--chunkCount] = null;
+    }
+
+    @Override
+    public String toString() {
+        return "Bitmap: " + cardinality + " value(s) in " + chunkCount + " chunk(s)";
+    }
+
+    /**
+     * The low 16 bits of the values sharing one high part. Updates return
+     * the chunk to keep, which may have switched representation.
+     */
+    private abstract static class Chunk {
+        abstract int cardinality();
+
+        abstract boolean contains(char low);
+
+        abstract Chunk add(char low);
+
+        abstract Chunk remove(char low);
+
+        abstract Chunk and(Chunk other);
+
+        abstract int andCardinality(Chunk other);
+
+        abstract Chunk or(Chunk other);
+
+        abstract Chunk copy();
+
+        abstract void forEach(int base, IntConsumer consumer);
+
+        /**
+         * Returns this chunk as a bitmap chunk, converting if needed.
+         */
+        abstract BitmapChunk toBitmap();
+    }
+
+    /**
+     * A sparse chunk: its values as a sorted array.
+     */
+    private static final class ArrayChunk extends Chunk {
+        private char[] values;
+        private int size;
+
+        ArrayChunk() {
+            this(new char[4], 0);
+        }
+
+        ArrayChunk(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        @Override
+        Chunk add(char low) {
+            int at = Arrays.binarySearch(values, 0, size, low);
+            if (at >= 0) {
+                return this;
+            }
+            if (size == ARRAY_MAX) {
+                return toBitmap().add(low);
+            }
+            at = -at - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+            }
+            System.arraycopy(values, at, values, at + 1, size - at);
+            values[at] = low;
+            size++;
+            return this;
+        }
+
+        @Override
+        Chunk remove(char low) {
+            int at = Arrays.binarySearch(values, 0, size, low);
+            if (at >= 0) {
+                System.arraycopy(values, at + 1, values, at, size - at - 1);
+                size--;
+            }
+            return this;
+        }
+
+        @Override
+        Chunk and(Chunk other) {
+            char[] common = new char[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    common[count++] = values[i];
+                }
+            }
+            return new ArrayChunk(common, count);
+        }
+
+        @Override
+        int andCardinality(Chunk other) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        Chunk or(Chunk other) {
+            Chunk result = other.copy();
+            for (int i = 0; i < size; i++) {
+                result = result.add(values[i]);
+            }
+            return result;
+        }
+
+        @Override
+        Chunk copy() {
+            return new ArrayChunk(Arrays.copyOf(values, Math.max(4, size)), size);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        BitmapChunk toBitmap() {
+            BitmapChunk bitmap = new BitmapChunk();
+            for (int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * A dense chunk: one bit per possible value.
+     */
+    private static final class BitmapChunk extends Chunk {
+        private final long[] words = new long[1 << 10];
+        private int size;
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Chunk add(char low) {
+            long word = words[low >>> 6];
+            long updated = word | (1L << low);
+            if (updated != word) {
+                words[low >>> 6] = updated;
+                size++;
+            }
+            return this;
+        }
+
+        @Override
+        Chunk remove(char low) {
+            long word = words[low >>> 6];
+            long updated = word & ~(1L << low);
+            if (updated == word) {
+                return this;
+            }
+            words[low >>> 6] = updated;
+            size--;
+            if (size > ARRAY_MAX) {
+                return this;
+            }
+            char[] values = new char[size];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                for (long bits = words[i]; bits != 0; bits &= bits - 1) {
+                    values[count++] = (char) (i * 64 + Long.numberOfTrailingZeros(bits));
+                }
+            }
+            return new ArrayChunk(values, count);
+        }
+
+        @Override
+        Chunk and(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.and(this);
+            }
+            BitmapChunk result = new BitmapChunk();
+            long[] otherWords = ((BitmapChunk) other).words;
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & otherWords[i];
+                result.size += Long.bitCount(result.words[i]);
+            }
+            return result;
+        }
+
+        @Override
+        int andCardinality(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.andCardinality(this);
+            }
+            long[] otherWords = ((BitmapChunk) other).words;
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                count += Long.bitCount(words[i] & otherWords[i]);
+            }
+            return count;
+        }
+
+        @Override
+        Chunk or(Chunk other) {
+            BitmapChunk result = other.toBitmap();
+            if (result == other) {
+                result = (BitmapChunk) other.copy();
+            }
+            result.size = 0;
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] |= words[i];
+                result.size += Long.bitCount(result.words[i]);
+            }
+            return result;
+        }
+
+        @Override
+        Chunk copy() {
+            BitmapChunk copy = new BitmapChunk();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.size = size;
+            return copy;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < words.length; i++) {
+                for (long bits = words[i]; bits != 0; bits &= bits - 1) {
+                    consumer.accept(base | (i * 64 + Long.numberOfTrailingZeros(bits)));
+                }
+            }
+        }
+
+        @Override
+        BitmapChunk toBitmap() {
+            return this;
+        }
+    }
+}
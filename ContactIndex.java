@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds members by phone number, for a caller at the desk.
+ *
+ * Members are indexed by the canonical form of their number (see
+ * {@link PhoneNumbers}), so any spelling of a number finds them in one hash
+ * lookup. Several members may share a number, for example a family. The
+ * index follows number changes through {@link MemberChangeListener}.
+ *
+ * @author jeffreyhaddad
+ */
+public class ContactIndex implements MemberChangeListener {
+
+    /** Members having each canonical number */
+    private final LongObjectMap<ArrayList<Person>> byPhone = new LongObjectMap<>();
+    /** Indexed members without a valid number */
+    private final Set<Person> withoutNumber = Collections.newSetFromMap(new IdentityHashMap<>());
+    /** Number of indexed members with a valid number */
+    private int withNumber;
+
+    /**
+     * Indexes a member.
+     * @param member member to add
+     */
+    public synchronized void add(Person member) {
+        if (member.getPhoneKey() == PhoneNumbers.INVALID) {
+            withoutNumber.add(member);
+        } else {
+            byPhone.computeIfAbsent(member.getPhoneKey(), k -> new ArrayList<>(1)).add(member);
+            withNumber++;
+        }
+    }
+
+    /**
+     * Indexes every member of a list.
+     * @param members members to add
+     */
+    public synchronized void addAll(List<Person> members) {
+        for (Person member : members) {
+            add(member);
+        }
+    }
+
+    /**
+     * Removes a member from the index.
+     * @param member member to remove
+     */
+    public synchronized void remove(Person member) {
+        if (!withoutNumber.remove(member) && removeFrom(member.getPhoneKey(), member)) {
+            withNumber--;
+        }
+    }
+
+    @Override
+    public synchronized void memberChanged(Person member, String field, Object oldValue, Object newValue) {
+        if (!field.equals("phone")) {
+            return;
+        }
+        long old = (Long) oldValue;
+        if (old == PhoneNumbers.INVALID ? withoutNumber.remove(member) : removeFrom(old, member)) {
+            byPhone.computeIfAbsent((Long) newValue, k -> new ArrayList<>(1)).add(member);
+            if (old == PhoneNumbers.INVALID) {
+                withNumber++;
+            }
+        }
+    }
+
+    /**
+     * Returns the members with a phone number.
+     * @param number number in any accepted spelling
+     * @return members with that number (empty if none or if the number is invalid)
+     */
+    public synchronized List<Person> find(String number) {
+        ArrayList<Person> members = byPhone.get(PhoneNumbers.parse(number));
+        return members == null ? Collections.emptyList() : new ArrayList<>(members);
+    }
+
+    private boolean removeFrom(long key, Person member) {
+        ArrayList<Person> members = byPhone.get(key);
+        if (members == null || !members.remove(member)) {
+            return false;
+        }
+        if (members.isEmpty()) {
+            byPhone.remove(key);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int shared = 0;
+        for (ArrayList<Person> members : byPhone.values()) {
+            if (members.size() > 1) {
+                shared++;
+            }
+        }
+        return "Contact index: " + (withNumber + withoutNumber.size()) + " member(s), " + byPhone.size()
+                + " number(s), " + shared + " shared, " + withoutNumber.size() + " member(s) without a valid number";
+    }
+}
@@ -9,8 +9,6 @@ import java.util.Date;
  */
 public class DVD extends LibraryItem{
    
-    /** The additional cost specific to DVDs */
-    private static double DVD_COST = 5;  
     /** The size of the DVD content in megabytes */
     private double sizeInMB;
     
@@ -38,8 +36,11 @@ public class DVD extends LibraryItem{
      * @param sizeInMB The size in MB (must be greater than 1)
      */
     public void setSizeInMB(double sizeInMB){ 
+        double old = this.sizeInMB;
         if(sizeInMB > 1)
         this.sizeInMB = sizeInMB;
+        markDirty();
+        fireChanged("size", old, this.sizeInMB);
     }
       
     /**
@@ -47,7 +48,7 @@ public class DVD extends LibraryItem{
      * @return DVD-specific cost
      */
     public double getDVDCost(){
-        return DVD_COST;
+        return PricingEngine.current().getSurcharge(PriceTable.DVD);
     }
     
     /**
@@ -58,13 +59,6 @@ public class DVD extends LibraryItem{
         return sizeInMB;
     }
     
-    /**
-     * Returns the full price for this DVD (base price + DVD-specific cost).
-     * @return total price
-     */
-    public double getPrice(){
-        return super.getPrice() + DVD_COST;
-    }
     
     @Override
     public String toString(){
@@ -0,0 +1,93 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * An operating system lock on the data directory, shared between every
+ * process using it. Loads take the lock in shared mode so several readers can
+ * load at once; saves take it in exclusive mode so only one process merges
+ * and rewrites the data files at a time.
+ *
+ * The lock is held on a separate {@code library.lock} file because the data
+ * files themselves are replaced while saving.
+ *
+ * @author jeffreyhaddad
+ */
+public class DataDirectoryLock implements Closeable {
+
+    /** Name of the lock file created in the data directory */
+    public static final String LOCK_FILE = "library.lock";
+
+    private final RandomAccessFile file;
+    private final FileLock lock;
+
+    private DataDirectoryLock(RandomAccessFile file, FileLock lock) {
+        this.file = file;
+        this.lock = lock;
+    }
+
+    /**
+     * Blocks until the lock on the given directory is obtained.
+     *
+     * @param dataDir directory holding the data files
+     * @param shared true for a shared (read) lock, false for an exclusive (write) lock
+     * @return the held lock; close it to release
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public static DataDirectoryLock acquire(File dataDir, boolean shared) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(dataDir, LOCK_FILE), "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            return new DataDirectoryLock(file, channel.lock(0, Long.MAX_VALUE, shared));
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Obtains an exclusive lock on the given directory without waiting.
+     *
+     * @param dataDir directory holding the data files
+     * @return the held lock, or null if another process holds it
+     * @throws IOException if the lock file cannot be opened
+     */
+    public static DataDirectoryLock tryAcquire(File dataDir) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(dataDir, LOCK_FILE), "rw");
+        try {
+            FileLock lock = file.getChannel().tryLock();
+            if (lock == null) {
+                file.close();
+                return null;
+            }
+            return new DataDirectoryLock(file, lock);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if this is a shared (read) lock.
+     * @return whether the lock is shared
+     */
+    public boolean isShared() {
+        return lock.isShared();
+    }
+
+    /**
+     * Releases the lock.
+     * @throws IOException if the lock file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Faceted browsing: drill down into the catalog by type, genre, status,
+ * publisher and page count, with the number of matching items shown for
+ * every value.
+ *
+ * Each item gets a small integer slot, and each facet value keeps a
+ * {@link CompressedBitmap} of the slots having it. A query ORs the selected
+ * values of a facet together and ANDs the facets, so it never looks at an
+ * item outside the result. The count of a value under the current selection
+ * is the size of its bitmap intersected with the result, computed chunk by
+ * chunk without building the intersection.
+ *
+ * Bitmaps are updated when items are added or removed and, through
+ * {@link ItemChangeListener}, when a faceted field changes.
+ *
+ * @author jeffreyhaddad
+ */
+public class FacetIndex implements ItemChangeListener {
+
+    /** Attributes items can be filtered by */
+    public enum Facet {
+        TYPE, GENRE, STATUS, PUBLISHER, PAGES;
+
+        /**
+         * Returns the facet with the given name, ignoring case.
+         * @param name facet name
+         * @return the facet, or null if there is none with that name
+         */
+        public static Facet of(String name) {
+            for (Facet facet : values()) {
+                if (facet.name().equalsIgnoreCase(name.trim())) {
+                    return facet;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Lower bounds of the page-count buckets */
+    private static final int[] PAGE_BUCKETS = {0, 100, 300, 500, 1000};
+
+    /** Indexed items by slot; removed items leave a null slot that is reused */
+    private final ArrayList<LibraryItem> slots = new ArrayList<>();
+    /** Facet values of each slot, by facet ordinal */
+    private final ArrayList<String[]> valuesOf = new ArrayList<>();
+    /** Slot of each indexed item */
+    private final IdentityHashMap<LibraryItem, Integer> slotOf = new IdentityHashMap<>();
+    /** Free slots left by removed items */
+    private final IntArrayList freeSlots = new IntArrayList();
+    /** Every indexed slot */
+    private final CompressedBitmap all = new CompressedBitmap();
+    /** Slots having each value, per facet; values sorted for display */
+    private final EnumMap<Facet, TreeMap<String, CompressedBitmap>> bitmaps = new EnumMap<>(Facet.class);
+
+    /**
+     * Creates an empty index.
+     */
+    public FacetIndex() {
+        for (Facet facet : Facet.values()) {
+            bitmaps.put(facet, new TreeMap<>());
+        }
+    }
+
+    /**
+     * Indexes an item.
+     * @param item item to add
+     */
+    public synchronized void add(LibraryItem item) {
+        if (slotOf.containsKey(item)) {
+            return;
+        }
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = slots.size();
+            slots.add(item);
+            valuesOf.add(null);
+        } else {
+            slot = freeSlots.removeLast();
+            slots.set(slot, item);
+        }
+        slotOf.put(item, slot);
+        String[] values = new String[Facet.values().length];
+        for (Facet facet : Facet.values()) {
+            values[facet.ordinal()] = valueOf(item, facet);
+            addSlot(facet, values[facet.ordinal()], slot);
+        }
+        valuesOf.set(slot, values);
+        all.add(slot);
+    }
+
+    /**
+     * Indexes every item of a list.
+     * @param items items to add
+     */
+    public synchronized void addAll(List<LibraryItem> items) {
+        for (LibraryItem item : items) {
+            add(item);
+        }
+    }
+
+    /**
+     * Removes an item from the index.
+     * @param item item to remove
+     */
+    public synchronized void remove(LibraryItem item) {
+        Integer slot = slotOf.remove(item);
+        if (slot == null) {
+            return;
+        }
+        String[] values = valuesOf.get(slot);
+        for (Facet facet : Facet.values()) {
+            removeSlot(facet, values[facet.ordinal()], slot);
+        }
+        all.remove(slot);
+        slots.set(slot, null);
+        valuesOf.set(slot, null);
+        freeSlots.add(slot);
+    }
+
+    @Override
+    public synchronized void itemChanged(LibraryItem item, String field, Object oldValue, Object newValue) {
+        Facet facet;
+        switch (field) {
+            case "genre":
+                facet = Facet.GENRE;
+                break;
+            case "status":
+                facet = Facet.STATUS;
+                break;
+            case "publisher":
+                facet = Facet.PUBLISHER;
+                break;
+            case "pages":
+                facet = Facet.PAGES;
+                break;
+            default:
+                return;
+        }
+        Integer slot = slotOf.get(item);
+        if (slot == null) {
+            return;
+        }
+        String[] values = valuesOf.get(slot);
+        String value = valueOf(item, facet);
+        if (!value.equals(values[facet.ordinal()])) {
+            removeSlot(facet, values[facet.ordinal()], slot);
+            addSlot(facet, value, slot);
+            values[facet.ordinal()] = value;
+        }
+    }
+
+    /**
+     * Returns the items matching a selection: for each facet in the
+     * selection, any of its values.
+     *
+     * @param selection selected values per facet (an empty selection matches everything)
+     * @return matching items, in slot order
+     */
+    public synchronized ArrayList<LibraryItem> query(Map<Facet, ? extends Collection<String>> selection) {
+        ArrayList<LibraryItem> items = new ArrayList<>();
+        match(selection).forEach(slot -> items.add(slots.get(slot)));
+        return items;
+    }
+
+    /**
+     * Returns how many items matching the selection have each value of a
+     * facet. Values with no matching item are left out.
+     *
+     * @param selection selected values per facet
+     * @param facet facet to count
+     * @return count of each value, values in alphabetical order
+     */
+    public synchronized LinkedHashMap<String, Integer> counts(Map<Facet, ? extends Collection<String>> selection,
+                                                              Facet facet) {
+        CompressedBitmap matching = match(selection);
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, CompressedBitmap> entry : bitmaps.get(facet).entrySet()) {
+            int count = CompressedBitmap.andCardinality(entry.getValue(), matching);
+            if (count > 0) {
+                counts.put(entry.getKey(), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of indexed items.
+     * @return item count
+     */
+    public synchronized int size() {
+        return all.getCardinality();
+    }
+
+    private void addSlot(Facet facet, String value, int slot) {
+        bitmaps.get(facet).computeIfAbsent(value, v -> new CompressedBitmap()).add(slot);
+    }
+
+    /**
+     * Removes a slot from a value's bitmap, dropping the value once no item
+     * has it so the counts only list values that exist.
+     */
+    private void removeSlot(Facet facet, String value, int slot) {
+        CompressedBitmap slots = bitmaps.get(facet).get(value);
+        if (slots != null && slots.remove(slot) && slots.isEmpty()) {
+            bitmaps.get(facet).remove(value);
+        }
+    }
+
+    private CompressedBitmap match(Map<Facet, ? extends Collection<String>> selection) {
+        CompressedBitmap result = all;
+        for (Map.Entry<Facet, ? extends Collection<String>> entry : selection.entrySet()) {
+            CompressedBitmap any = new CompressedBitmap();
+            for (String value : entry.getValue()) {
+                CompressedBitmap slots = bitmaps.get(entry.getKey()).get(normalize(entry.getKey(), value));
+                if (slots != null) {
+                    any = CompressedBitmap.or(any, slots);
+                }
+            }
+            result = CompressedBitmap.and(result, any);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a facet for an item, as shown to the user.
+     */
+    static String valueOf(LibraryItem item, Facet facet) {
+        switch (facet) {
+            case TYPE:
+                return item instanceof Book ? "book" : item instanceof DVD ? "dvd" : "item";
+            case GENRE:
+                return normalize(facet, item.getGenre());
+            case STATUS:
+                return item.getStatus() == 'o' ? "on loan" : item.getStatus() == 'r' ? "reserved" : "available";
+            case PUBLISHER:
+                return normalize(facet, item.getPublisher());
+            default:
+                if (!(item instanceof Book)) {
+                    return "none";
+                }
+                int pages = ((Book) item).getNbOfPages();
+                for (int i = PAGE_BUCKETS.length - 1; i > 0; i--) {
+                    if (pages >= PAGE_BUCKETS[i]) {
+                        return i == PAGE_BUCKETS.length - 1 ? PAGE_BUCKETS[i] + "+"
+                                                            : PAGE_BUCKETS[i] + "-" + (PAGE_BUCKETS[i + 1] - 1);
+                    }
+                }
+                return "<" + PAGE_BUCKETS[1];
+        }
+    }
+
+    private static String normalize(Facet facet, String value) {
+        if (value == null) {
+            return "";
+        }
+        return facet == Facet.PAGES ? value.trim() : value.trim().toLowerCase();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder("Facet index: " + size() + " item(s)");
+        for (Facet facet : Facet.values()) {
+            text.append(", ").append(bitmaps.get(facet).size()).append(' ')
+                .append(facet.name().toLowerCase()).append(" value(s)");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.Arrays;
+
+/**
+ * A growable list of {@code int} values backed by one {@code int[]}, also
+ * used as a stack.
+ *
+ * @author jeffreyhaddad
+ */
+public final class IntArrayList {
+
+    private int[] values;
+    private int size;
+
+    /**
+     * Creates an empty list.
+     */
+    public IntArrayList() {
+        this(8);
+    }
+
+    /**
+     * Creates an empty list with room for a number of values.
+     * @param capacity initial capacity
+     */
+    public IntArrayList(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Appends a value.
+     * @param value value to add
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Returns the value at a position.
+     * @param index position, from 0 to size - 1
+     * @return the value
+     */
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    /**
+     * Removes and returns the last value.
+     * @return the last value
+     */
+    public int removeLast() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("empty list");
+        }
+        return values[--size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the values as an array.
+     * @return a new array of exactly size values
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * Notified when a field of a {@link LibraryItem} changes, so indexes over
+ * the catalog can be kept up to date incrementally instead of rebuilt.
+ *
+ * Listeners are registered with {@link LibraryItem#addChangeListener} and
+ * are called on the thread that changed the item, after the change. They
+ * are also called while an item is being constructed, before it has been
+ * added to any index, and should ignore items they do not know.
+ *
+ * @author jeffreyhaddad
+ */
+public interface ItemChangeListener {
+
+    /**
+     * Called after a field of an item changed.
+     *
+     * @param item the changed item
+     * @param field name of the field, such as "title" or "author"
+     * @param oldValue value before the change
+     * @param newValue value after the change
+     */
+    void itemChanged(LibraryItem item, String field, Object oldValue, Object newValue);
+}
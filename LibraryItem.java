@@ -1,5 +1,10 @@
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Represents a generic library item that can be borrowed.
@@ -12,8 +17,6 @@ import java.util.Date;
  */
 public class LibraryItem {
     
-    /** The base cost applied to all library items */
-    private static final double GENERAL_COST = 10;
     /** Unique identifier for the library item */
     private long serialNumber;
     /** Title of the library item */
@@ -30,6 +33,18 @@ public class LibraryItem {
     private Date dateAvailable;
     /** List of people who have previously borrowed this item */
     private ArrayList<Person> pastOwners;
+    /** Serialized past owner IDs ("id1&&id2") not yet resolved into pastOwners */
+    private String pendingOwners;
+    /** Looks up a member by ID when the pending owners are resolved */
+    private Function<String, Person> ownerResolver;
+    /** True if the item changed since it was last loaded or saved */
+    private volatile boolean dirty;
+    /** Number of items currently marked dirty */
+    private static final AtomicInteger dirtyCount = new AtomicInteger();
+    /** Indexes notified when an item's fields change */
+    private static final CopyOnWriteArrayList<ItemChangeListener> listeners = new CopyOnWriteArrayList<>();
+    /** Told every time an item is marked dirty, or null */
+    private static volatile Consumer<LibraryItem> dirtyListener;
     
     /**
      * Default constructor. Creates a library item with default values.
@@ -52,10 +67,8 @@ public class LibraryItem {
     
     /**
      * Constructs a library item with all details specified.
-     * Note: the serial number is generated automatically and the passed
-     * serialNumber parameter is ignored in current implementation.
      *
-     * @param serialNumber A serial number (not currently used; serial is generated)
+     * @param serialNumber The serial number of the item
      * @param title The title of the item
      * @param author The author of the item
      * @param publisher The publisher of the item
@@ -64,7 +77,7 @@ public class LibraryItem {
      * @param dateAvailable The date when the item is available
      */
     public LibraryItem(long serialNumber, String title, String author, String publisher, char status, String genre, Date dateAvailable) {
-        this.serialNumber = generateSerialNumber();
+        this.serialNumber = serialNumber;
         setTitle(title);
         setAuthor(author);
         setPublisher(publisher);
@@ -81,7 +94,10 @@ public class LibraryItem {
      * @param title New title
      */
     public void setTitle(String title) {
+        String old = this.title;
         this.title = title;
+        markDirty();
+        fireChanged("title", old, title);
     }
     
     /**
@@ -89,7 +105,10 @@ public class LibraryItem {
      * @param author New author
      */
     public void setAuthor(String author) {
+        String old = this.author;
         this.author = author;
+        markDirty();
+        fireChanged("author", old, author);
     }
     
     /**
@@ -97,7 +116,10 @@ public class LibraryItem {
      * @param publisher New publisher
      */
     public void setPublisher(String publisher) {
+        String old = this.publisher;
         this.publisher = publisher;
+        markDirty();
+        fireChanged("publisher", old, publisher);
     }
     
     /**
@@ -108,11 +130,14 @@ public class LibraryItem {
      * @param status Status character
      */
     public void setStatus(char status) {
+        char old = this.status;
         if (status == 'A' || status == 'a' || status == 'r' || status == 'R' || status == 'o' || status == 'O') {
             this.status = Character.toLowerCase(status);
         } else {
             this.status = 'a';
         }
+        markDirty();
+        fireChanged("status", old, this.status);
     }
     
     /**
@@ -120,7 +145,10 @@ public class LibraryItem {
      * @param genre Genre string
      */
     public void setGenre(String genre) {
+        String old = this.genre;
         this.genre = genre;
+        markDirty();
+        fireChanged("genre", old, genre);
     }
     
     /**
@@ -130,14 +158,63 @@ public class LibraryItem {
      */
     public void setSerialNumber(long serialNumber) {
         this.serialNumber = serialNumber;
+        markDirty();
+    }
+    
+    /**
+     * Sets the date when the item becomes available, for example when
+     * restoring a saved item.
+     * @param dateAvailable Date the item is available
+     */
+    public void setDateAvailable(Date dateAvailable) {
+        Date old = this.dateAvailable;
+        this.dateAvailable = dateAvailable;
+        markDirty();
+        fireChanged("dateAvailable", old, dateAvailable);
     }
     
     /**
      * Replaces the past owners list with the provided list.
      * @param pastOwners List of past owners
      */
-    public void setPastOwners(ArrayList<Person> pastOwners) {
+    public synchronized void setPastOwners(ArrayList<Person> pastOwners) {
+        for (Person owner : getPastOwners()) {
+            fireChanged("pastOwners", owner, null);
+        }
         this.pastOwners = pastOwners;
+        for (Person owner : pastOwners) {
+            fireChanged("pastOwners", null, owner);
+        }
+        markDirty();
+    }
+    
+    /**
+     * Defers building the past owners list until it is first needed. The
+     * serialized IDs are kept as-is and resolved through the given lookup on
+     * the first call to {@link #getPastOwners()}.
+     *
+     * @param ownerIds past owner IDs separated by "&&"
+     * @param ownerResolver lookup from member ID to member (may return null)
+     */
+    public synchronized void setPendingOwners(String ownerIds, Function<String, Person> ownerResolver) {
+        this.pendingOwners = ownerIds;
+        this.ownerResolver = ownerResolver;
+    }
+    
+    /**
+     * Returns true if the past owners are still in their serialized form.
+     * @return whether the owner history has not been resolved yet
+     */
+    public synchronized boolean hasPendingOwners() {
+        return pendingOwners != null;
+    }
+    
+    /**
+     * Returns the serialized past owner IDs that have not been resolved yet.
+     * @return pending owner IDs, or null if the history is already resolved
+     */
+    public synchronized String getPendingOwners() {
+        return pendingOwners;
     }
     
     /**
@@ -200,18 +277,182 @@ public class LibraryItem {
      * Returns the list of past owners (borrowers) for the item.
      * @return list of past owners
      */
-    public ArrayList<Person> getPastOwners() {
+    public synchronized ArrayList<Person> getPastOwners() {
+        if (pendingOwners != null) {
+            resolvePendingOwners();
+        }
         return pastOwners;
     }
     
+    /**
+     * Turns the pending serialized owner IDs into Person references. IDs that
+     * no longer match a member are dropped.
+     */
+    private void resolvePendingOwners() {
+        for (String id : pendingOwners.split("&&")) {
+            if (!id.isEmpty()) {
+                Person member = ownerResolver.apply(id);
+                if (member != null) {
+                    pastOwners.add(member);
+                }
+            }
+        }
+        pendingOwners = null;
+        ownerResolver = null;
+        for (Person member : pastOwners) {
+            fireChanged("pastOwners", null, member);
+        }
+    }
+
+    /**
+     * Records a member at the end of the item's history.
+     * @param member new past owner
+     */
+    public synchronized void addPastOwner(Person member) {
+        getPastOwners().add(member);
+        fireChanged("pastOwners", null, member);
+    }
+
+    /**
+     * Removes every mention of a member from the item's history.
+     * @param member member to forget
+     * @return number of entries removed
+     */
+    public synchronized int removePastOwner(Person member) {
+        int removed = 0;
+        for (Iterator<Person> owners = getPastOwners().iterator(); owners.hasNext(); ) {
+            if (owners.next() == member) {
+                owners.remove();
+                fireChanged("pastOwners", member, null);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            markDirty();
+        }
+        return removed;
+    }
+
+    /**
+     * Names another member wherever the item's history names a given one.
+     * @param member member to replace
+     * @param replacement member taking their place
+     * @return number of entries replaced
+     */
+    public synchronized int replacePastOwner(Person member, Person replacement) {
+        ArrayList<Person> owners = getPastOwners();
+        int replaced = 0;
+        for (int i = 0; i < owners.size(); i++) {
+            if (owners.get(i) == member) {
+                owners.set(i, replacement);
+                fireChanged("pastOwners", member, replacement);
+                replaced++;
+            }
+        }
+        if (replaced > 0) {
+            markDirty();
+        }
+        return replaced;
+    }
+
+    /**
+     * Drops the most recent entries of the item's history, keeping the first ones.
+     * @param size number of entries to keep
+     */
+    public synchronized void truncatePastOwners(int size) {
+        ArrayList<Person> owners = getPastOwners();
+        while (owners.size() > size) {
+            fireChanged("pastOwners", owners.remove(owners.size() - 1), null);
+        }
+    }
+    
     //Other methods
     
+    /**
+     * Marks the item as changed so the next save serializes it again.
+     */
+    public synchronized void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            dirtyCount.incrementAndGet();
+        }
+        Consumer<LibraryItem> listener = dirtyListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+    
+    /**
+     * Returns true if the item changed since it was last loaded or saved.
+     * @return whether the item needs saving
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    /**
+     * Marks the item as saved.
+     */
+    public synchronized void clearDirty() {
+        if (dirty) {
+            dirty = false;
+            dirtyCount.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Registers a listener called whenever an item's indexed fields change.
+     * @param listener listener to add
+     */
+    public static void addChangeListener(ItemChangeListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Unregisters a listener.
+     * @param listener listener to remove
+     */
+    public static void removeChangeListener(ItemChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the hook told every time an item is marked dirty, even if it
+     * already was, so that changes can be shipped to a standby as they
+     * happen.
+     * @param listener hook to call, or null for none
+     */
+    public static void setDirtyListener(Consumer<LibraryItem> listener) {
+        dirtyListener = listener;
+    }
+    
+    /**
+     * Tells the listeners that a field changed.
+     * @param field name of the field
+     * @param oldValue value before the change
+     * @param newValue value after the change
+     */
+    protected void fireChanged(String field, Object oldValue, Object newValue) {
+        for (ItemChangeListener listener : listeners) {
+            listener.itemChanged(this, field, oldValue, newValue);
+        }
+    }
+    
+    /**
+     * Returns the number of items that changed since they were last saved.
+     * @return dirty item count
+     */
+    public static int getDirtyCount() {
+        return dirtyCount.get();
+    }
+    
     /**
      * Updates the registration (availability) date based on current status.
      * If the item is available ('a') the availability date is set to now.
      * Otherwise the availability date is set to roughly three months from now.
      */
     public void setRegistration() {
+        Date old = dateAvailable;
         if (status == 'a') {
             // If the item is available, set the dateAvailable to the current date
             dateAvailable = new Date();
@@ -222,6 +463,8 @@ public class LibraryItem {
             long futureTime = currentTime + threeMonthsInMillis;
             dateAvailable = new Date(futureTime);
         }
+        markDirty();
+        fireChanged("dateAvailable", old, dateAvailable);
     }
     
     /**
@@ -237,13 +480,12 @@ public class LibraryItem {
     }
     
     /**
-     * Returns the base price for this item type. Subclasses may add
-     * additional costs by overriding this method and calling super.getPrice().
+     * Returns the list price of the item from the current price table.
      *
-     * @return base price
+     * @return price
      */
     public double getPrice() {
-        return GENERAL_COST;
+        return PricingEngine.current().priceOf(this);
     }
     
     /**
@@ -0,0 +1,157 @@
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the aggregate reports over the catalog and the member list.
+ * Each report is a parallel stream pipeline whose collectors merge into
+ * sorted maps (or use a total ordering), so the result is the same no matter
+ * how many cores the work is split across.
+ *
+ * @author jeffreyhaddad
+ */
+public class LibraryReport {
+
+    /** Number of titles listed in the "top borrowed" section */
+    public static final int TOP_TITLES = 10;
+
+    /**
+     * Counts the loans recorded for each genre, using the size of every
+     * item's past owners list.
+     *
+     * @param items catalog to aggregate
+     * @return loan count per genre, sorted by genre
+     */
+    public static TreeMap<String, Long> loansPerGenre(List<LibraryItem> items) {
+        return items.parallelStream()
+                .collect(Collectors.groupingBy(item -> keyOf(item.getGenre()), TreeMap::new,
+                        Collectors.summingLong(item -> item.getPastOwners().size())));
+    }
+
+    /**
+     * Returns the most borrowed items, ranked by the length of their past
+     * owners list. Ties are broken by serial number and then title so the
+     * ranking is stable between runs.
+     *
+     * @param items catalog to rank
+     * @param limit maximum number of items to return
+     * @return the top items, most borrowed first
+     */
+    public static List<LibraryItem> topBorrowed(List<LibraryItem> items, int limit) {
+        Comparator<LibraryItem> byLoans = Comparator.comparingInt((LibraryItem item) -> item.getPastOwners().size()).reversed();
+        return items.parallelStream()
+                .sorted(byLoans.thenComparingLong(LibraryItem::getSerialNumber)
+                        .thenComparing(item -> keyOf(item.getTitle())))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Sums what each civilian has paid, using the price of every item they
+     * appear in as a past owner. Amounts are accumulated in whole cents so the
+     * parallel merge order cannot change the total.
+     *
+     * @param items catalog to aggregate
+     * @return revenue per civilian ID, sorted by ID
+     */
+    public static TreeMap<String, Double> revenuePerCivilian(List<LibraryItem> items) {
+        TreeMap<String, Long> cents = items.parallelStream()
+                .flatMap(item -> item.getPastOwners().stream()
+                        .filter(owner -> owner instanceof Civilian)
+                        .map(owner -> new AbstractMap.SimpleEntry<>(keyOf(((Civilian) owner).getId()),
+                                Math.round(item.getPrice() * 100))))
+                .collect(Collectors.groupingBy(Map.Entry::getKey, TreeMap::new,
+                        Collectors.summingLong(Map.Entry::getValue)));
+
+        TreeMap<String, Double> revenue = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : cents.entrySet()) {
+            revenue.put(entry.getKey(), entry.getValue() / 100.0);
+        }
+        return revenue;
+    }
+
+    /**
+     * Counts the borrowed items whose availability date has passed, grouped
+     * by member type (Student or Civilian).
+     *
+     * @param members members to aggregate
+     * @return overdue item count per member type, sorted by type
+     */
+    public static TreeMap<String, Long> overduePerMemberType(List<Person> members) {
+        return members.parallelStream()
+                .collect(Collectors.groupingBy(member -> member.getClass().getSimpleName(), TreeMap::new,
+                        Collectors.summingLong(member -> member.getBorrowedItem().stream()
+                                .filter(item -> item.getStatus() == 'o' && item.getTimeRemainingDays() < 0)
+                                .count())));
+    }
+
+    /**
+     * Sums the fines that would be owed if every overdue item were returned
+     * now, grouped by member type. All fines come from one price table
+     * version and are summed in whole cents.
+     *
+     * @param members members to aggregate
+     * @return fines owed per member type, sorted by type
+     */
+    public static TreeMap<String, Double> finesPerMemberType(List<Person> members) {
+        PriceTable prices = PricingEngine.current();
+        long now = System.currentTimeMillis();
+        TreeMap<String, Long> cents = members.parallelStream()
+                .collect(Collectors.groupingBy(member -> member.getClass().getSimpleName(), TreeMap::new,
+                        Collectors.summingLong(member -> member.getBorrowedItem().stream()
+                                .mapToLong(item -> Math.round(prices.fine(item, now) * 100))
+                                .sum())));
+
+        TreeMap<String, Double> fines = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : cents.entrySet()) {
+            fines.put(entry.getKey(), entry.getValue() / 100.0);
+        }
+        return fines;
+    }
+
+    /**
+     * Runs every report and prints the results along with the time taken.
+     *
+     * @param items catalog to report on
+     * @param members members to report on
+     */
+    public static void printAll(List<LibraryItem> items, List<Person> members) {
+        long start = System.nanoTime();
+        TreeMap<String, Long> genres = loansPerGenre(items);
+        List<LibraryItem> top = topBorrowed(items, TOP_TITLES);
+        TreeMap<String, Double> revenue = revenuePerCivilian(items);
+        TreeMap<String, Long> overdue = overduePerMemberType(members);
+        TreeMap<String, Double> fines = finesPerMemberType(members);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("Loans per genre:");
+        for (Map.Entry<String, Long> entry : genres.entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        System.out.println("Top borrowed titles:");
+        for (LibraryItem item : top) {
+            System.out.println("  " + item.getTitle() + " (SN:" + item.getSerialNumber() + "): "
+                    + item.getPastOwners().size());
+        }
+        System.out.println("Revenue per civilian:");
+        for (Map.Entry<String, Double> entry : revenue.entrySet()) {
+            System.out.println("  " + entry.getKey() + ": $" + entry.getValue());
+        }
+        System.out.println("Overdue items per member type:");
+        for (Map.Entry<String, Long> entry : overdue.entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        System.out.println("Fines owed on overdue items per member type:");
+        for (Map.Entry<String, Double> entry : fines.entrySet()) {
+            System.out.println("  " + entry.getKey() + ": $" + entry.getValue());
+        }
+        System.out.println("Reports generated in " + elapsedMs + " ms on "
+                + Runtime.getRuntime().availableProcessors() + " cores.");
+    }
+
+    /**
+     * Maps a possibly null field to a usable grouping key.
+     */
+    private static String keyOf(String value) {
+        return value == null ? "unknown" : value;
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Where the library's items and members are persisted. {@link Main} talks
+ * to the storage only through this interface, so the text files and the
+ * embedded {@link LogStore} engine can be swapped with the
+ * {@code library.storage} system property ({@code text} or {@code log}).
+ *
+ * @author jeffreyhaddad
+ */
+public interface LibraryStorage {
+
+    /**
+     * Loads every member and item into the given lists and reconnects the
+     * borrowed items and past owners.
+     *
+     * @param members list to fill with members
+     * @param items list to fill with items
+     * @throws IOException if the data cannot be read
+     */
+    void load(ArrayList<Person> members, ArrayList<LibraryItem> items) throws IOException;
+
+    /**
+     * Captures the records changed since the last save and returns a task
+     * that writes them. The capture must be called while no command is
+     * changing the records; the returned task may run on another thread.
+     *
+     * @param members current members
+     * @param items current items
+     * @param quiet true to report only problems when the task runs
+     * @return task that writes the captured changes
+     */
+    Runnable prepareSave(ArrayList<Person> members, ArrayList<LibraryItem> items, boolean quiet);
+
+    /**
+     * Notes that an item was added to the catalog.
+     * @param item the new item
+     */
+    void itemAdded(LibraryItem item);
+
+    /**
+     * Notes that an item was deleted from the catalog.
+     * @param item the deleted item
+     */
+    void itemRemoved(LibraryItem item);
+
+    /**
+     * Notes that a member was added.
+     * @param member the new member
+     */
+    void memberAdded(Person member);
+
+    /**
+     * Notes that a member was deleted.
+     * @param member the deleted member
+     */
+    void memberRemoved(Person member);
+
+    /**
+     * Releases whatever the storage holds open. Called once, after the final save.
+     * @throws IOException if the storage cannot be closed cleanly
+     */
+    void close() throws IOException;
+}
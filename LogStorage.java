@@ -0,0 +1,371 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage backed by two embedded {@link LogStore} files under a data
+ * directory: {@code items.log} keyed by serial number and
+ * {@code members.log} keyed by member ID. A save appends only the records
+ * that changed, instead of rewriting whole files.
+ *
+ * Item keys are zero-padded serial numbers, so the store's key order is
+ * serial order and exports list items by serial. Records sharing a key
+ * (duplicate serials or IDs) are stored together, one line each, in the
+ * text format. A record's key is taken when it is added, so serial numbers
+ * and member IDs are not expected to change afterwards.
+ *
+ * The text files stay the import and export format: the first time a data
+ * directory is used the existing {@code members.txt} and {@code items.txt}
+ * are imported, and {@link #exportText(File)} writes them back. An
+ * {@code import} marker in the directory records that the import is done,
+ * so a store emptied later is not filled again from the old text files;
+ * an import cut short is started over. The data directory is locked
+ * exclusively for the whole session, since the log is not merged between
+ * processes.
+ *
+ * @author jeffreyhaddad
+ */
+public class LogStorage implements LibraryStorage {
+
+    /** Marker file recording the state of the text import */
+    private static final String IMPORT_MARKER = "import";
+    private static final String IMPORT_STARTED = "started";
+    private static final String IMPORT_DONE = "done";
+
+    private final File dataDir;
+    private final LogStore items;
+    private final LogStore members;
+    private DataDirectoryLock sessionLock;
+    /** Serial numbers of items added or deleted since the last save */
+    private LongSet pendingItems = new LongSet();
+    /** IDs of members added or deleted since the last save */
+    private final HashSet<String> pendingMembers = new HashSet<>();
+
+    /**
+     * Creates a storage over the given data directory (created if missing).
+     * @param dataDir directory holding the log files
+     */
+    public LogStorage(File dataDir) {
+        this.dataDir = dataDir;
+        items = new LogStore(new File(dataDir, "items.log"));
+        members = new LogStore(new File(dataDir, "members.log"));
+    }
+
+    /**
+     * Returns the store key of an item: its serial number, zero-padded so
+     * keys sort in serial order.
+     * @param serialNb serial number
+     * @return store key
+     */
+    public static String itemKey(long serialNb) {
+        return String.format("%019d", serialNb);
+    }
+
+    @Override
+    public void load(ArrayList<Person> memberList, ArrayList<LibraryItem> itemList) throws IOException {
+        if (!dataDir.isDirectory() && !dataDir.mkdirs()) {
+            throw new IOException("cannot create " + dataDir);
+        }
+        sessionLock = DataDirectoryLock.tryAcquire(dataDir);
+        if (sessionLock == null) {
+            throw new IOException(dataDir + " is in use by another session");
+        }
+        File marker = new File(dataDir, IMPORT_MARKER);
+        boolean used = new File(dataDir, "items.log").length() > 0 || new File(dataDir, "members.log").length() > 0;
+        items.open();
+        members.open();
+        String importState = marker.exists()
+                ? new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim() : null;
+        if (IMPORT_STARTED.equals(importState)) {
+            System.out.println("The last import from the text files did not finish; importing again.");
+            items.clear();
+            members.clear();
+            importText(marker);
+        } else if (importState == null) {
+            if (used) {
+                // A directory in use from before the marker existed
+                writeMarker(marker, IMPORT_DONE);
+            } else {
+                importText(marker);
+            }
+        }
+
+        ArrayList<String> borrowed = new ArrayList<>();
+        ArrayList<String> owners = new ArrayList<>();
+        StringPool pool = new StringPool();
+        for (String value : members.scan(null, null).values()) {
+            for (String line : value.split("\n")) {
+                Main.parseMemberLine(line, memberList, borrowed, pool);
+            }
+        }
+        for (String value : items.scan(null, null).values()) {
+            for (String line : value.split("\n")) {
+                Main.parseItemLine(line, itemList, owners, pool);
+            }
+        }
+        Main.adjustOwners(memberList, itemList, owners);
+        Main.adjustBorrowed(memberList, itemList, borrowed);
+        // Warm the line cache so the first save can tell which records changed
+        Main.itemLines(itemList);
+        for (Person member : memberList) {
+            Main.cachedLine(member);
+        }
+        System.out.println("Loaded " + memberList.size() + " member(s) and " + itemList.size()
+                + " item(s) from " + dataDir + ".");
+    }
+
+    /**
+     * Captures the keys whose records changed, were added or were deleted.
+     * Each such key is serialized with every record sharing it, or captured
+     * as a deletion if no record has it any more. Unchanged keys are not
+     * touched.
+     */
+    @Override
+    public Runnable prepareSave(ArrayList<Person> memberList, ArrayList<LibraryItem> itemList, boolean quiet) {
+        LongSet serials;
+        HashSet<String> memberKeys;
+        synchronized (this) {
+            serials = pendingItems;
+            pendingItems = new LongSet();
+            memberKeys = new HashSet<>(pendingMembers);
+            pendingMembers.clear();
+        }
+        for (LibraryItem item : itemList) {
+            if (item.isDirty()) {
+                serials.add(item.getSerialNumber());
+            }
+        }
+        // Keys are formatted only for the changed serials, not for every item
+        HashSet<String> itemKeys = new HashSet<>();
+        for (long serial : serials.toSortedArray()) {
+            itemKeys.add(itemKey(serial));
+        }
+        for (Person member : memberList) {
+            if (member.isDirty()) {
+                memberKeys.add(Main.memberId(member));
+            }
+        }
+
+        LinkedHashMap<String, String> itemValues = new LinkedHashMap<>();
+        if (!itemKeys.isEmpty()) {
+            for (LibraryItem item : itemList) {
+                if (serials.contains(item.getSerialNumber())) {
+                    itemValues.merge(itemKey(item.getSerialNumber()), Main.cachedLine(item), (a, b) -> a + "\n" + b);
+                }
+            }
+        }
+        LinkedHashMap<String, String> memberValues = new LinkedHashMap<>();
+        if (!memberKeys.isEmpty()) {
+            for (Person member : memberList) {
+                String key = Main.memberId(member);
+                if (memberKeys.contains(key)) {
+                    memberValues.merge(key, Main.cachedLine(member), (a, b) -> a + "\n" + b);
+                }
+            }
+        }
+
+        return () -> {
+            if (itemKeys.isEmpty() && memberKeys.isEmpty()) {
+                if (!quiet) {
+                    System.out.println("No changes to save.");
+                }
+                return;
+            }
+            if (!write(items, itemKeys, itemValues, quiet)) {
+                synchronized (this) {
+                    for (String key : itemKeys) {
+                        pendingItems.add(Long.parseLong(key));
+                    }
+                }
+            }
+            if (!write(members, memberKeys, memberValues, quiet)) {
+                synchronized (this) {
+                    pendingMembers.addAll(memberKeys);
+                }
+            }
+        };
+    }
+
+    /**
+     * Appends the captured keys to a store: a put for each key that still
+     * has records, a delete for each that has none.
+     *
+     * @return false if the store could not be written
+     */
+    private boolean write(LogStore store, Set<String> keys, Map<String, String> values, boolean quiet) {
+        if (keys.isEmpty()) {
+            return true;
+        }
+        String label = store == items ? "items.log" : "members.log";
+        try {
+            for (String key : keys) {
+                String value = values.get(key);
+                if (value != null) {
+                    store.put(key, value);
+                } else {
+                    store.delete(key);
+                }
+            }
+            store.sync();
+            store.compactIfNeeded();
+            if (!quiet) {
+                System.out.println(label + " saved successfully.");
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving " + label + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void itemAdded(LibraryItem item) {
+        pendingItems.add(item.getSerialNumber());
+    }
+
+    @Override
+    public synchronized void itemRemoved(LibraryItem item) {
+        pendingItems.add(item.getSerialNumber());
+    }
+
+    @Override
+    public synchronized void memberAdded(Person member) {
+        pendingMembers.add(Main.memberId(member));
+    }
+
+    @Override
+    public synchronized void memberRemoved(Person member) {
+        pendingMembers.add(Main.memberId(member));
+    }
+
+    /**
+     * Writes the saved records to {@code members.txt} and {@code items.txt}
+     * in the given directory, items in serial order.
+     *
+     * @param dir directory to write the text files to
+     * @throws IOException if a file cannot be written
+     */
+    public void exportText(File dir) throws IOException {
+        SafeDataFile.write(new File(dir, TextFileStorage.MEMBERS_FILE), lines(members));
+        SafeDataFile.write(new File(dir, TextFileStorage.ITEMS_FILE), lines(items));
+    }
+
+    /**
+     * Releases the data directory and closes the logs.
+     * @throws IOException if a log cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        items.close();
+        members.close();
+        if (sessionLock != null) {
+            sessionLock.close();
+            sessionLock = null;
+        }
+    }
+
+    /**
+     * Copies the text files into the empty store, keeping their record order
+     * within each key, and marks the import as done once both logs are
+     * synced.
+     */
+    private void importText(File marker) throws IOException {
+        writeMarker(marker, IMPORT_STARTED);
+        ArrayList<Person> memberList = new ArrayList<>();
+        ArrayList<LibraryItem> itemList = new ArrayList<>();
+        ArrayList<String> borrowed = new ArrayList<>();
+        ArrayList<String> owners = new ArrayList<>();
+        try {
+            Main.loadAllmembers(memberList, borrowed,
+                    SafeDataFile.verifiedSource(new File(TextFileStorage.MEMBERS_FILE)).getPath());
+        } catch (FileNotFoundException e) {
+            writeMarker(marker, IMPORT_DONE);
+            return;
+        }
+        // items.txt and the files of a sharded catalog
+        for (File file : ShardedCatalog.itemFiles(new File("."))) {
+            try {
+                Main.loadAllItems(itemList, owners, SafeDataFile.verifiedSource(file).getPath());
+            } catch (FileNotFoundException e) {
+                // Only a previous version was left; nothing to import from it
+            }
+        }
+        Main.adjustOwners(memberList, itemList, owners);
+        Main.adjustBorrowed(memberList, itemList, borrowed);
+        checkPhones(memberList);
+
+        HashMap<String, String> values = new HashMap<>();
+        for (LibraryItem item : itemList) {
+            values.merge(itemKey(item.getSerialNumber()), Main.itemLine(item), (a, b) -> a + "\n" + b);
+        }
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            items.put(entry.getKey(), entry.getValue());
+        }
+        values.clear();
+        for (Person member : memberList) {
+            values.merge(Main.memberId(member), Main.memberLine(member), (a, b) -> a + "\n" + b);
+        }
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            members.put(entry.getKey(), entry.getValue());
+        }
+        items.sync();
+        members.sync();
+        writeMarker(marker, IMPORT_DONE);
+        if (!itemList.isEmpty() || !memberList.isEmpty()) {
+            System.out.println("Imported " + memberList.size() + " member(s) and " + itemList.size()
+                    + " item(s) from the text files.");
+        }
+    }
+
+    /**
+     * Checks the phone numbers of the imported members in one parallel
+     * pass and reports the invalid ones and the ones shared by several
+     * members, which may be duplicates to merge.
+     */
+    private static void checkPhones(ArrayList<Person> memberList) {
+        if (memberList.isEmpty()) {
+            return;
+        }
+        ArrayList<String> phones = new ArrayList<>(memberList.size());
+        for (Person member : memberList) {
+            phones.add(member.getPhoneNumber());
+        }
+        long start = System.nanoTime();
+        PhoneNumbers.Bulk checked = PhoneNumbers.parseAll(phones);
+        long elapsed = System.nanoTime() - start;
+        if (checked.getInvalidCount() > 0 || checked.getRepeatedCount() > 0) {
+            System.out.println(checked.getInvalidCount() + " imported member(s) have no valid phone number and "
+                    + checked.getRepeatedCount() + " repeat another member's number; "
+                    + "use \"Find and merge duplicate members\" to review them.");
+        }
+        System.out.println(String.format("Checked %d phone number(s) in %.1f ms (%.0f numbers/s).",
+                checked.getCount(), elapsed / 1e6, elapsed == 0 ? 0 : checked.getCount() * 1e9 / elapsed));
+    }
+
+    private static ArrayList<String> lines(LogStore store) throws IOException {
+        ArrayList<String> lines = new ArrayList<>();
+        for (String value : store.scan(null, null).values()) {
+            for (String line : value.split("\n")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static void writeMarker(File marker, String state) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(marker)) {
+            out.write(state.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        SafeDataFile.syncDirectory(marker);
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A small embedded key-value store kept in a single append-only log file.
+ *
+ * Every write appends a record ({@code put} or {@code delete}) to the end of
+ * the log; nothing is rewritten in place. An in-memory sorted map from key to
+ * the file offset of its latest value gives point reads with one seek and
+ * range scans in key order.
+ *
+ * Record layout: {@code [int length][byte op][int keyLength][key][int valueLength][value][int crc]}.
+ * On open the log is replayed; a torn or corrupt record at the end (from a
+ * crash mid-write) is cut off. A bad record with more records after it is
+ * damage rather than a torn write, so the log is not opened and nothing
+ * after it is lost. When more than half of the file is
+ * superseded records, {@link #compact()} rewrites only the live ones.
+ *
+ * @author jeffreyhaddad
+ */
+public class LogStore {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    /** Size of the length, op, key length, value length and crc fields */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4 + 4 + 4;
+    /** Logs smaller than this are never compacted */
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    private final File file;
+    private RandomAccessFile log;
+    /** Offset of the latest record for each live key, in key order */
+    private final TreeMap<String, Long> offsets = new TreeMap<>();
+    /** Bytes taken by records that a later put or delete superseded */
+    private long deadBytes;
+
+    /**
+     * Creates a store over the given log file. Call {@link #open()} before
+     * using it.
+     *
+     * @param file log file (created if missing)
+     */
+    public LogStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the log and replays it to rebuild the key map.
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized void open() throws IOException {
+        log = new RandomAccessFile(file, "rw");
+        offsets.clear();
+        deadBytes = 0;
+
+        HashMap<String, Integer> sizes = new HashMap<>();
+        long position = 0;
+        long length = log.length();
+        while (position < length) {
+            Record record = readAt(position);
+            if (record == null) {
+                if (!runsToEnd(position, length)) {
+                    log.close();
+                    log = null;
+                    throw new IOException("corrupt record at offset " + position + " of " + file
+                            + ", followed by " + (length - position) + " more byte(s)");
+                }
+                // Torn write at the tail: drop it so appends start on a clean boundary
+                log.setLength(position);
+                break;
+            }
+            Integer previous = sizes.remove(record.key);
+            if (previous != null) {
+                deadBytes += previous;
+            }
+            if (record.op == PUT) {
+                offsets.put(record.key, position);
+                sizes.put(record.key, record.size);
+            } else {
+                offsets.remove(record.key);
+                deadBytes += record.size;
+            }
+            position += record.size;
+        }
+        log.seek(log.length());
+    }
+
+    /**
+     * Removes every key, emptying the log.
+     * @throws IOException if the log cannot be truncated
+     */
+    public synchronized void clear() throws IOException {
+        log.setLength(0);
+        offsets.clear();
+        deadBytes = 0;
+    }
+
+    /**
+     * Stores a value under the key, replacing any previous value.
+     * @param key key to write
+     * @param value value to store
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void put(String key, String value) throws IOException {
+        Long previous = offsets.get(key);
+        if (previous != null) {
+            deadBytes += readAt(previous).size;
+        }
+        offsets.put(key, append(PUT, key, value));
+    }
+
+    /**
+     * Removes the key.
+     * @param key key to delete
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void delete(String key) throws IOException {
+        Long previous = offsets.remove(key);
+        if (previous == null) {
+            return;
+        }
+        deadBytes += readAt(previous).size;
+        long offset = append(DELETE, key, "");
+        deadBytes += log.length() - offset;
+    }
+
+    /**
+     * Returns the values of the keys in {@code [fromKey, toKey)}, in key order.
+     * @param fromKey first key (inclusive), or null to start at the first key
+     * @param toKey last key (exclusive), or null to run to the last key
+     * @return key to value, in key order
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized LinkedHashMap<String, String> scan(String fromKey, String toKey) throws IOException {
+        NavigableMap<String, Long> range = offsets;
+        if (fromKey != null) {
+            range = range.tailMap(fromKey, true);
+        }
+        if (toKey != null) {
+            range = range.headMap(toKey, false);
+        }
+        LinkedHashMap<String, String> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : range.entrySet()) {
+            values.put(entry.getKey(), readAt(entry.getValue()).value);
+        }
+        return values;
+    }
+
+    /**
+     * Forces appended records to disk.
+     * @throws IOException if the log cannot be synced
+     */
+    public synchronized void sync() throws IOException {
+        log.getFD().sync();
+    }
+
+    /**
+     * Rewrites the log if more than half of it is superseded records.
+     * @return true if the log was compacted
+     * @throws IOException if the log cannot be rewritten
+     */
+    public synchronized boolean compactIfNeeded() throws IOException {
+        long length = log.length();
+        if (length < MIN_COMPACT_BYTES || deadBytes * 2 < length) {
+            return false;
+        }
+        compact();
+        return true;
+    }
+
+    /**
+     * Rewrites the log with only the latest value of every live key, then
+     * swaps it in with an atomic rename.
+     * @throws IOException if the log cannot be rewritten
+     */
+    public synchronized void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".compact");
+        TreeMap<String, Long> newOffsets = new TreeMap<>();
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                Record record = readAt(entry.getValue());
+                newOffsets.put(entry.getKey(), out.getFilePointer());
+                out.write(encode(PUT, record.key, record.value));
+            }
+            out.getFD().sync();
+        }
+        log.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = new RandomAccessFile(file, "rw");
+        log.seek(log.length());
+        offsets.clear();
+        offsets.putAll(newOffsets);
+        deadBytes = 0;
+    }
+
+    /**
+     * Closes the log file.
+     * @throws IOException if the log cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    private long append(byte op, String key, String value) throws IOException {
+        long offset = log.length();
+        log.seek(offset);
+        log.write(encode(op, key, value));
+        return offset;
+    }
+
+    private static byte[] encode(byte op, String key, String value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_OVERHEAD + keyBytes.length + valueBytes.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(RECORD_OVERHEAD + keyBytes.length + valueBytes.length);
+        out.writeByte(op);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(valueBytes.length);
+        out.write(valueBytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 4, bytes.size() - 4);
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the record at the given offset, or returns null if it is
+     * truncated or fails its checksum.
+     */
+    private Record readAt(long offset) throws IOException {
+        try {
+            log.seek(offset);
+            int size = log.readInt();
+            if (size < RECORD_OVERHEAD || offset + size > log.length()) {
+                return null;
+            }
+            byte[] body = new byte[size - 8];
+            log.readFully(body);
+            int storedCrc = log.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != storedCrc) {
+                return null;
+            }
+            int keyLength = readInt(body, 1);
+            String key = new String(body, 5, keyLength, StandardCharsets.UTF_8);
+            int valueLength = readInt(body, 5 + keyLength);
+            String value = new String(body, 9 + keyLength, valueLength, StandardCharsets.UTF_8);
+            return new Record(body[0], key, value, size);
+        } catch (EOFException | IndexOutOfBoundsException e) {
+            return null;
+        } finally {
+            log.seek(log.length());
+        }
+    }
+
+    /**
+     * Tells whether the unreadable record at the given offset is the last
+     * thing in the log: too short to hold a record, or with a length that
+     * reaches the end of the file. Only such a record can come from a write
+     * cut short.
+     */
+    private boolean runsToEnd(long offset, long length) throws IOException {
+        if (length - offset < RECORD_OVERHEAD) {
+            return true;
+        }
+        log.seek(offset);
+        int size = log.readInt();
+        log.seek(log.length());
+        return size >= RECORD_OVERHEAD && offset + size >= length;
+    }
+
+    private static int readInt(byte[] bytes, int at) {
+        return ((bytes[at] & 0xff) << 24) | ((bytes[at + 1] & 0xff) << 16)
+                | ((bytes[at + 2] & 0xff) << 8) | (bytes[at + 3] & 0xff);
+    }
+
+    /**
+     * One decoded log record.
+     */
+    private static class Record {
+        final byte op;
+        final String key;
+        final String value;
+        final int size;
+
+        Record(byte op, String key, String value, int size) {
+            this.op = op;
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
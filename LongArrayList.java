@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+/**
+ * A growable list of {@code long} values backed by one {@code long[]}.
+ *
+ * @author jeffreyhaddad
+ */
+public final class LongArrayList {
+
+    private long[] values;
+    private int size;
+
+    /**
+     * Creates an empty list.
+     */
+    public LongArrayList() {
+        this(8);
+    }
+
+    /**
+     * Creates an empty list with room for a number of values.
+     * @param capacity initial capacity
+     */
+    public LongArrayList(int capacity) {
+        values = new long[Math.max(1, capacity)];
+    }
+
+    /**
+     * Appends a value.
+     * @param value value to add
+     */
+    public void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Returns the value at a position.
+     * @param index position, from 0 to size - 1
+     * @return the value
+     */
+    public long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the values as an array.
+     * @return a new array of exactly size values
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
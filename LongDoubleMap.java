@@ -0,0 +1,124 @@
+/**
+ * A hash map from {@code long} to {@code double} stored in primitive arrays.
+ *
+ * Keys live in one {@code long[]} and values in a parallel {@code double[]},
+ * found by linear probing like {@link LongIntMap}, so neither keys nor
+ * values are boxed. Absent keys read as 0, which suits accumulated scores.
+ * Keys are only ever added.
+ *
+ * @author jeffreyhaddad
+ */
+public final class LongDoubleMap {
+
+    private long[] keys;
+    private double[] values;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Creates an empty map.
+     */
+    public LongDoubleMap() {
+        this(8);
+    }
+
+    /**
+     * Creates an empty map sized for a number of keys.
+     * @param expected number of keys expected
+     */
+    public LongDoubleMap(int expected) {
+        int capacity = LongHashing.capacityFor(expected);
+        keys = new long[capacity];
+        values = new double[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * Returns the value of a key.
+     * @param key key to look up
+     * @return value, or 0 if the key is absent
+     */
+    public double get(long key) {
+        int slot = find(key);
+        return used[slot] ? values[slot] : 0;
+    }
+
+    public boolean containsKey(long key) {
+        return used[find(key)];
+    }
+
+    /**
+     * Adds to the value of a key, starting from 0 if it is absent.
+     * @param key key to update
+     * @param amount amount to add
+     * @return the new value
+     */
+    public double add(long key, double amount) {
+        int slot = insert(key);
+        return values[slot] += amount;
+    }
+
+    /**
+     * Divides every value by the same factor.
+     * @param divisor factor to divide by
+     */
+    public void divideAll(double divisor) {
+        for (int i = 0; i < values.length; i++) {
+            if (used[i]) {
+                values[i] /= divisor;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = LongHashing.slot(key, mask);
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the slot of a key, adding it with value 0 if it is absent.
+     */
+    private int insert(long key) {
+        int slot = find(key);
+        if (!used[slot]) {
+            if (LongHashing.isFull(size + 1, keys.length)) {
+                grow();
+                slot = find(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = 0;
+            size++;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new double[keys.length];
+        used = new boolean[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
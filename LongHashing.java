@@ -0,0 +1,52 @@
+/**
+ * Slot arithmetic shared by the open-addressing primitive collections
+ * ({@link LongIntMap}, {@link LongDoubleMap}, {@link LongObjectMap}, {@link LongSet}).
+ *
+ * Tables have a power-of-two capacity, are at most three quarters full and
+ * resolve collisions by linear probing. Adding a key may grow the table and
+ * replace its arrays, so a collection takes the slot from its insert into a
+ * local before indexing an array with it: in {@code values[insert(key)] = v}
+ * Java reads {@code values} before the call and writes to the old array.
+ *
+ * @author jeffreyhaddad
+ */
+final class LongHashing {
+
+    private LongHashing() {
+    }
+
+    /**
+     * Returns the home slot of a key. Serial numbers are often consecutive,
+     * so the key is scrambled first to spread them over the table.
+     */
+    static int slot(long key, int mask) {
+        return (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+    }
+
+    /**
+     * Returns the capacity holding a number of keys without growing.
+     */
+    static int capacityFor(int expected) {
+        int capacity = 8;
+        while (isFull(expected, capacity)) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns true if a table of this capacity may not hold this many keys.
+     */
+    static boolean isFull(int size, int capacity) {
+        return (long) size * 4 > (long) capacity * 3;
+    }
+
+    /**
+     * Returns true if the entry in slot {@code next}, whose home slot is
+     * {@code home}, may move back into the empty slot {@code gap}: that is,
+     * if its home is not cyclically within {@code (gap, next]}.
+     */
+    static boolean canMove(int home, int gap, int next) {
+        return gap <= next ? home <= gap || home > next : home <= gap && home > next;
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from {@code long} to {@code int} stored in primitive arrays.
+ *
+ * Keys live in one {@code long[]} and values in a parallel {@code int[]},
+ * found by linear probing, so no entry object or boxed key is ever
+ * allocated. Absent keys read as 0, which suits counters. Removal shifts the
+ * following entries back instead of leaving tombstones, so lookups stay
+ * short however many keys come and go.
+ *
+ * @author jeffreyhaddad
+ */
+public final class LongIntMap {
+
+    /** Receives the entries of a map */
+    public interface Visitor {
+        /**
+         * Called once per entry.
+         * @param key entry key
+         * @param value entry value
+         */
+        void visit(long key, int value);
+    }
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Creates an empty map.
+     */
+    public LongIntMap() {
+        this(8);
+    }
+
+    /**
+     * Creates an empty map sized for a number of keys.
+     * @param expected number of keys expected
+     */
+    public LongIntMap(int expected) {
+        int capacity = LongHashing.capacityFor(expected);
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * Returns the value of a key.
+     * @param key key to look up
+     * @return value, or 0 if the key is absent
+     */
+    public int get(long key) {
+        int slot = find(key);
+        return used[slot] ? values[slot] : 0;
+    }
+
+    public boolean containsKey(long key) {
+        return used[find(key)];
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key key to set
+     * @param value new value
+     */
+    public void put(long key, int value) {
+        // Insert first: it may grow the table and replace the values array
+        int slot = insert(key);
+        values[slot] = value;
+    }
+
+    /**
+     * Adds to the value of a key, starting from 0 if it is absent.
+     * @param key key to update
+     * @param amount amount to add
+     * @return the new value
+     */
+    public int add(long key, int amount) {
+        int slot = insert(key);
+        return values[slot] += amount;
+    }
+
+    /**
+     * Removes a key.
+     * @param key key to remove
+     * @return its value, or 0 if it was absent
+     */
+    public int remove(long key) {
+        int slot = find(key);
+        if (!used[slot]) {
+            return 0;
+        }
+        int value = values[slot];
+        delete(slot);
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Calls a visitor for every entry, in no particular order.
+     * @param visitor receiver of the entries
+     */
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the keys with the highest values, highest first, skipping the
+     * keys present in another map. A bounded selection keeps this linear in
+     * the size of the map.
+     *
+     * @param k maximum number of keys
+     * @param exclude keys to skip, or null
+     * @return selected keys
+     */
+    public long[] top(int k, LongIntMap exclude) {
+        long[] bestKeys = new long[Math.max(0, k)];
+        int[] bestValues = new int[bestKeys.length];
+        int found = 0;
+        for (int i = 0; i < keys.length && bestKeys.length > 0; i++) {
+            if (!used[i] || (exclude != null && exclude.containsKey(keys[i]))) {
+                continue;
+            }
+            int value = values[i];
+            if (found == bestKeys.length && value <= bestValues[found - 1]) {
+                continue;
+            }
+            // Insertion into the short sorted list of best entries
+            int at = found < bestKeys.length ? found++ : found - 1;
+            while (at > 0 && bestValues[at - 1] < value) {
+                bestKeys[at] = bestKeys[at - 1];
+                bestValues[at] = bestValues[at - 1];
+                at--;
+            }
+            bestKeys[at] = keys[i];
+            bestValues[at] = value;
+        }
+        return Arrays.copyOf(bestKeys, found);
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = LongHashing.slot(key, mask);
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the slot of a key, adding it with value 0 if it is absent.
+     */
+    private int insert(long key) {
+        int slot = find(key);
+        if (!used[slot]) {
+            if (LongHashing.isFull(size + 1, keys.length)) {
+                grow();
+                slot = find(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = 0;
+            size++;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot and moves back the entries that probed past it.
+     */
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = LongHashing.slot(keys[next], mask);
+            if (LongHashing.canMove(home, gap, next)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        used[gap] = false;
+        size--;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[keys.length];
+        used = new boolean[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
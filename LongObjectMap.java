@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * A hash map from {@code long} to objects stored in primitive and object
+ * arrays.
+ *
+ * Keys live in one {@code long[]} and values in a parallel array, found by
+ * linear probing, so a lookup never boxes its key and the map holds no
+ * per-entry node. Null values are not allowed: a null result always means
+ * the key is absent.
+ *
+ * @param <V> value type
+ * @author jeffreyhaddad
+ */
+public final class LongObjectMap<V> {
+
+    /**
+     * Receives the entries of a map.
+     * @param <V> value type
+     */
+    public interface Visitor<V> {
+        /**
+         * Called once per entry.
+         * @param key entry key
+         * @param value entry value
+         */
+        void visit(long key, V value);
+    }
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Creates an empty map.
+     */
+    public LongObjectMap() {
+        this(8);
+    }
+
+    /**
+     * Creates an empty map sized for a number of keys.
+     * @param expected number of keys expected
+     */
+    public LongObjectMap(int expected) {
+        int capacity = LongHashing.capacityFor(expected);
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Returns the value of a key.
+     * @param key key to look up
+     * @return value, or null if the key is absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V) values[find(key)];
+    }
+
+    public boolean containsKey(long key) {
+        return values[find(key)] != null;
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key key to set
+     * @param value new value, not null
+     * @return the previous value, or null if the key was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int slot = insert(key);
+        V old = (V) values[slot];
+        values[slot] = value;
+        if (old == null) {
+            size++;
+        }
+        return old;
+    }
+
+    /**
+     * Sets the value of a key unless it already has one.
+     * @param key key to set
+     * @param value value, not null
+     * @return the existing value, or null if the value was set
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long key, V value) {
+        int slot = insert(key);
+        if (values[slot] != null) {
+            return (V) values[slot];
+        }
+        values[slot] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Returns the value of a key, creating it if it is absent.
+     * @param key key to look up
+     * @param create creates the value of an absent key
+     * @return existing or created value
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(long key, LongFunction<? extends V> create) {
+        int slot = find(key);
+        if (values[slot] == null) {
+            V value = create.apply(key);
+            put(key, value);
+            return value;
+        }
+        return (V) values[slot];
+    }
+
+    /**
+     * Removes a key.
+     * @param key key to remove
+     * @return its value, or null if it was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = find(key);
+        V old = (V) values[slot];
+        if (old != null) {
+            delete(slot);
+        }
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every entry, keeping the capacity.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Calls a visitor for every entry, in no particular order.
+     * @param visitor receiver of the entries
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                visitor.visit(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the values, in no particular order.
+     * @return a new list of the values
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<V> values() {
+        ArrayList<V> list = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                list.add((V) value);
+            }
+        }
+        return list;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = LongHashing.slot(key, mask);
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the slot of a key, claiming an empty one if it is absent.
+     * The caller fills the value and counts the new entry.
+     */
+    private int insert(long key) {
+        int slot = find(key);
+        if (values[slot] == null) {
+            if (LongHashing.isFull(size + 1, keys.length)) {
+                grow();
+                slot = find(key);
+            }
+            keys[slot] = key;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot and moves back the entries that probed past it.
+     */
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = LongHashing.slot(keys[next], mask);
+            if (LongHashing.canMove(home, gap, next)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+        size--;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
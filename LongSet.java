@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * A hash set of {@code long} values stored in primitive arrays, with the
+ * same layout and probing as {@link LongIntMap}.
+ *
+ * @author jeffreyhaddad
+ */
+public final class LongSet {
+
+    private long[] keys;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Creates an empty set.
+     */
+    public LongSet() {
+        this(8);
+    }
+
+    /**
+     * Creates an empty set sized for a number of values.
+     * @param expected number of values expected
+     */
+    public LongSet(int expected) {
+        int capacity = LongHashing.capacityFor(expected);
+        keys = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    public boolean contains(long value) {
+        return used[find(value)];
+    }
+
+    /**
+     * Adds a value.
+     * @param value value to add
+     * @return true if it was not in the set
+     */
+    public boolean add(long value) {
+        int slot = find(value);
+        if (used[slot]) {
+            return false;
+        }
+        if (LongHashing.isFull(size + 1, keys.length)) {
+            grow();
+            slot = find(value);
+        }
+        used[slot] = true;
+        keys[slot] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a value.
+     * @param value value to remove
+     * @return true if it was in the set
+     */
+    public boolean remove(long value) {
+        int slot = find(value);
+        if (!used[slot]) {
+            return false;
+        }
+        int mask = keys.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; used[next]; next = (next + 1) & mask) {
+            if (LongHashing.canMove(LongHashing.slot(keys[next], mask), gap, next)) {
+                keys[gap] = keys[next];
+                gap = next;
+            }
+        }
+        used[gap] = false;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the values in increasing order.
+     * @return a new sorted array
+     */
+    public long[] toSortedArray() {
+        long[] values = new long[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                values[n++] = keys[i];
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private int find(long value) {
+        int mask = keys.length - 1;
+        int slot = LongHashing.slot(value, mask);
+        while (used[slot] && keys[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        used = new boolean[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded, least-recently-used cache for looked up records.
+ * Entries are spread over independently locked segments so concurrent
+ * lookups on different keys do not contend, and each segment evicts its
+ * own least recently used entry once it is full.
+ *
+ * The budget is a number of entries, not of bytes: the cache holds
+ * references to records that live in the library's lists anyway. It can be
+ * set with the {@code library.cache.entries} system property (for example
+ * {@code java -Dlibrary.cache.entries=50000 Main}).
+ *
+ * A cache is keyed by record key alone, so it must serve a single list;
+ * {@code Main} only consults its caches for the library's own item and
+ * member lists. A miss is left to the caller, which for those lists means
+ * a scan.
+ *
+ * @param <K> key type
+ * @param <V> cached value type
+ * @author jeffreyhaddad
+ */
+public class LookupCache<K, V> {
+
+    /** Entry budget used when the system property is not set */
+    public static final int DEFAULT_CAPACITY = 10000;
+    /** Number of independently locked segments */
+    private static final int SEGMENTS = 16;
+
+    /** Name shown in the metrics output */
+    private final String name;
+    /** Access-ordered maps, one per segment */
+    private final Segment<K, V>[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache whose capacity comes from the {@code library.cache.entries}
+     * system property, or {@link #DEFAULT_CAPACITY} if it is not set.
+     *
+     * @param name name shown in the metrics output
+     */
+    public LookupCache(String name) {
+        this(name, Integer.getInteger("library.cache.entries", DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Creates a cache holding at most roughly the given number of entries.
+     *
+     * @param name name shown in the metrics output
+     * @param capacity maximum number of entries (minimum one per segment)
+     */
+    @SuppressWarnings("unchecked")
+    public LookupCache(String name, int capacity) {
+        this.name = name;
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+        int perSegment = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(perSegment, evictions);
+        }
+    }
+
+    /**
+     * Returns the cached value for the key, or null if it is not cached.
+     * @param key lookup key
+     * @return cached value or null
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Caches a value, evicting the segment's least recently used entry if needed.
+     * @param key lookup key
+     * @param value value to cache
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * Removes a key from the cache, typically because its record was deleted.
+     * @param key key to remove
+     */
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes every entry from the cache. Metrics are kept.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries currently cached.
+     * @return entry count
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache.
+     * @return hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return name + " cache: " + size() + " entries, hit rate " + Math.round(getHitRate() * 100) + "% ("
+                + hits.get() + " hits, " + misses.get() + " misses), " + evictions.get() + " evictions";
+    }
+
+    /**
+     * One access-ordered segment that drops its eldest entry when over capacity.
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final AtomicLong evictions;
+
+        Segment(int capacity, AtomicLong evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -1,4 +1,7 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.io.*;
 
 /**
@@ -11,6 +14,55 @@ import java.io.*;
 public class Main {
     /** Scanner object for reading user input */
     public static Scanner input = new Scanner(System.in);
+    /** Recently looked up items of {@link #cachedItems}, keyed by serial number */
+    private static final LookupCache<Long, LibraryItem> itemCache = new LookupCache<>("Item");
+    /** Recently looked up members of {@link #cachedMembers}, keyed by member ID */
+    private static final LookupCache<String, Person> memberCache = new LookupCache<>("Member");
+    /** The library's item list, the only one the item cache and the catalog answer for */
+    private static List<LibraryItem> cachedItems;
+    /** The library's member list, the only one the member cache answers for */
+    private static List<Person> cachedMembers;
+    /** Where items and members are persisted, chosen by the library.storage property */
+    private static LibraryStorage storage = new TextFileStorage();
+    /** Sharded catalog, or null when items are kept in the single items.txt */
+    private static ShardedCatalog catalog;
+    /** Held while a menu command runs; autosave only snapshots between commands */
+    private static final ReentrantLock stateLock = new ReentrantLock();
+    /** Timestamped borrow, return and reserve events */
+    private static final CirculationLog circulation = new CirculationLog(new File(CirculationLog.LOG_FILE));
+    /** Co-borrowing recommendations, built at startup and updated on every borrow */
+    private static final CoBorrowRecommender recommender = new CoBorrowRecommender();
+    /** Decayed borrow counts and the hottest items per genre */
+    private static final PopularityTracker popularity = new PopularityTracker();
+    /** Trigram index over titles and authors for typo-tolerant search */
+    private static final TitleIndex titleIndex = new TitleIndex();
+    /** Bitmap index over type, genre, status, publisher and page count */
+    private static final FacetIndex facetIndex = new FacetIndex();
+    /** Sorted indexes over page count, DVD size, price and availability date */
+    private static final RangeIndex rangeIndex = new RangeIndex();
+    /** Number of items listed per page of a range search */
+    private static final int PAGE_SIZE = 10;
+    /** Members by canonical phone number */
+    private static final ContactIndex contactIndex = new ContactIndex();
+    /** Borrower of each item and loan history of each member, for deletes */
+    private static final ReferenceIndex referenceIndex = new ReferenceIndex();
+    /** Number of recommendations shown with a search result */
+    private static final int RECOMMENDATIONS = 5;
+    /** Number of re-priced items listed after a price change */
+    private static final int PRICE_CHANGES_SHOWN = 10;
+    /** Background saver started once the data is loaded */
+    private static AutosaveScheduler autosave;
+    /** Journal shipped to a warm standby, or null when replication is off */
+    private static ReplicationJournal journal;
+    /** Items and members changed since they were last shipped to the journal */
+    private static final Set<Object> unshipped = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<>()));
+    /** Time between two reads of the journal by a standby, in milliseconds */
+    private static final long STANDBY_POLL_MS = 100;
+    /** Last serialized line of each record, reused while the record stays clean */
+    private static final Map<Object, String> savedLines = Collections.synchronizedMap(new WeakHashMap<>());
+    /** Line each record was last shipped to the replication journal with, if shipped since loading */
+    private static final Map<Object, String> shippedLines = Collections.synchronizedMap(new WeakHashMap<>());
     
     // Menu choice constants for better readability
     private static final int ADD_ITEM = 1;
@@ -25,79 +77,228 @@ public class Main {
     private static final int RETURN_ITEM = 10;
     private static final int DISPLAY_ITEMS = 11;
     private static final int DISPLAY_MEMBERS = 12;
-    private static final int EXIT = 13;
+    private static final int DISPLAY_REPORTS = 13;
+    private static final int LOAN_HISTORY = 14;
+    private static final int BATCH_CIRCULATION = 15;
+    private static final int BROWSE_ITEMS = 16;
+    private static final int RANGE_SEARCH = 17;
+    private static final int MERGE_DUPLICATES = 18;
+    private static final int CHANGE_PRICES = 19;
+    private static final int EXIT = 20;
 
     /**
      * The main entry point of the application.
      * Initializes the library system and provides an interactive
      * menu for managing library items and members.
      * 
-     * @param args Command line arguments (not used)
+     * @param args {@code --export} to write the embedded store back to the
+     *             text files and exit (with {@code -Dlibrary.storage=log}), or
+     *             {@code --standby} to follow the primary's replication journal
+     *             (with {@code -Dlibrary.journal}) until promoted, or
+     *             {@code --find <text>} to list the items whose title
+     *             contains the text, read off heap from items.txt, and exit
      */
     public static void main(String[] args) {
         ArrayList<LibraryItem> myItems = new ArrayList<>();
         ArrayList<Person> myMembers = new ArrayList<>();
+        cachedItems = myItems;
+        cachedMembers = myMembers;
 
+        if ("log".equals(System.getProperty("library.storage", "text"))) {
+            storage = new LogStorage(new File(System.getProperty("library.dataDir", "data")));
+        }
+        int find = Arrays.asList(args).indexOf("--find");
+        if (find >= 0) {
+            findOffHeap(String.join(" ", Arrays.asList(args).subList(find + 1, args.length)));
+            return;
+        }
+        String journalPath = System.getProperty("library.journal");
+        boolean standby = Arrays.asList(args).contains("--standby");
+        ReplicationFollower.Checkpoint replayFrom = null;
+        if (standby) {
+            if (journalPath == null) {
+                System.out.println("--standby needs -Dlibrary.journal=<file>.");
+                return;
+            }
+            try {
+                // Read before the files so no change saved meanwhile is skipped
+                replayFrom = ReplicationFollower.lastCheckpoint(new File(journalPath));
+            } catch (IOException e) {
+                System.out.println("Error reading the replication journal: " + e.getMessage());
+                return;
+            }
+        }
         try {
-            LoadFromFiles(myMembers, myItems);
+            storage.load(myMembers, myItems);
         } catch (FileNotFoundException e) {
             System.out.println("Data files not found. Starting with empty library.");
+        } catch (IOException e) {
+            System.out.println("Error loading data: " + e.getMessage());
+            return;
+        }
+        if (Arrays.asList(args).contains("--export")) {
+            exportText();
+            return;
+        }
+        if (standby) {
+            followPrimary(new ReplicationFollower(new File(journalPath), replayFrom, myMembers, myItems,
+                    replicaRegistry));
+        }
+        try {
+            circulation.open();
+        } catch (IOException e) {
+            System.out.println("Warning: could not open the circulation log: " + e.getMessage());
+        }
+        recommender.build(myItems, Main::pastOwnersField);
+        titleIndex.addAll(myItems);
+        LibraryItem.addChangeListener(titleIndex);
+        facetIndex.addAll(myItems);
+        LibraryItem.addChangeListener(facetIndex);
+        rangeIndex.addAll(myItems);
+        LibraryItem.addChangeListener(rangeIndex);
+        PricingEngine.addListener(prices -> rangeIndex.refreshPrices());
+        // First item of each serial, as searchItemBySerialNb would find it
+        LongObjectMap<LibraryItem> bySerial = new LongObjectMap<>(myItems.size());
+        for (LibraryItem item : myItems) {
+            bySerial.putIfAbsent(item.getSerialNumber(), item);
+        }
+        for (CirculationLog.Event event : circulation.between(0, Long.MAX_VALUE)) {
+            LibraryItem item = event.getType() == CirculationLog.Type.BORROW
+                    ? bySerial.get(event.getSerialNumber()) : null;
+            if (item != null) {
+                popularity.recordBorrow(item.getSerialNumber(), item.getGenre(), event.getTime());
+            }
+        }
+
+        contactIndex.addAll(myMembers);
+        Person.addChangeListener(contactIndex);
+        referenceIndex.addAll(myMembers, myItems);
+        LibraryItem.addChangeListener(referenceIndex);
+        Person.addChangeListener(referenceIndex);
+        PolicyEngine.reloadIfChanged();
+        if (journalPath != null) {
+            journal = new ReplicationJournal(new File(journalPath));
+            try {
+                journal.open();
+                circulation.addListener(journal::event);
+                LibraryItem.setDirtyListener(Main::changedSinceShipped);
+                Person.setDirtyListener(Main::changedSinceShipped);
+            } catch (IOException e) {
+                System.out.println("Warning: could not start the replication journal: " + e.getMessage());
+                journal = null;
+            }
         }
+        autosave = new AutosaveScheduler(() -> autosaveNow(myMembers, myItems));
+        autosave.start();
 
         while (true) {
             System.out.println("\n\n*******************************\n\n");
             int choice = getChoice();
+            PolicyEngine.reloadIfChanged();
 
-            switch (choice) {
-                case ADD_ITEM:
-                    addNewLibraryItem(myItems);
-                    break;
-                case MODIFY_ITEM:
-                    modifyLibraryItem(myItems);
-                    break;
-                case DELETE_ITEM:
-                    deleteLibraryItem(myItems);
-                    break;
-                case ADD_MEMBER:
-                    addNewMember(myMembers);
-                    break;
-                case MODIFY_MEMBER:
-                    modifyMemberInfo(myMembers);
-                    break;
-                case DELETE_MEMBER:
-                    System.out.println();
-                    System.out.println("Enter the ID or the name of the member to delete:");
-                    String memberId = input.nextLine();
-                    deleteMember(myMembers, memberId);
-                    break;
-                case SEARCH_ITEM:
-                    searchItemMenu(myItems);
-                    break;
-                case SEARCH_MEMBER:
-                    searchMemberMenu(myMembers);
-                    break;
-                case BORROW_ITEM:
-                    borrowItem(myMembers, myItems);
-                    break;
-                case RETURN_ITEM:
-                    returnLibraryItem(myMembers, myItems);
-                    break;
-                case DISPLAY_ITEMS:
-                    displayAllItems(myItems);
-                    break;
-                case DISPLAY_MEMBERS:
-                    displayAllMembers(myMembers);
-                    break;
-                case EXIT:
-                    try {
-                        SaveAllToFiles(myMembers, myItems);
-                        System.out.println("Data saved successfully. Exiting...");
-                    } catch (Exception e) {
-                        System.out.println("Error saving data: " + e.getMessage());
-                    }
-                    return;
-                default:
-                    System.out.println("Invalid choice. Please choose again.");
+            // Commands run under the state lock so autosave never snapshots a half-applied
+            // change; the lock is released while a command waits for input
+            stateLock.lock();
+            try {
+                switch (choice) {
+                    case ADD_ITEM:
+                        addNewLibraryItem(myItems);
+                        break;
+                    case MODIFY_ITEM:
+                        modifyLibraryItem(myItems);
+                        break;
+                    case DELETE_ITEM:
+                        deleteLibraryItem(myItems);
+                        break;
+                    case ADD_MEMBER:
+                        addNewMember(myMembers);
+                        break;
+                    case MODIFY_MEMBER:
+                        modifyMemberInfo(myMembers);
+                        break;
+                    case DELETE_MEMBER:
+                        System.out.println();
+                        System.out.println("Enter the ID or the name of the member to delete:");
+                        String memberId = readLine();
+                        deleteMember(myMembers, memberId);
+                        break;
+                    case SEARCH_ITEM:
+                        searchItemMenu(myItems);
+                        break;
+                    case SEARCH_MEMBER:
+                        searchMemberMenu(myMembers, myItems);
+                        break;
+                    case BORROW_ITEM:
+                        borrowItem(myMembers, myItems);
+                        break;
+                    case RETURN_ITEM:
+                        returnLibraryItem(myMembers, myItems);
+                        break;
+                    case DISPLAY_ITEMS:
+                        displayAllItems(myItems);
+                        break;
+                    case DISPLAY_MEMBERS:
+                        displayAllMembers(myMembers);
+                        break;
+                    case DISPLAY_REPORTS:
+                        System.out.println();
+                        LibraryReport.printAll(myItems, myMembers);
+                        System.out.println(itemCache);
+                        System.out.println(memberCache);
+                        System.out.println(autosave);
+                        System.out.println(circulation);
+                        System.out.println(recommender);
+                        System.out.println(popularity);
+                        System.out.println(titleIndex);
+                        System.out.println(facetIndex);
+                        System.out.println(rangeIndex);
+                        System.out.println(PricingEngine.current());
+                        System.out.println(PolicyEngine.current());
+                        System.out.println(contactIndex);
+                        System.out.println(referenceIndex);
+                        if (journal != null) {
+                            System.out.println(journal);
+                        }
+                        printRecommendations("Hot right now:", popularity.top(null, RECOMMENDATIONS), myItems);
+                        break;
+                    case LOAN_HISTORY:
+                        loanHistoryMenu();
+                        break;
+                    case BATCH_CIRCULATION:
+                        batchCirculationMenu(myMembers, myItems);
+                        break;
+                    case BROWSE_ITEMS:
+                        browseItemsMenu();
+                        break;
+                    case RANGE_SEARCH:
+                        rangeSearchMenu();
+                        break;
+                    case MERGE_DUPLICATES:
+                        mergeDuplicatesMenu(myMembers, myItems);
+                        break;
+                    case CHANGE_PRICES:
+                        changePricesMenu(myItems);
+                        break;
+                    case EXIT:
+                        autosave.stop();
+                        try {
+                            SaveAllToFiles(myMembers, myItems);
+                            storage.close();
+                            circulation.close();
+                            if (journal != null) {
+                                journal.close();
+                            }
+                            System.out.println("Data saved successfully. Exiting...");
+                        } catch (Exception e) {
+                            System.out.println("Error saving data: " + e.getMessage());
+                        }
+                        return;
+                    default:
+                        System.out.println("Invalid choice. Please choose again.");
+                }
+            } finally {
+                shipChanges();
+                stateLock.unlock();
             }
         }
     }
@@ -108,7 +309,7 @@ public class Main {
     private static void searchItemMenu(ArrayList<LibraryItem> myItems) {
         System.out.println();
         System.out.println("Enter the serial number or name of the item to search: ");
-        String searchInput = input.nextLine();
+        String searchInput = readLine();
 
         try {
             long searchSerialNumber = Long.parseLong(searchInput);
@@ -118,6 +319,8 @@ public class Main {
                 displayItemType(foundItem);
                 System.out.println(foundItem);
                 System.out.println("Availability: " + (foundItem.getStatus() == 'a' ? "Available" : "Not Available"));
+                printRecommendations("Members who borrowed this also borrowed:",
+                        recommender.recommendForItem(searchSerialNumber, RECOMMENDATIONS), myItems);
             } else {
                 System.out.println("Item with serial number " + searchSerialNumber + " not found.");
             }
@@ -133,6 +336,7 @@ public class Main {
                 }
             } else {
                 System.out.println("No items found with the name '" + searchInput + "'.");
+                printSuggestions(searchInput);
             }
         }
     }
@@ -140,10 +344,10 @@ public class Main {
     /**
      * Handles the search member menu logic.
      */
-    private static void searchMemberMenu(ArrayList<Person> myMembers) {
+    private static void searchMemberMenu(ArrayList<Person> myMembers, ArrayList<LibraryItem> myItems) {
         System.out.println();
-        System.out.print("Enter the ID or name of the member to search: ");
-        String searchMemberIdOrName = input.nextLine();
+        System.out.print("Enter the ID, name or phone number of the member to search: ");
+        String searchMemberIdOrName = readLine();
 
         Person foundMember = null;
         if (searchMemberIdOrName.matches("\\d+")) {
@@ -151,15 +355,302 @@ public class Main {
         } else {
             foundMember = searchMemberByName(searchMemberIdOrName, myMembers);
         }
+        if (foundMember == null) {
+            List<Person> callers = contactIndex.find(searchMemberIdOrName);
+            if (callers.size() > 1) {
+                System.out.println(callers.size() + " members share this phone number:");
+                for (Person caller : callers) {
+                    System.out.println(caller);
+                    System.out.println("-------");
+                }
+                return;
+            }
+            foundMember = callers.isEmpty() ? null : callers.get(0);
+        }
 
         if (foundMember != null) {
             System.out.println("Member found:");
             System.out.println(foundMember);
+            printRecommendations("Recommended for this member:",
+                    recommender.recommendForMember(memberId(foundMember), RECOMMENDATIONS), myItems);
         } else {
             System.out.println("Member with ID or name '" + searchMemberIdOrName + "' not found.");
         }
     }
 
+    /**
+     * Prints the items whose title or author nearly matches a mistyped search.
+     */
+    private static void printSuggestions(String searchInput) {
+        ArrayList<LibraryItem> near = titleIndex.search(searchInput, RECOMMENDATIONS);
+        if (!near.isEmpty()) {
+            System.out.println("Did you mean:");
+            for (LibraryItem item : near) {
+                System.out.println("  " + item.getTitle() + " by " + item.getAuthor() + " (SN:" + item.getSerialNumber() + ")");
+            }
+        }
+    }
+
+    /**
+     * Prints the titles of recommended items, if there are any.
+     */
+    private static void printRecommendations(String heading, long[] serials, ArrayList<LibraryItem> items) {
+        if (serials.length == 0) {
+            return;
+        }
+        System.out.println(heading);
+        for (long serial : serials) {
+            LibraryItem item = searchItemBySerialNb(serial, items);
+            if (item != null) {
+                System.out.println("  " + item.getTitle() + " (SN:" + serial + ")");
+            }
+        }
+    }
+
+    /**
+     * Narrows the catalog down facet by facet, showing how many items have
+     * each value under the current filters, then lists the matching items.
+     */
+    private static void browseItemsMenu() {
+        EnumMap<FacetIndex.Facet, ArrayList<String>> selection = new EnumMap<>(FacetIndex.Facet.class);
+        while (true) {
+            System.out.println();
+            System.out.println("Matching items: " + facetIndex.query(selection).size());
+            for (FacetIndex.Facet facet : FacetIndex.Facet.values()) {
+                System.out.print(facet.name().toLowerCase() + ":");
+                for (Map.Entry<String, Integer> count : facetIndex.counts(selection, facet).entrySet()) {
+                    System.out.print(" [" + count.getKey() + "] " + count.getValue());
+                }
+                System.out.println();
+            }
+            System.out.print("Add a filter (facet=value), 'clear', or press Enter to list the items: ");
+            String filter = readLine().trim();
+            if (filter.isEmpty()) {
+                break;
+            }
+            if (filter.equalsIgnoreCase("clear")) {
+                selection.clear();
+                continue;
+            }
+            String[] parts = filter.split("=", 2);
+            FacetIndex.Facet facet = FacetIndex.Facet.of(parts[0]);
+            if (parts.length < 2 || facet == null) {
+                System.out.println("Invalid filter. Use one of type, genre, status, publisher or pages, e.g. genre=drama.");
+                continue;
+            }
+            selection.computeIfAbsent(facet, f -> new ArrayList<>()).add(parts[1].trim());
+        }
+        for (LibraryItem item : facetIndex.query(selection)) {
+            displayItemType(item);
+            System.out.println(item);
+            System.out.println("-------");
+        }
+    }
+
+    /**
+     * Lists the items whose page count, DVD size, price or availability date
+     * falls in a range, one page at a time.
+     */
+    private static void rangeSearchMenu() {
+        System.out.println();
+        System.out.println("Range over: [P] pages, [S] DVD size (MB), [C] price or [A] available within a number of days?");
+        String kind = readLine().trim().toUpperCase();
+        RangeIndex.Attribute attribute;
+        double from = Double.NEGATIVE_INFINITY;
+        double to = Double.POSITIVE_INFINITY;
+        try {
+            if (kind.startsWith("A")) {
+                attribute = RangeIndex.Attribute.AVAILABLE;
+                System.out.print("Available within how many days? ");
+                to = System.currentTimeMillis() + Long.parseLong(readLine().trim()) * 24L * 60 * 60 * 1000;
+            } else {
+                attribute = kind.startsWith("P") ? RangeIndex.Attribute.PAGES
+                        : kind.startsWith("S") ? RangeIndex.Attribute.SIZE
+                        : kind.startsWith("C") ? RangeIndex.Attribute.PRICE : null;
+                if (attribute == null) {
+                    System.out.println("Invalid choice.");
+                    return;
+                }
+                System.out.print("At least (leave empty for no minimum): ");
+                String min = readLine().trim();
+                System.out.print("Less than (leave empty for no maximum): ");
+                String max = readLine().trim();
+                from = min.isEmpty() ? from : Double.parseDouble(min);
+                to = max.isEmpty() ? to : Double.parseDouble(max);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number.");
+            return;
+        }
+
+        LibraryItem last = null;
+        while (true) {
+            ArrayList<LibraryItem> page = rangeIndex.range(attribute, from, to, last, PAGE_SIZE);
+            if (page.isEmpty()) {
+                System.out.println(last == null ? "No items in that range." : "No more items.");
+                return;
+            }
+            for (LibraryItem item : page) {
+                displayItemType(item);
+                System.out.println(item);
+                System.out.println("-------");
+            }
+            last = page.get(page.size() - 1);
+            if (page.size() < PAGE_SIZE) {
+                return;
+            }
+            System.out.print("Press Enter for more, or type q to stop: ");
+            if (readLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Lists the members that look registered more than once and, once
+     * confirmed, merges each group into its oldest registration.
+     */
+    private static void mergeDuplicatesMenu(ArrayList<Person> members, ArrayList<LibraryItem> items) {
+        MemberDeduplicator deduplicator = new MemberDeduplicator(members);
+        long start = System.nanoTime();
+        ArrayList<List<Person>> clusters = deduplicator.findDuplicates();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println();
+        System.out.println(clusters.size() + " group(s) of duplicates among " + members.size() + " members (" + elapsedMs + " ms).");
+        if (clusters.isEmpty()) {
+            return;
+        }
+        for (List<Person> cluster : clusters) {
+            System.out.println("Keep " + memberId(cluster.get(0)) + " (" + cluster.get(0).getName() + "), merge:");
+            for (Person duplicate : cluster.subList(1, cluster.size())) {
+                String balance = duplicate instanceof Civilian && cluster.get(0) instanceof Civilian
+                        ? String.format(", balance $%.2f, $%.2f carried over", ((Civilian) duplicate).getCurrentBal(),
+                                MemberDeduplicator.carriedBalance((Civilian) duplicate)) : "";
+                System.out.println("  " + memberId(duplicate) + " (" + duplicate.getName() + ", "
+                        + duplicate.getPhoneNumber() + ", " + duplicate.getAddress() + balance + ")");
+            }
+        }
+        System.out.print("Merge these members? (yes/no): ");
+        if (!readLine().trim().equalsIgnoreCase("yes")) {
+            System.out.println("Nothing merged.");
+            return;
+        }
+        // Histories still serialized name members by ID; resolve them so the merge rewrites them too
+        for (LibraryItem item : items) {
+            if (item.hasPendingOwners()) {
+                item.getPastOwners();
+            }
+        }
+        ArrayList<Person> removed = deduplicator.merge(clusters, referenceIndex);
+        for (Person duplicate : removed) {
+            duplicate.clearDirty();
+            memberRemoved(duplicate);
+        }
+        recommender.build(items, Main::pastOwnersField);
+        System.out.println(removed.size() + " duplicate member(s) merged.");
+    }
+
+    /**
+     * Changes the book or DVD surcharge or the base cost, publishing a new
+     * price table, and lists the items whose price changed.
+     */
+    private static void changePricesMenu(ArrayList<LibraryItem> items) {
+        System.out.println();
+        System.out.println(PricingEngine.current());
+        System.out.print("Change the [b] book cost, [d] DVD cost or [c] base cost? ");
+        String choice = readLine().trim().toLowerCase();
+        if (!choice.equals("b") && !choice.equals("d") && !choice.equals("c")) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        System.out.print("Enter the new amount: ");
+        double amount;
+        try {
+            amount = Double.parseDouble(readLine().trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid amount.");
+            return;
+        }
+        if (amount < 0) {
+            System.out.println("The amount cannot be negative.");
+            return;
+        }
+        PricingEngine.Repricing repricing;
+        if (choice.equals("b")) {
+            repricing = Book.setBookCost(amount, items);
+        } else if (choice.equals("d")) {
+            repricing = PricingEngine.reprice(items, prices -> prices.setSurcharge(PriceTable.DVD, amount));
+        } else {
+            repricing = PricingEngine.reprice(items, prices -> prices.setBaseCost(amount));
+        }
+        double[] oldPrices = repricing.getOldPrices();
+        double[] newPrices = repricing.getNewPrices();
+        int shown = 0;
+        for (int i = 0; i < items.size() && shown < PRICE_CHANGES_SHOWN; i++) {
+            if (oldPrices[i] != newPrices[i]) {
+                System.out.printf("%d %s: $%.2f -> $%.2f%n", items.get(i).getSerialNumber(), items.get(i).getTitle(),
+                        oldPrices[i], newPrices[i]);
+                shown++;
+            }
+        }
+        System.out.println(repricing.getChangedCount() + " of " + items.size()
+                + " item(s) changed price; prices are now version " + repricing.getTable().getVersion()
+                + " until the program exits.");
+    }
+
+    /**
+     * Shows who held an item at a given date and the item's circulation
+     * events, or, without a serial number, every item on loan at that date.
+     */
+    private static void loanHistoryMenu() {
+        System.out.println();
+        System.out.print("Enter the serial number of the item, or leave empty for every loan: ");
+        try {
+            String serialInput = readLine().trim();
+            System.out.print("Enter a date (yyyy-MM-dd), or leave empty for now: ");
+            String dateInput = readLine().trim();
+            long time = System.currentTimeMillis();
+            if (!dateInput.isEmpty()) {
+                // Use the end of the day so loans made that day are included
+                time = new java.text.SimpleDateFormat("yyyy-MM-dd").parse(dateInput).getTime()
+                        + 24L * 60 * 60 * 1000 - 1;
+            }
+            if (serialInput.isEmpty()) {
+                loansAt(time);
+                return;
+            }
+            long serialNumber = Long.parseLong(serialInput);
+            String holder = circulation.holderAt(serialNumber, time);
+            System.out.println(holder == null ? "Not on loan at that time." : "On loan to member " + holder + ".");
+            System.out.println("History:");
+            for (CirculationLog.Event event : circulation.history(serialNumber)) {
+                System.out.println(event);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid serial number format.");
+        } catch (java.text.ParseException e) {
+            System.out.println("Invalid date format.");
+        }
+    }
+
+    /**
+     * Lists the items on loan at a given time and their borrowers, rebuilt
+     * from the circulation log.
+     */
+    private static void loansAt(long time) {
+        TreeMap<Long, CirculationLog.Event> loans = new TreeMap<>();
+        for (Map.Entry<Long, CirculationLog.Event> entry : circulation.stateAt(time).entrySet()) {
+            if (entry.getValue().getType() == CirculationLog.Type.BORROW) {
+                loans.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (CirculationLog.Event loan : loans.values()) {
+            System.out.println("Item " + loan.getSerialNumber() + " on loan to member " + loan.getMemberId()
+                    + " since " + new Date(loan.getTime()) + ".");
+        }
+        System.out.println(loans.size() + " item(s) on loan at that time.");
+    }
+
     /**
      * Displays all items in the library.
      */
@@ -226,7 +717,7 @@ public class Main {
         System.out.println("---------------------------------");
         System.out.println("What is the type of the new item?");
         System.out.println("[B] Book or [D] DVD?");
-        char itemType = input.nextLine().toUpperCase().charAt(0);
+        char itemType = readLine().toUpperCase().charAt(0);
 
         try {
             switch (itemType) {
@@ -242,7 +733,7 @@ public class Main {
             }
         } catch (Exception e) {
             System.out.println("Error adding item: " + e.getMessage());
-            input.nextLine(); // Clear buffer
+            readLine(); // Clear buffer
         }
     }
 
@@ -251,22 +742,23 @@ public class Main {
      */
     private static void addBook(ArrayList<LibraryItem> items) {
         System.out.println("Enter the Book title:");
-        String bookTitle = input.nextLine();
+        String bookTitle = readLine();
         System.out.println("Enter the author name:");
-        String author = input.nextLine();
+        String author = readLine();
         System.out.println("Enter the publisher:");
-        String publisher = input.nextLine();
+        String publisher = readLine();
         System.out.println("Enter the status [a] for available or [r] for reference:");
-        char status = input.nextLine().toLowerCase().charAt(0);
+        char status = readLine().toLowerCase().charAt(0);
         System.out.println("Enter the book's genre:");
-        String genre = input.nextLine();
+        String genre = readLine();
         System.out.println("Enter the number of pages:");
-        int numberOfPages = input.nextInt();
-        input.nextLine(); // Consume newline
+        int numberOfPages = readInt();
+        readLine(); // Consume newline
 
         Book newBook = new Book(LibraryItem.generateSerialNumber(), bookTitle, author, 
                                 publisher, status, genre, new Date(), numberOfPages);
         items.add(newBook);
+        itemAdded(newBook);
         System.out.println("New Book added correctly.");
     }
 
@@ -275,22 +767,23 @@ public class Main {
      */
     private static void addDVD(ArrayList<LibraryItem> items) {
         System.out.println("Enter the DVD title:");
-        String dvdTitle = input.nextLine();
+        String dvdTitle = readLine();
         System.out.println("Enter the director's name:");
-        String director = input.nextLine();
+        String director = readLine();
         System.out.println("Enter the producer:");
-        String producer = input.nextLine();
+        String producer = readLine();
         System.out.println("Enter the status [a] for available or [r] for reference:");
-        char dvdStatus = input.nextLine().toLowerCase().charAt(0);
+        char dvdStatus = readLine().toLowerCase().charAt(0);
         System.out.println("Enter the DVD's genre:");
-        String dvdGenre = input.nextLine();
+        String dvdGenre = readLine();
         System.out.println("Enter the size of the DVD in MB:");
-        double dvdSize = input.nextDouble();
-        input.nextLine(); // Consume newline
+        double dvdSize = readDouble();
+        readLine(); // Consume newline
 
         DVD newDVD = new DVD(LibraryItem.generateSerialNumber(), dvdTitle, director, 
                              producer, dvdStatus, dvdGenre, new Date(), dvdSize);
         items.add(newDVD);
+        itemAdded(newDVD);
         System.out.println("New DVD added correctly.");
     }
 
@@ -301,12 +794,13 @@ public class Main {
         System.out.println();
         System.out.println("Modifying an existing Library Item...");
         System.out.print("Enter the name or serial number of the item to modify: ");
-        String searchInput = input.nextLine();
+        String searchInput = readLine();
 
         LibraryItem itemToModify = findItemByNameOrSerial(items, searchInput);
 
         if (itemToModify == null) {
             System.out.println("Item not found.");
+            printSuggestions(searchInput);
             return;
         }
 
@@ -323,33 +817,36 @@ public class Main {
         System.out.print("Enter your choice: ");
         
         try {
-            int choice = input.nextInt();
-            input.nextLine(); // Consume newline
+            int choice = readInt();
+            readLine(); // Consume newline
 
             switch (choice) {
                 case 1:
                     System.out.print("Enter the new title: ");
-                    itemToModify.setTitle(input.nextLine());
+                    itemToModify.setTitle(readLine());
                     System.out.println("Title updated successfully.");
                     break;
                 case 2:
                     System.out.print("Enter the new author: ");
-                    itemToModify.setAuthor(input.nextLine());
+                    itemToModify.setAuthor(readLine());
                     System.out.println("Author updated successfully.");
                     break;
                 case 3:
                     System.out.print("Enter the new publisher: ");
-                    itemToModify.setPublisher(input.nextLine());
+                    itemToModify.setPublisher(readLine());
                     System.out.println("Publisher updated successfully.");
                     break;
                 case 4:
                     System.out.print("Enter the new status (a for available, r for reference): ");
-                    itemToModify.setStatus(input.nextLine().charAt(0));
+                    itemToModify.setStatus(readLine().charAt(0));
+                    if (itemToModify.getStatus() == 'r') {
+                        circulation.record(CirculationLog.Type.RESERVE, itemToModify.getSerialNumber(), "");
+                    }
                     System.out.println("Status updated successfully.");
                     break;
                 case 5:
                     System.out.print("Enter the new genre: ");
-                    itemToModify.setGenre(input.nextLine());
+                    itemToModify.setGenre(readLine());
                     System.out.println("Genre updated successfully.");
                     break;
                 case 6:
@@ -360,8 +857,238 @@ public class Main {
             }
         } catch (Exception e) {
             System.out.println("Error modifying item: " + e.getMessage());
-            input.nextLine(); // Clear buffer
+            readLine(); // Clear buffer
+        }
+    }
+
+    /**
+     * Registers a newly added member with the indexes and persistence layer.
+     */
+    private static void memberAdded(Person member) {
+        contactIndex.add(member);
+        storage.memberAdded(member);
+        if (journal != null) {
+            unshipped.remove(member);
+            String line = memberLine(member);
+            journal.memberPut(null, line);
+            shippedLines.put(member, line);
+        }
+    }
+
+    /**
+     * Unregisters a deleted member from the indexes, caches and persistence layer.
+     */
+    private static void memberRemoved(Person member) {
+        contactIndex.remove(member);
+        referenceIndex.remove(member);
+        storage.memberRemoved(member);
+        memberCache.invalidate(memberId(member));
+        if (journal != null) {
+            unshipped.remove(member);
+            journal.memberDeleted(lastShipped(member, memberLine(member)));
+        }
+    }
+
+    /**
+     * Registers a newly added item with the catalog and persistence layers.
+     */
+    private static void itemAdded(LibraryItem item) {
+        titleIndex.add(item);
+        facetIndex.add(item);
+        rangeIndex.add(item);
+        if (catalog != null) {
+            catalog.add(item);
+        } else {
+            storage.itemAdded(item);
+        }
+        if (journal != null) {
+            unshipped.remove(item);
+            String line = itemLine(item);
+            journal.itemPut(null, line);
+            shippedLines.put(item, line);
+        }
+    }
+
+    /**
+     * Unregisters a deleted item from the catalog, caches and persistence layers.
+     */
+    private static void itemRemoved(LibraryItem item) {
+        Person borrower = referenceIndex.getBorrower(item);
+        if (borrower != null) {
+            borrower.removeBorrowedItem(item);
+            borrower.markDirty();
+        }
+        referenceIndex.remove(item);
+        item.clearDirty();
+        titleIndex.remove(item);
+        facetIndex.remove(item);
+        rangeIndex.remove(item);
+        if (catalog != null) {
+            catalog.remove(item);
+        } else {
+            storage.itemRemoved(item);
+        }
+        itemCache.invalidate(item.getSerialNumber());
+        if (journal != null) {
+            unshipped.remove(item);
+            journal.itemDeleted(lastShipped(item, itemLine(item)));
+        }
+    }
+
+    /**
+     * Notes an item or member marked dirty, to be shipped to the journal once
+     * the current command is over.
+     */
+    private static void changedSinceShipped(Object record) {
+        unshipped.add(record);
+        journal.changed();
+    }
+
+    /**
+     * Ships every item and member changed since the last call to the
+     * journal. Runs under the state lock, at the end of each command and
+     * before each save, so a standby is at most one command behind.
+     */
+    private static void shipChanges() {
+        if (journal == null) {
+            return;
+        }
+        Object[] changed;
+        synchronized (unshipped) {
+            changed = unshipped.toArray();
+            unshipped.clear();
+        }
+        for (Object record : changed) {
+            String line;
+            if (record instanceof LibraryItem) {
+                line = itemLine((LibraryItem) record);
+                journal.itemPut(lastShipped(record, null), line);
+            } else {
+                line = memberLine((Person) record);
+                journal.memberPut(lastShipped(record, null), line);
+            }
+            shippedLines.put(record, line);
+        }
+        journal.flush();
+    }
+
+    /**
+     * Returns the line the standby has for a record: the line it was last
+     * shipped with, or else the line it was loaded or last saved with.
+     */
+    private static String lastShipped(Object record, String otherwise) {
+        String line = shippedLines.get(record);
+        if (line == null) {
+            line = savedLines.get(record);
+        }
+        return line != null ? line : otherwise;
+    }
+
+    /**
+     * Persistence hooks for the records a standby adds and deletes while
+     * following the primary. The indexes are only built on promotion, from
+     * the lists, so they are not told.
+     */
+    private static final ReplicationFollower.Registry replicaRegistry = new ReplicationFollower.Registry() {
+        @Override
+        public void itemAdded(LibraryItem item) {
+            if (catalog != null) {
+                catalog.add(item);
+            } else {
+                storage.itemAdded(item);
+            }
+        }
+
+        @Override
+        public void itemRemoved(LibraryItem item) {
+            if (catalog != null) {
+                catalog.remove(item);
+            } else {
+                storage.itemRemoved(item);
+            }
+            itemCache.invalidate(item.getSerialNumber());
+        }
+
+        @Override
+        public void memberAdded(Person member) {
+            storage.memberAdded(member);
+        }
+
+        @Override
+        public void memberRemoved(Person member) {
+            storage.memberRemoved(member);
+            memberCache.invalidate(memberId(member));
+        }
+    };
+
+    /**
+     * Runs as a warm standby: applies the primary's journal as it grows until
+     * the user types "promote", or until the primary has been silent for
+     * {@code library.failover.seconds} when that is set. The caller then
+     * carries on with the usual startup on the data already in memory.
+     */
+    private static void followPrimary(ReplicationFollower follower) {
+        long failoverMs = Long.getLong("library.failover.seconds", 0) * 1000;
+        System.out.println("Standby: following the primary. Type \"status\" to see the replication lag, "
+                + "or \"promote\" to take over.");
+        StringBuilder typed = new StringBuilder();
+        while (true) {
+            try {
+                follower.poll();
+            } catch (IOException e) {
+                System.out.println("Warning: could not read the replication journal: " + e.getMessage());
+            }
+            String command = readTypedLine(typed);
+            if ("promote".equalsIgnoreCase(command)) {
+                break;
+            } else if ("status".equalsIgnoreCase(command)) {
+                System.out.println(follower);
+            } else if (command != null && !command.isEmpty()) {
+                System.out.println("Type \"status\" or \"promote\".");
+            }
+            if (failoverMs > 0 && follower.getSilenceMs() > failoverMs) {
+                System.out.println("The primary has been silent for " + follower.getSilenceMs() / 1000
+                        + " s, promoting this standby.");
+                break;
+            }
+            try {
+                Thread.sleep(STANDBY_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        try {
+            follower.poll();
+        } catch (IOException e) {
+            System.out.println("Warning: could not read the replication journal: " + e.getMessage());
+        }
+        System.out.println("Promoted. " + follower);
+    }
+
+    /**
+     * Returns a line typed on the console without waiting for one, so the
+     * standby keeps applying the journal meanwhile. The shared scanner is not
+     * used, since it would read ahead into the menu input.
+     *
+     * @param typed characters of the line typed so far
+     * @return the line, or null if no full line has been typed yet
+     */
+    private static String readTypedLine(StringBuilder typed) {
+        try {
+            while (System.in.available() > 0) {
+                int c = System.in.read();
+                if (c < 0 || c == '\n') {
+                    String line = typed.toString().trim();
+                    typed.setLength(0);
+                    return line;
+                }
+                typed.append((char) c);
+            }
+        } catch (IOException e) {
+            // No console; only failover can promote
         }
+        return null;
     }
 
     /**
@@ -384,22 +1111,29 @@ public class Main {
         System.out.println();
         System.out.println("Deleting an existing Library Item...");
         System.out.print("Enter the serial number or name of the item to delete: ");
-        String searchInput = input.nextLine();
+        String searchInput = readLine();
 
         LibraryItem itemToDelete = findItemByNameOrSerial(items, searchInput);
 
         if (itemToDelete == null) {
             System.out.println("Item not found.");
+            printSuggestions(searchInput);
             return;
         }
 
         System.out.println("Item details:");
         System.out.println(itemToDelete);
+        Person borrower = referenceIndex.getBorrower(itemToDelete);
+        if (borrower != null) {
+            System.out.println("This item is on loan to " + memberId(borrower) + " (" + borrower.getName()
+                    + ") and will be removed from their borrowed items.");
+        }
         System.out.print("Are you sure you want to delete this item? (yes/no): ");
-        String confirmation = input.nextLine().toLowerCase();
+        String confirmation = readLine().toLowerCase();
 
         if (confirmation.equals("yes")) {
             items.remove(itemToDelete);
+            itemRemoved(itemToDelete);
             System.out.println("Item deleted successfully.");
         } else {
             System.out.println("Deletion canceled.");
@@ -416,7 +1150,7 @@ public class Main {
         System.out.println("[c] for Civilian");
         System.out.println("[s] for Student");
         System.out.print("Enter your choice (c/s): ");
-        char memberTypeChoice = Character.toLowerCase(input.nextLine().charAt(0));
+        char memberTypeChoice = Character.toLowerCase(readLine().charAt(0));
 
         try {
             switch (memberTypeChoice) {
@@ -432,7 +1166,7 @@ public class Main {
             }
         } catch (Exception e) {
             System.out.println("Error adding member: " + e.getMessage());
-            input.nextLine(); // Clear buffer
+            readLine(); // Clear buffer
         }
     }
 
@@ -441,25 +1175,34 @@ public class Main {
      */
     private static void addCivilian(ArrayList<Person> myMembers) {
         System.out.println("Enter the civilian's ID:");
-        String civilianID = input.nextLine();
+        String civilianID = readLine();
+        if (searchMemberById(civilianID, myMembers) != null) {
+            System.out.println("A member with ID " + civilianID + " already exists.");
+            return;
+        }
         System.out.println("Enter the civilian's name:");
-        String civilianName = input.nextLine();
+        String civilianName = readLine();
         System.out.println("Enter the civilian's address:");
-        String civilianAddress = input.nextLine();
+        String civilianAddress = readLine();
         System.out.println("Enter the civilian's gender (M/F):");
-        char civilianGender = Character.toUpperCase(input.nextLine().charAt(0));
+        char civilianGender = Character.toUpperCase(readLine().charAt(0));
         System.out.println("Enter the civilian's age:");
-        int civilianAge = input.nextInt();
-        input.nextLine();
+        int civilianAge = readInt();
+        readLine();
         System.out.println("Enter the civilian's phone number:");
-        String civilianPhoneNumber = input.nextLine();
+        String civilianPhoneNumber = readLine();
+        while (!Person.checkValidNumber(civilianPhoneNumber)) {
+            System.out.println("Invalid phone number. Use 12-345678 or +123-45-678901:");
+            civilianPhoneNumber = readLine();
+        }
         System.out.println("Enter the civilian's current balance:");
-        double civilianCurrentBal = input.nextDouble();
-        input.nextLine();
+        double civilianCurrentBal = readDouble();
+        readLine();
 
         Civilian newCivilian = new Civilian(civilianName, civilianAddress, civilianGender, 
                                            civilianAge, civilianPhoneNumber, civilianID, civilianCurrentBal);
         myMembers.add(newCivilian);
+        memberAdded(newCivilian);
         System.out.println("New civilian added correctly.");
     }
 
@@ -468,22 +1211,31 @@ public class Main {
      */
     private static void addStudent(ArrayList<Person> myMembers) {
         System.out.println("Enter the student's ID:");
-        String studentID = input.nextLine();
+        String studentID = readLine();
+        if (searchMemberById(studentID, myMembers) != null) {
+            System.out.println("A member with ID " + studentID + " already exists.");
+            return;
+        }
         System.out.println("Enter the student's name:");
-        String studentName = input.nextLine();
+        String studentName = readLine();
         System.out.println("Enter the student's address:");
-        String studentAddress = input.nextLine();
+        String studentAddress = readLine();
         System.out.println("Enter the student's gender (M/F):");
-        char studentGender = Character.toUpperCase(input.nextLine().charAt(0));
+        char studentGender = Character.toUpperCase(readLine().charAt(0));
         System.out.println("Enter the student's age:");
-        int studentAge = input.nextInt();
-        input.nextLine();
+        int studentAge = readInt();
+        readLine();
         System.out.println("Enter the student's phone number:");
-        String studentPhoneNumber = input.nextLine();
+        String studentPhoneNumber = readLine();
+        while (!Person.checkValidNumber(studentPhoneNumber)) {
+            System.out.println("Invalid phone number. Use 12-345678 or +123-45-678901:");
+            studentPhoneNumber = readLine();
+        }
 
         Student newStudent = new Student(studentName, studentAddress, studentGender, 
                                         studentAge, studentPhoneNumber, studentID);
         myMembers.add(newStudent);
+        memberAdded(newStudent);
         System.out.println("New student added correctly.");
     }
 
@@ -494,7 +1246,7 @@ public class Main {
         System.out.println();
         System.out.println("Modifying a member's information...");
         System.out.println("Enter the ID or name of the member whose information you want to modify:");
-        String memberIdOrName = input.nextLine();
+        String memberIdOrName = readLine();
 
         Person memberToModify = null;
         if (memberIdOrName.matches("\\d+")) {
@@ -521,34 +1273,37 @@ public class Main {
         System.out.print("Enter your choice: ");
         
         try {
-            int choice = input.nextInt();
-            input.nextLine();
+            int choice = readInt();
+            readLine();
 
             switch (choice) {
                 case 1:
                     System.out.print("Enter the new name: ");
-                    memberToModify.setName(input.nextLine());
+                    memberToModify.setName(readLine());
                     System.out.println("Name updated successfully.");
                     break;
                 case 2:
                     System.out.print("Enter the new address: ");
-                    memberToModify.setAddress(input.nextLine());
+                    memberToModify.setAddress(readLine());
                     System.out.println("Address updated successfully.");
                     break;
                 case 3:
                     System.out.print("Enter the new gender (M/F): ");
-                    memberToModify.setGender(Character.toUpperCase(input.nextLine().charAt(0)));
+                    memberToModify.setGender(Character.toUpperCase(readLine().charAt(0)));
                     System.out.println("Gender updated successfully.");
                     break;
                 case 4:
                     System.out.print("Enter the new age: ");
-                    memberToModify.setAge(input.nextInt());
+                    memberToModify.setAge(readInt());
                     System.out.println("Age updated successfully.");
                     break;
                 case 5:
                     System.out.print("Enter the new phone number: ");
-                    memberToModify.setPhoneNumber(input.nextLine());
-                    System.out.println("Phone number updated successfully.");
+                    if (memberToModify.setPhoneNumber(readLine())) {
+                        System.out.println("Phone number updated successfully.");
+                    } else {
+                        System.out.println("Invalid phone number. Use 12-345678 or +123-45-678901.");
+                    }
                     break;
                 case 6:
                     System.out.println("Exiting modification.");
@@ -558,62 +1313,139 @@ public class Main {
             }
         } catch (Exception e) {
             System.out.println("Error modifying member: " + e.getMessage());
-            input.nextLine();
+            readLine();
         }
     }
 
     /**
      * Loads members and items from disk files and reconstructs relationships.
+     * When the {@code library.shards} system property is above 1, items are
+     * loaded from one file per shard in parallel instead of items.txt.
+     * The data directory is locked in shared mode while reading, files that
+     * fail their checksums are loaded from the previous save instead, and the
+     * loaded state becomes the baseline for merging on the next save.
      */
     public static void LoadFromFiles(ArrayList<Person> members, ArrayList<LibraryItem> items) throws FileNotFoundException {
-        ArrayList<String> borrowed = new ArrayList<>();
-        ArrayList<String> owners = new ArrayList<>();
-        loadAllmembers(members, borrowed, "members.txt");
-        loadAllItems(items, owners, "items.txt");
-        adjustOwners(members, items, owners);
-        adjustBorrowed(members, items, borrowed);
-    }
-
-    /**
+        DataDirectoryLock lock = null;
+        try {
+            lock = DataDirectoryLock.acquire(new File("."), true);
+        } catch (IOException e) {
+            System.out.println("Warning: could not lock the data directory: " + e.getMessage());
+        }
+        try {
+            loadUnlocked(members, items);
+            markSynced(members, items);
+        } finally {
+            releaseLock(lock);
+        }
+    }
+
+    private static void loadUnlocked(ArrayList<Person> members, ArrayList<LibraryItem> items) throws FileNotFoundException {
+        ArrayList<String> borrowed = new ArrayList<>();
+        ArrayList<String> owners = new ArrayList<>();
+        StringPool pool = new StringPool();
+        loadAllmembers(members, borrowed, SafeDataFile.verifiedSource(new File("members.txt")).getPath(), pool);
+        int shardCount = Integer.getInteger("library.shards", 1);
+        // Shard files left by a sharded run are read even with one shard, and merged back into items.txt
+        if (shardCount > 1 || ShardedCatalog.hasShardData(new File("."))) {
+            catalog = new ShardedCatalog(new File("."), shardCount);
+            catalog.load(members);
+            items.addAll(catalog.allItems());
+        } else {
+            loadAllItems(items, owners, SafeDataFile.verifiedSource(new File("items.txt")).getPath(), pool);
+            adjustOwners(members, items, owners);
+        }
+        adjustBorrowed(members, items, borrowed);
+        if (pool.getHits() > 0) {
+            System.out.println(pool);
+        }
+    }
+
+    /**
      * Reconstructs each member's borrowed items from serialized strings.
      */
     public static void adjustBorrowed(ArrayList<Person> members, ArrayList<LibraryItem> items, ArrayList<String> borrowed) {
+        // One primitive map of the items instead of a search per serial; the first item with a serial wins
+        LongObjectMap<LibraryItem> bySerial = new LongObjectMap<>(catalog != null ? 0 : items.size());
+        if (catalog == null) {
+            for (LibraryItem item : items) {
+                bySerial.putIfAbsent(item.getSerialNumber(), item);
+            }
+        }
+        LongArrayList serials = new LongArrayList();
         for (int i = 0; i < members.size(); i++) {
-            if (borrowed.get(i) != null) {
-                String[] itemsBorrowed = borrowed.get(i).split("##");
-                for (String serial : itemsBorrowed) {
-                    if (serial != null && !serial.isEmpty()) {
-                        try {
-                            LibraryItem item = searchItemBySerialNb(Long.parseLong(serial), items);
-                            if (item != null) {
-                                members.get(i).getBorrowedItem().add(item);
-                            }
-                        } catch (NumberFormatException e) {
-                            System.out.println("Warning: Invalid serial number in borrowed items: " + serial);
-                        }
-                    }
+            if (borrowed.get(i) == null) {
+                continue;
+            }
+            serials.clear();
+            parseSerials(borrowed.get(i), serials);
+            for (int j = 0; j < serials.size(); j++) {
+                long serial = serials.get(j);
+                LibraryItem item = catalog != null ? catalog.findBySerial(serial) : bySerial.get(serial);
+                if (item != null) {
+                    members.get(i).addBorrowedItem(item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the serial number in {@code text[start, end)}, or returns
+     * Long.MIN_VALUE if it is not one. Up to 18 digits cannot overflow and
+     * are read in place; longer numbers go through Long.parseLong.
+     */
+    private static long parseSerial(String text, int start, int end) {
+        int first = text.charAt(start) == '-' ? start + 1 : start;
+        if (first == end || end - first > 18) {
+            try {
+                return Long.parseLong(text.substring(start, end));
+            } catch (NumberFormatException e) {
+                return Long.MIN_VALUE;
+            }
+        }
+        long serial = 0;
+        for (int k = first; k < end; k++) {
+            char c = text.charAt(k);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            serial = serial * 10 + (c - '0');
+        }
+        return first > start ? -serial : serial;
+    }
+
+    /**
+     * Reads the serial numbers of a "##"-separated borrowed list without
+     * splitting it into strings.
+     */
+    private static void parseSerials(String list, LongArrayList serials) {
+        int start = 0;
+        while (start <= list.length()) {
+            int end = list.indexOf("##", start);
+            if (end < 0) {
+                end = list.length();
+            }
+            if (end > start) {
+                long serial = parseSerial(list, start, end);
+                if (serial != Long.MIN_VALUE) {
+                    serials.add(serial);
+                } else {
+                    System.out.println("Warning: Invalid serial number in borrowed items: " + list.substring(start, end));
                 }
             }
+            start = end + 2;
         }
     }
 
     /**
-     * Reconstructs each item's past owners list from serialized owner id strings.
-     * Fixed to handle both Student and Civilian types safely.
+     * Attaches each item's serialized owner id string so its past owners list
+     * is built on first access instead of at startup. Items whose history is
+     * never looked at are saved back without being decoded.
      */
     public static void adjustOwners(ArrayList<Person> members, ArrayList<LibraryItem> items, ArrayList<String> owners) {
         for (int i = 0; i < items.size(); i++) {
-            if (owners.get(i) != null) {
-                String[] oldOwners = owners.get(i).split("&&");
-                for (String id : oldOwners) {
-                    if (id != null && !id.isEmpty()) {
-                        Person member = searchMemberById(id, members);
-                        if (member != null) {
-                            // Add person to past owners list (works for both Student and Civilian)
-                            items.get(i).getPastOwners().add(member);
-                        }
-                    }
-                }
+            if (owners.get(i) != null && !owners.get(i).isEmpty()) {
+                items.get(i).setPendingOwners(owners.get(i), id -> searchMemberById(id, members));
             }
         }
     }
@@ -622,79 +1454,148 @@ public class Main {
      * Loads member data from a text file.
      */
     public static void loadAllmembers(ArrayList<Person> members, ArrayList<String> borrowed, String filePath) throws FileNotFoundException {
+        loadAllmembers(members, borrowed, filePath, new StringPool());
+    }
+
+    /**
+     * Loads member data from a text file, sharing repeated addresses and
+     * phone numbers through the given pool.
+     */
+    public static void loadAllmembers(ArrayList<Person> members, ArrayList<String> borrowed, String filePath,
+                                      StringPool pool) throws FileNotFoundException {
         File myFile = new File(filePath);
         if (!myFile.exists()) {
             return;
         }
 
-        Scanner reader = new Scanner(myFile);
+        Scanner reader = new Scanner(myFile, "UTF-8");
         while (reader.hasNext()) {
-            String line = reader.nextLine();
-            String[] tokens = line.split("&");
-            try {
-                if (tokens[0].equals("C")) {
-                    members.add(new Civilian(
-                        tokens[1], tokens[2], tokens[3].charAt(0), 
-                        Integer.parseInt(tokens[4]), tokens[5], tokens[6], 
-                        Double.parseDouble(tokens[7])));
-                    borrowed.add(tokens.length == 9 ? tokens[8] : null);
-                } else if (tokens[0].equals("S")) {
-                    members.add(new Student(
-                        tokens[1], tokens[2], tokens[3].charAt(0), 
-                        Integer.parseInt(tokens[4]), tokens[5], tokens[6]));
-                    borrowed.add(tokens.length == 8 ? tokens[7] : null);
+            parseMemberLine(reader.nextLine(), members, borrowed, pool);
+        }
+        reader.close();
+    }
+
+    /**
+     * Parses one members.txt line, adding the member to the list and its
+     * serialized borrowed items to the borrowed list. Malformed lines are
+     * reported and skipped.
+     */
+    public static void parseMemberLine(String line, ArrayList<Person> members, ArrayList<String> borrowed,
+                                       StringPool pool) {
+        String[] tokens = line.split("&");
+        try {
+            if (tokens[0].equals("C")) {
+                double balance = Double.parseDouble(tokens[7]);
+                Civilian civilian = new Civilian(
+                    tokens[1], pool.intern(tokens[2]), tokens[3].charAt(0), 
+                    Integer.parseInt(tokens[4]), pool.intern(tokens[5]), tokens[6], 
+                    balance);
+                // The $50 default is for new members; a balance spent or fined down to nothing stays as saved
+                if (balance <= 0) {
+                    civilian.copyBalance(balance);
                 }
-            } catch (Exception e) {
-                System.out.println("Warning: Error loading member from line: " + line);
+                members.add(civilian);
+                borrowed.add(tokens.length == 9 ? tokens[8] : null);
+            } else if (tokens[0].equals("S")) {
+                members.add(new Student(
+                    tokens[1], pool.intern(tokens[2]), tokens[3].charAt(0), 
+                    Integer.parseInt(tokens[4]), pool.intern(tokens[5]), tokens[6]));
+                borrowed.add(tokens.length == 8 ? tokens[7] : null);
             }
+        } catch (Exception e) {
+            System.out.println("Warning: Error loading member from line: " + line);
         }
-        reader.close();
     }
 
     /**
      * Loads item data from a text file.
      */
     public static void loadAllItems(ArrayList<LibraryItem> items, ArrayList<String> owners, String filePath) throws FileNotFoundException {
+        loadAllItems(items, owners, filePath, new StringPool());
+    }
+
+    /**
+     * Loads item data from a text file, sharing repeated titles, authors,
+     * publishers and genres through the given pool.
+     */
+    public static void loadAllItems(ArrayList<LibraryItem> items, ArrayList<String> owners, String filePath,
+                                    StringPool pool) throws FileNotFoundException {
         File myFile = new File(filePath);
         if (!myFile.exists()) {
             return;
         }
 
-        Scanner reader = new Scanner(myFile);
+        Scanner reader = new Scanner(myFile, "UTF-8");
         while (reader.hasNext()) {
-            String line = reader.nextLine();
-            String[] tokens = line.split("#");
-            try {
-                if (tokens[0].equals("D")) {
-                    items.add(new DVD(
-                        Long.parseLong(tokens[1]), tokens[2], tokens[3], tokens[4], 
-                        tokens[5].charAt(0), tokens[6], 
-                        new Date(Long.parseLong(tokens[7])), 
-                        Double.parseDouble(tokens[8])));
-                } else if (tokens[0].equals("B")) {
-                    items.add(new Book(
-                        Long.parseLong(tokens[1]), tokens[2], tokens[3], tokens[4], 
-                        tokens[5].charAt(0), tokens[6], 
-                        new Date(Long.parseLong(tokens[7])), 
-                        Integer.parseInt(tokens[8])));
-                }
-                owners.add(tokens.length == 10 ? tokens[9] : null);
-            } catch (Exception e) {
-                System.out.println("Warning: Error loading item from line: " + line);
-            }
+            parseItemLine(reader.nextLine(), items, owners, pool);
         }
         reader.close();
     }
 
     /**
-     * Searches for a library item by serial number.
+     * Parses one items.txt line, adding the item to the list and its
+     * serialized past owners to the owners list. Malformed lines are
+     * reported and skipped.
+     */
+    public static void parseItemLine(String line, ArrayList<LibraryItem> items, ArrayList<String> owners,
+                                     StringPool pool) {
+        String[] tokens = line.split("#");
+        try {
+            LibraryItem item = null;
+            if (tokens[0].equals("D")) {
+                item = new DVD(
+                    Long.parseLong(tokens[1]), pool.intern(tokens[2]), pool.intern(tokens[3]),
+                    pool.intern(tokens[4]), tokens[5].charAt(0), pool.intern(tokens[6]), 
+                    new Date(Long.parseLong(tokens[7])), 
+                    Double.parseDouble(tokens[8]));
+            } else if (tokens[0].equals("B")) {
+                item = new Book(
+                    Long.parseLong(tokens[1]), pool.intern(tokens[2]), pool.intern(tokens[3]),
+                    pool.intern(tokens[4]), tokens[5].charAt(0), pool.intern(tokens[6]), 
+                    new Date(Long.parseLong(tokens[7])), 
+                    Integer.parseInt(tokens[8]));
+            }
+            if (item != null) {
+                // The constructor recomputes the date; keep the saved one so the record round-trips unchanged
+                item.setDateAvailable(new Date(Long.parseLong(tokens[7])));
+                items.add(item);
+            }
+            owners.add(tokens.length == 10 ? tokens[9] : null);
+        } catch (Exception e) {
+            System.out.println("Warning: Error loading item from line: " + line);
+        }
+    }
+
+    /**
+     * Searches for a library item by serial number. Recently found items of
+     * the library's item list are answered from the item cache; a cached item
+     * whose serial has since changed is ignored and looked up again. A miss
+     * uses the serial number index of the shard when the catalog is sharded,
+     * and scans the list otherwise. Other lists are always scanned.
      */
     public static LibraryItem searchItemBySerialNb(long serialNb, ArrayList<LibraryItem> items) {
         if (items == null) {
             return null;
         }
+        boolean cacheable = items == cachedItems;
+        if (cacheable) {
+            LibraryItem cached = itemCache.get(serialNb);
+            if (cached != null && cached.getSerialNumber() == serialNb) {
+                return cached;
+            }
+            if (catalog != null) {
+                LibraryItem item = catalog.findBySerial(serialNb);
+                if (item != null) {
+                    itemCache.put(serialNb, item);
+                }
+                return item;
+            }
+        }
         for (LibraryItem item : items) {
             if (item.getSerialNumber() == serialNb) {
+                if (cacheable) {
+                    itemCache.put(serialNb, item);
+                }
                 return item;
             }
         }
@@ -705,6 +1606,9 @@ public class Main {
      * Searches for library items matching the provided title.
      */
     public static ArrayList<LibraryItem> searchItemByName(String name, ArrayList<LibraryItem> items) {
+        if (catalog != null) {
+            return catalog.findByTitle(name);
+        }
         ArrayList<LibraryItem> foundItems = new ArrayList<>();
         for (LibraryItem item : items) {
             if (item.getTitle().equalsIgnoreCase(name)) {
@@ -715,23 +1619,39 @@ public class Main {
     }
 
     /**
-     * Searches for a member by their ID.
+     * Searches for a member by their ID, answering recently found members
+     * of the library's member list from the member cache. A miss scans the
+     * list.
      */
     public static Person searchMemberById(String id, ArrayList<Person> members) {
+        boolean cacheable = members == cachedMembers;
+        Person cached = cacheable ? memberCache.get(id) : null;
+        if (cached != null && id.equals(memberId(cached))) {
+            return cached;
+        }
         for (Person member : members) {
-            if (member instanceof Student) {
-                if (((Student) member).getStudentId().equals(id)) {
-                    return member;
-                }
-            } else if (member instanceof Civilian) {
-                if (((Civilian) member).getId().equals(id)) {
-                    return member;
+            if (id.equals(memberId(member))) {
+                if (cacheable) {
+                    memberCache.put(id, member);
                 }
+                return member;
             }
         }
         return null;
     }
 
+    /**
+     * Returns the student ID or civilian ID of a member, or null for other types.
+     */
+    public static String memberId(Person member) {
+        if (member instanceof Student) {
+            return ((Student) member).getStudentId();
+        } else if (member instanceof Civilian) {
+            return ((Civilian) member).getId();
+        }
+        return null;
+    }
+
     /**
      * Searches for a member by name.
      */
@@ -769,8 +1689,21 @@ public class Main {
         }
         
         if (memberToDelete != null) {
+            int loans = memberToDelete.getBorrowedItem().size();
+            if (loans > 0) {
+                System.out.println("Member '" + searchInput + "' still has " + loans
+                        + " item(s) on loan. Return them before deleting the member.");
+                return;
+            }
+            List<LibraryItem> history = referenceIndex.getHistory(memberToDelete);
+            for (LibraryItem item : history) {
+                item.removePastOwner(memberToDelete);
+            }
             members.remove(memberToDelete);
-            System.out.println("Member '" + searchInput + "' deleted successfully.");
+            memberToDelete.clearDirty();
+            memberRemoved(memberToDelete);
+            System.out.println("Member '" + searchInput + "' deleted successfully"
+                    + (history.isEmpty() ? "." : ", removed from the history of " + history.size() + " item(s)."));
         } else {
             System.out.println("Member '" + searchInput + "' not found.");
         }
@@ -783,7 +1716,7 @@ public class Main {
         System.out.println();
         System.out.println("Borrowing an item...");
         System.out.print("Enter the ID of the member who wants to borrow an item: ");
-        String Id = input.nextLine();
+        String Id = readLine();
 
         Person borrower = searchMemberById(Id, members);
         if (borrower == null) {
@@ -807,7 +1740,7 @@ public class Main {
 
         System.out.print("Enter the serial number of the item to borrow: ");
         try {
-            long itemSerialNumber = Long.parseLong(input.nextLine());
+            long itemSerialNumber = Long.parseLong(readLine());
             LibraryItem itemToBorrow = searchItemBySerialNb(itemSerialNumber, items);
 
             if (itemToBorrow == null) {
@@ -820,14 +1753,16 @@ public class Main {
                 return;
             }
 
-            boolean success = false;
-            if (borrower instanceof Student) {
-                success = ((Student) borrower).borrowItem(itemToBorrow);
-            } else if (borrower instanceof Civilian) {
-                success = ((Civilian) borrower).borrowItem(itemToBorrow);
+            int decision = PolicyEngine.current().check(borrower, itemToBorrow);
+            if (decision != BorrowingPolicy.ALLOWED) {
+                System.out.println("Cannot borrow: " + BorrowingPolicy.describe(decision) + ".");
+                return;
             }
 
+            boolean success = lend(borrower, itemToBorrow);
+
             if (success) {
+                circulation.record(CirculationLog.Type.BORROW, itemSerialNumber, Id);
                 System.out.println("Item borrowed successfully.");
             } else {
                 System.out.println("Failed to borrow item. Check borrowing limits or balance.");
@@ -846,7 +1781,7 @@ public class Main {
         System.out.print("Enter the serial number of the item to return: ");
         
         try {
-            long serialNumber = Long.parseLong(input.nextLine());
+            long serialNumber = Long.parseLong(readLine());
             LibraryItem itemToReturn = searchItemBySerialNb(serialNumber, items);
 
             if (itemToReturn == null) {
@@ -855,7 +1790,7 @@ public class Main {
             }
 
             System.out.print("Enter the ID of the member who borrowed the item: ");
-            String memberId = input.nextLine();
+            String memberId = readLine();
             Person borrower = searchMemberById(memberId, members);
 
             if (borrower == null) {
@@ -863,15 +1798,26 @@ public class Main {
                 return;
             }
 
-            boolean success = false;
-            if (borrower instanceof Student) {
-                success = ((Student) borrower).returnItem(itemToReturn);
-            } else if (borrower instanceof Civilian) {
-                success = ((Civilian) borrower).returnItem(itemToReturn);
-            }
+            // Read the fine before the return clears the due date
+            PriceTable prices = PricingEngine.current();
+            long now = System.currentTimeMillis();
+            long lateDays = prices.chargeableDays(itemToReturn, now);
+            double fine = prices.fine(itemToReturn, now);
+            boolean success = takeBack(borrower, itemToReturn);
 
             if (success) {
+                circulation.record(CirculationLog.Type.RETURN, serialNumber, memberId);
                 System.out.println("Item returned successfully.");
+                if (fine > 0) {
+                    System.out.printf("Returned %d day(s) late: fine of $%.2f.%n", lateDays, fine);
+                    if (borrower instanceof Civilian) {
+                        Civilian civilian = (Civilian) borrower;
+                        civilian.chargeFine(fine);
+                        System.out.printf("The fine was charged to the balance, now $%.2f.%n", civilian.getCurrentBal());
+                    } else {
+                        System.out.println("Students have no balance; the fine is for information only.");
+                    }
+                }
             } else {
                 System.out.println("Member did not have this item borrowed.");
             }
@@ -881,131 +1827,507 @@ public class Main {
     }
 
     /**
-     * Saves all members and items to their respective files.
+     * Lends an item to a member, through its shard when the catalog is sharded.
+     *
+     * @return true if the borrow succeeded
+     */
+    public static boolean lend(Person borrower, LibraryItem item) {
+        boolean lent = checkOut(borrower, item);
+        if (lent) {
+            loanRecorded(borrower, item);
+        }
+        return lent;
+    }
+
+    /**
+     * Lends an item to a member without telling the recommender and the
+     * popularity tracker, for a batch that may still be undone; the batch
+     * calls {@link #loanRecorded} once it is kept.
+     *
+     * @return true if the borrow succeeded
+     */
+    public static boolean checkOut(Person borrower, LibraryItem item) {
+        return catalog != null ? catalog.borrow(borrower, item) : borrower.borrowItem(item);
+    }
+
+    /**
+     * Counts a loan towards the recommendations and the popularity ranking.
+     */
+    public static void loanRecorded(Person borrower, LibraryItem item) {
+        recommender.recordBorrow(memberId(borrower), item.getSerialNumber());
+        popularity.recordBorrow(item.getSerialNumber(), item.getGenre());
+    }
+
+    /**
+     * Takes an item back from a member, through its shard when the catalog is sharded.
+     *
+     * @return true if the member had the item
+     */
+    public static boolean takeBack(Person borrower, LibraryItem item) {
+        return catalog != null ? catalog.giveBack(borrower, item) : borrower.returnItem(item);
+    }
+
+    /**
+     * Borrows or returns every entry of a file of "memberId,serial" lines
+     * as one batch.
+     */
+    private static void batchCirculationMenu(ArrayList<Person> members, ArrayList<LibraryItem> items) {
+        System.out.println();
+        System.out.print("[b] Borrow or [r] Return? ");
+        String operation = readLine().trim().toLowerCase();
+        if (!operation.equals("b") && !operation.equals("r")) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        System.out.print("Enter the batch file (one memberId,serial per line; returns may omit the member): ");
+        String path = readLine().trim();
+        System.out.print("Apply all entries or none? (yes/no): ");
+        BatchCirculation.Mode mode = readLine().trim().equalsIgnoreCase("yes")
+                ? BatchCirculation.Mode.ALL_OR_NOTHING : BatchCirculation.Mode.PER_ENTRY;
+
+        ArrayList<BatchCirculation.Entry> entries;
+        try (Scanner reader = new Scanner(new File(path))) {
+            ArrayList<String> lines = new ArrayList<>();
+            while (reader.hasNextLine()) {
+                lines.add(reader.nextLine());
+            }
+            entries = BatchCirculation.parse(lines);
+        } catch (FileNotFoundException e) {
+            System.out.println("File " + path + " not found.");
+            return;
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid serial number in batch: " + e.getMessage());
+            return;
+        }
+        BatchCirculation batch = new BatchCirculation(members, items, circulation);
+        System.out.println(operation.equals("b") ? batch.borrow(entries, mode) : batch.giveBack(entries, mode));
+    }
+
+    /**
+     * Saves all changed members and items through the configured storage.
+     * With the text files, the data directory is locked exclusively while
+     * saving, and each file is merged record by record with changes other
+     * processes saved in the meantime.
      */
     public static void SaveAllToFiles(ArrayList<Person> members, ArrayList<LibraryItem> items) {
-        saveMembersToFile(members);
-        saveItemsToFile(items);
+        shipChanges();
+        long journalPosition = journal != null ? journal.position() : 0;
+        storage.prepareSave(members, items, false).run();
+        if (journal != null) {
+            journal.checkpoint(journalPosition);
+        }
     }
 
     /**
-     * Writes members to the "members.txt" file.
+     * Writes the embedded store back to members.txt and items.txt.
      */
-    private static void saveMembersToFile(ArrayList<Person> members) {
-        try (FileWriter writer = new FileWriter("members.txt")) {
-            for (Person member : members) {
-                StringBuilder line = new StringBuilder();
-                if (member instanceof Civilian) {
-                    Civilian c = (Civilian) member;
-                    line.append("C&")
-                        .append(escapeField(c.getName())).append('&')
-                        .append(escapeField(c.getAddress())).append('&')
-                        .append(c.getGender()).append('&')
-                        .append(c.getAge()).append('&')
-                        .append(escapeField(c.getPhoneNumber())).append('&')
-                        .append(escapeField(c.getId())).append('&')
-                        .append(c.getCurrentBal());
-                    if (!c.getBorrowedItem().isEmpty()) {
-                        line.append('&');
-                        StringJoiner sj = new StringJoiner("##");
-                        for (LibraryItem it : c.getBorrowedItem()) {
-                            sj.add(String.valueOf(it.getSerialNumber()));
-                        }
-                        line.append(sj.toString());
-                    }
-                } else if (member instanceof Student) {
-                    Student s = (Student) member;
-                    line.append("S&")
-                        .append(escapeField(s.getName())).append('&')
-                        .append(escapeField(s.getAddress())).append('&')
-                        .append(s.getGender()).append('&')
-                        .append(s.getAge()).append('&')
-                        .append(escapeField(s.getPhoneNumber())).append('&')
-                        .append(escapeField(s.getStudentId()));
-                    if (!s.getBorrowedItem().isEmpty()) {
-                        line.append('&');
-                        StringJoiner sj = new StringJoiner("##");
-                        for (LibraryItem it : s.getBorrowedItem()) {
-                            sj.add(String.valueOf(it.getSerialNumber()));
-                        }
-                        line.append(sj.toString());
-                    }
+    private static void exportText() {
+        if (!(storage instanceof LogStorage)) {
+            System.out.println("--export needs -Dlibrary.storage=log.");
+            return;
+        }
+        try {
+            ((LogStorage) storage).exportText(new File("."));
+            storage.close();
+            System.out.println("Exported to members.txt and items.txt.");
+        } catch (IOException e) {
+            System.out.println("Error exporting data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lists the items of the items files ({@code items.txt} and any shard
+     * files) whose title contains the given text,
+     * ignoring case. The file is read into an {@link OffHeapItemStore} and
+     * scanned in place, so no item objects are kept on the heap however large
+     * the catalog is.
+     */
+    private static void findOffHeap(String text) {
+        if (storage instanceof LogStorage) {
+            System.out.println("--find reads the items files; run --export first.");
+            return;
+        }
+        ArrayList<File> files = new ArrayList<>();
+        long bytes = 0;
+        for (File file : ShardedCatalog.itemFiles(new File("."))) {
+            files.add(SafeDataFile.verifiedSource(file));
+            bytes += files.get(files.size() - 1).length();
+        }
+        OffHeapItemStore store = new OffHeapItemStore((int) Math.min(bytes / 100,
+                Integer.MAX_VALUE / OffHeapItemStore.RECORD_BYTES));
+        long start = System.nanoTime();
+        for (File file : files) {
+            try {
+                store.load(file);
+            } catch (IOException e) {
+                System.out.println("Error reading " + file + ": " + e.getMessage());
+                return;
+            }
+        }
+        String needle = text.toLowerCase();
+        OffHeapItemStore.Cursor cursor = store.cursor();
+        int found = 0;
+        for (int record = 0; record < store.getRecordCount(); record++) {
+            if (cursor.moveTo(record)) {
+                String title = cursor.getTitle();
+                if (title.toLowerCase().contains(needle)) {
+                    System.out.println(cursor.getSerialNumber() + "  " + (cursor.isBook() ? "Book" : "DVD") + "  "
+                            + title + " by " + cursor.getAuthor() + " ("
+                            + (cursor.getStatus() == 'a' ? "Available" : "Not Available") + ")");
+                    found++;
                 }
-                writer.write(line.toString() + System.lineSeparator());
             }
-            System.out.println("Members data saved successfully.");
-        } catch (IOException e) {
-            System.out.println("Error saving members data: " + e.getMessage());
         }
+        System.out.println(found + " item(s) found in " + (System.nanoTime() - start) / 1_000_000 + " ms. " + store);
     }
 
     /**
-     * Writes items to the "items.txt" file.
+     * Runs one autosave if no command is in progress. The changed records
+     * are serialized under the state lock, which only takes as long as the
+     * dirty records need; the files are then written without holding it.
+     *
+     * @return true if the save ran, false if a command was in progress
      */
-    private static void saveItemsToFile(ArrayList<LibraryItem> items) {
-        try (FileWriter writer = new FileWriter("items.txt")) {
-            for (LibraryItem item : items) {
-                StringBuilder line = new StringBuilder();
-                if (item instanceof DVD) {
-                    DVD d = (DVD) item;
-                    line.append('D').append('#')
-                        .append(d.getSerialNumber()).append('#')
-                        .append(escapeField(d.getTitle())).append('#')
-                        .append(escapeField(d.getAuthor())).append('#')
-                        .append(escapeField(d.getPublisher())).append('#')
-                        .append(d.getStatus()).append('#')
-                        .append(escapeField(d.getGenre())).append('#')
-                        .append(d.getDateAvailable().getTime()).append('#')
-                        .append(d.getSizeInMB());
-                    if (!d.getPastOwners().isEmpty()) {
-                        line.append('#');
-                        StringJoiner sj = new StringJoiner("&&");
-                        for (Person p : d.getPastOwners()) {
-                            if (p instanceof Student) {
-                                sj.add(((Student) p).getStudentId());
-                            } else if (p instanceof Civilian) {
-                                sj.add(((Civilian) p).getId());
-                            }
-                        }
-                        line.append(sj.toString());
-                    }
-                } else if (item instanceof Book) {
-                    Book b = (Book) item;
-                    line.append('B').append('#')
-                        .append(b.getSerialNumber()).append('#')
-                        .append(escapeField(b.getTitle())).append('#')
-                        .append(escapeField(b.getAuthor())).append('#')
-                        .append(escapeField(b.getPublisher())).append('#')
-                        .append(b.getStatus()).append('#')
-                        .append(escapeField(b.getGenre())).append('#')
-                        .append(b.getDateAvailable().getTime()).append('#')
-                        .append(b.getNbOfPages());
-                    if (!b.getPastOwners().isEmpty()) {
-                        line.append('#');
-                        StringJoiner sj = new StringJoiner("&&");
-                        for (Person p : b.getPastOwners()) {
-                            if (p instanceof Student) {
-                                sj.add(((Student) p).getStudentId());
-                            } else if (p instanceof Civilian) {
-                                sj.add(((Civilian) p).getId());
-                            }
-                        }
-                        line.append(sj.toString());
-                    }
+    private static boolean autosaveNow(ArrayList<Person> members, ArrayList<LibraryItem> items) {
+        Runnable save;
+        long journalPosition;
+        if (!stateLock.tryLock()) {
+            return false;
+        }
+        try {
+            shipChanges();
+            journalPosition = journal != null ? journal.position() : 0;
+            save = storage.prepareSave(members, items, true);
+        } finally {
+            stateLock.unlock();
+        }
+        save.run();
+        if (journal != null) {
+            journal.checkpoint(journalPosition);
+        }
+        return true;
+    }
+
+    /**
+     * Serializes every data file that has added, deleted or changed records
+     * since the last save. Only dirty records are serialized again; the
+     * returned lines are immutable, so they can be written by another thread
+     * while the records keep changing.
+     *
+     * @return lines to write, per data file
+     */
+    public static LinkedHashMap<VersionedDataFile, ArrayList<String>> snapshotChanges(ArrayList<Person> members,
+                                                                                     ArrayList<LibraryItem> items) {
+        LinkedHashMap<VersionedDataFile, ArrayList<String>> snapshot = new LinkedHashMap<>();
+        VersionedDataFile membersFile = VersionedDataFile.forMembers("members.txt");
+        boolean changed = membersFile.isRestructured();
+        for (int i = 0; i < members.size() && !changed; i++) {
+            changed = members.get(i).isDirty();
+        }
+        if (changed) {
+            ArrayList<String> lines = new ArrayList<>();
+            for (Person member : members) {
+                lines.add(cachedLine(member));
+            }
+            snapshot.put(membersFile, lines);
+        }
+        if (catalog != null) {
+            catalog.snapshotChanges(snapshot);
+        } else {
+            snapshotItems(snapshot, "items.txt", items);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Adds the lines of an items file to the snapshot if any item in it was
+     * added, deleted or changed since the last save.
+     */
+    public static void snapshotItems(Map<VersionedDataFile, ArrayList<String>> snapshot, String filePath,
+                                     ArrayList<LibraryItem> items) {
+        VersionedDataFile file = VersionedDataFile.forItems(filePath);
+        boolean changed = file.isRestructured();
+        for (int i = 0; i < items.size() && !changed; i++) {
+            changed = items.get(i).isDirty();
+        }
+        if (changed) {
+            snapshot.put(file, itemLines(items));
+        }
+    }
+
+    /**
+     * Writes a snapshot while holding the exclusive data directory lock.
+     * Every file is merged first, then written in parallel. If another
+     * session changed the loans of a record this session changed as well,
+     * no file is written, since a member's borrowed items and the items'
+     * statuses could no longer agree; the files stay marked for the next save.
+     *
+     * @param snapshot lines to write, per data file
+     * @param quiet true to report only problems (used by autosave)
+     */
+    public static void writeSnapshot(Map<VersionedDataFile, ArrayList<String>> snapshot, boolean quiet) {
+        if (snapshot.isEmpty()) {
+            if (!quiet) {
+                System.out.println("No changes to save.");
+            }
+            return;
+        }
+        DataDirectoryLock lock = null;
+        try {
+            lock = DataDirectoryLock.acquire(new File("."), false);
+        } catch (IOException e) {
+            System.out.println("Warning: could not lock the data directory: " + e.getMessage());
+        }
+        try {
+            Map<VersionedDataFile, VersionedDataFile.Merge> merges = new ConcurrentHashMap<>();
+            snapshot.entrySet().parallelStream().forEach(entry -> merges.put(entry.getKey(), entry.getKey().merge(entry.getValue())));
+            int loanConflicts = 0;
+            for (VersionedDataFile.Merge merge : merges.values()) {
+                loanConflicts += merge.getLoanConflicts();
+            }
+            if (loanConflicts > 0) {
+                // The records were marked clean when serialized; keep the files due for the next save
+                for (VersionedDataFile file : snapshot.keySet()) {
+                    file.markRestructured();
                 }
-                writer.write(line.toString() + System.lineSeparator());
+                System.out.println("Not saved: another session lent, returned or charged " + loanConflicts
+                        + " of the same member(s) or item(s) differently. Restart to load its changes;"
+                        + " this session's changes since the last save would be lost.");
+                return;
+            }
+            merges.entrySet().parallelStream().forEach(entry -> saveMerge(entry.getKey(), entry.getValue(), quiet));
+        } finally {
+            releaseLock(lock);
+        }
+    }
+
+    /**
+     * Writes the merged lines of a data file and reports what was merged.
+     */
+    private static void saveMerge(VersionedDataFile file, VersionedDataFile.Merge merge, boolean quiet) {
+        String label = file.getName();
+        try {
+            file.write(merge);
+            if (merge.getMerged() > 0) {
+                System.out.println(label + ": kept " + merge.getMerged()
+                        + " record(s) saved by another session; restart to see them.");
+            }
+            if (merge.getConflicts() > 0) {
+                System.out.println(label + ": " + merge.getConflicts()
+                        + " record(s) had a field changed differently by another session; this session's value was saved.");
+            }
+            if (!quiet) {
+                System.out.println(label + " saved successfully.");
             }
-            System.out.println("Items data saved successfully.");
         } catch (IOException e) {
-            System.out.println("Error saving items data: " + e.getMessage());
+            // The records were marked clean when serialized; force a rewrite next time
+            file.markRestructured();
+            System.out.println("Error saving " + label + ": " + e.getMessage());
         }
     }
 
+    /**
+     * Records the loaded state as the baseline the next save merges against.
+     */
+    private static void markSynced(ArrayList<Person> members, ArrayList<LibraryItem> items) {
+        ArrayList<String> lines = new ArrayList<>();
+        for (Person member : members) {
+            lines.add(cachedLine(member));
+        }
+        VersionedDataFile.forMembers("members.txt").markSynced(lines);
+        if (catalog != null) {
+            catalog.markSynced();
+        } else {
+            VersionedDataFile.forItems("items.txt").markSynced(itemLines(items));
+        }
+    }
+
+    private static void releaseLock(DataDirectoryLock lock) {
+        if (lock != null) {
+            try {
+                lock.close();
+            } catch (IOException e) {
+                System.out.println("Warning: could not release the data directory lock: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serializes a member into its members.txt line.
+     */
+    public static String memberLine(Person member) {
+        StringBuilder line = new StringBuilder();
+        if (member instanceof Civilian) {
+            Civilian c = (Civilian) member;
+            line.append("C&")
+                .append(escapeField(c.getName())).append('&')
+                .append(escapeField(c.getAddress())).append('&')
+                .append(c.getGender()).append('&')
+                .append(c.getAge()).append('&')
+                .append(escapeField(c.getPhoneNumber())).append('&')
+                .append(escapeField(c.getId())).append('&')
+                .append(c.getCurrentBal());
+        } else if (member instanceof Student) {
+            Student s = (Student) member;
+            line.append("S&")
+                .append(escapeField(s.getName())).append('&')
+                .append(escapeField(s.getAddress())).append('&')
+                .append(s.getGender()).append('&')
+                .append(s.getAge()).append('&')
+                .append(escapeField(s.getPhoneNumber())).append('&')
+                .append(escapeField(s.getStudentId()));
+        }
+        if (line.length() > 0 && !member.getBorrowedItem().isEmpty()) {
+            line.append('&');
+            StringJoiner sj = new StringJoiner("##");
+            for (LibraryItem it : member.getBorrowedItem()) {
+                sj.add(String.valueOf(it.getSerialNumber()));
+            }
+            line.append(sj.toString());
+        }
+        return line.toString();
+    }
+
+    /**
+     * Serializes items into their items.txt lines, reusing the previous line
+     * of every item that has not changed since.
+     */
+    public static ArrayList<String> itemLines(ArrayList<LibraryItem> items) {
+        ArrayList<String> lines = new ArrayList<>();
+        for (LibraryItem item : items) {
+            lines.add(cachedLine(item));
+        }
+        return lines;
+    }
+
+    /**
+     * Returns a member's serialized line, serializing again only if the
+     * member changed. The dirty flag is cleared before serializing so a
+     * change made meanwhile is picked up by the next save.
+     */
+    public static String cachedLine(Person member) {
+        String line = savedLines.get(member);
+        if (line == null || member.isDirty()) {
+            member.clearDirty();
+            line = memberLine(member);
+            savedLines.put(member, line);
+        }
+        return line;
+    }
+
+    /**
+     * Returns an item's serialized line, serializing again only if the item changed.
+     */
+    public static String cachedLine(LibraryItem item) {
+        String line = savedLines.get(item);
+        if (line == null || item.isDirty()) {
+            item.clearDirty();
+            line = itemLine(item);
+            savedLines.put(item, line);
+        }
+        return line;
+    }
+
+    /**
+     * Serializes an item into its items.txt line.
+     */
+    public static String itemLine(LibraryItem item) {
+        StringBuilder line = new StringBuilder();
+        if (item instanceof DVD) {
+            DVD d = (DVD) item;
+            line.append('D').append('#')
+                .append(d.getSerialNumber()).append('#')
+                .append(escapeField(d.getTitle())).append('#')
+                .append(escapeField(d.getAuthor())).append('#')
+                .append(escapeField(d.getPublisher())).append('#')
+                .append(d.getStatus()).append('#')
+                .append(escapeField(d.getGenre())).append('#')
+                .append(d.getDateAvailable().getTime()).append('#')
+                .append(d.getSizeInMB());
+        } else if (item instanceof Book) {
+            Book b = (Book) item;
+            line.append('B').append('#')
+                .append(b.getSerialNumber()).append('#')
+                .append(escapeField(b.getTitle())).append('#')
+                .append(escapeField(b.getAuthor())).append('#')
+                .append(escapeField(b.getPublisher())).append('#')
+                .append(b.getStatus()).append('#')
+                .append(escapeField(b.getGenre())).append('#')
+                .append(b.getDateAvailable().getTime()).append('#')
+                .append(b.getNbOfPages());
+        }
+        String owners = pastOwnersField(item);
+        if (line.length() > 0 && !owners.isEmpty()) {
+            line.append('#').append(owners);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Serializes an item's past owner IDs. Histories that were never decoded
+     * are written back from their pending form without resolving them.
+     */
+    public static String pastOwnersField(LibraryItem item) {
+        String pending = item.getPendingOwners();
+        if (pending != null) {
+            return pending;
+        }
+        StringJoiner sj = new StringJoiner("&&");
+        for (Person p : item.getPastOwners()) {
+            String id = memberId(p);
+            if (id != null) {
+                sj.add(id);
+            }
+        }
+        return sj.toString();
+    }
+
     private static String escapeField(String s) {
         if (s == null) return "";
         return s.replace("&", "\\&").replace("#", "\\#");
     }
 
+    /**
+     * Reads a line typed by the user, releasing the state lock while
+     * waiting so autosave is never held up by an open prompt.
+     */
+    private static String readLine() {
+        return awaitInput(input::nextLine);
+    }
+
+    /**
+     * Reads an integer typed by the user, releasing the state lock while waiting.
+     */
+    private static int readInt() {
+        return awaitInput(input::nextInt);
+    }
+
+    /**
+     * Reads a number typed by the user, releasing the state lock while waiting.
+     */
+    private static double readDouble() {
+        return awaitInput(input::nextDouble);
+    }
+
+    /**
+     * Runs a blocking read with the state lock released, taking it back
+     * afterwards. Commands read all the input a change needs before applying
+     * it, so no half-applied change is left visible while the lock is free.
+     */
+    private static <T> T awaitInput(Supplier<T> read) {
+        int holds = stateLock.getHoldCount();
+        for (int i = 0; i < holds; i++) {
+            stateLock.unlock();
+        }
+        try {
+            return read.get();
+        } finally {
+            for (int i = 0; i < holds; i++) {
+                stateLock.lock();
+            }
+        }
+    }
+
     /**
      * Displays the main menu and reads the user's choice.
      */
@@ -1025,18 +2347,25 @@ public class Main {
             System.out.println("10- Return an item");
             System.out.println("11- Display all items");
             System.out.println("12- Display all members");
-            System.out.println("13- Exit");
+            System.out.println("13- Display reports");
+            System.out.println("14- Loan history");
+            System.out.println("15- Batch borrow/return from a file");
+            System.out.println("16- Browse items by type, genre, status, publisher or pages");
+            System.out.println("17- Find items by pages, DVD size, price or availability");
+            System.out.println("18- Find and merge duplicate members");
+            System.out.println("19- Change prices");
+            System.out.println("20- Exit");
             System.out.print("Enter your choice: ");
 
             try {
-                choice = input.nextInt();
-                input.nextLine();
+                choice = readInt();
+                readLine();
                 if (choice < 1 || choice > EXIT) {
-                    System.out.println("Invalid choice! Please enter a number between 1 and 13.");
+                    System.out.println("Invalid choice! Please enter a number between 1 and " + EXIT + ".");
                 }
             } catch (Exception e) {
                 System.out.println("Invalid input! Please enter a number.");
-                input.nextLine(); // Clear buffer
+                readLine(); // Clear buffer
                 choice = -1;
             }
         }
@@ -0,0 +1,23 @@
+/**
+ * Notified when a field of a {@link Person} changes, so indexes over the
+ * members can be kept up to date incrementally instead of rebuilt.
+ *
+ * Listeners are registered with {@link Person#addChangeListener} and are
+ * called on the thread that changed the member, after the change. They are
+ * also called while a member is being constructed, before it has been added
+ * to any index, and should ignore members they do not know.
+ *
+ * @author jeffreyhaddad
+ */
+public interface MemberChangeListener {
+
+    /**
+     * Called after a field of a member changed.
+     *
+     * @param member the changed member
+     * @param field name of the field, such as "phone"
+     * @param oldValue value before the change
+     * @param newValue value after the change
+     */
+    void memberChanged(Person member, String field, Object oldValue, Object newValue);
+}
@@ -0,0 +1,310 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Finds members registered more than once and merges them.
+ *
+ * Comparing every pair of members would be quadratic, so members are first
+ * grouped into blocks sharing a key: the same ID, the same normalized name,
+ * the same phone number or the same normalized address. Only pairs within
+ * a block are compared, and blocks larger than {@value #MAX_BLOCK} (a
+ * placeholder phone number shared by many, say) are skipped. The candidate
+ * pairs are scored in parallel; pairs scoring at least {@value #THRESHOLD}
+ * are joined into clusters with a union-find.
+ *
+ * Merging keeps the first member of each cluster in list order. The others'
+ * loans move to it, every item naming them as a past owner names it
+ * instead, and they are removed. A duplicate's balance is only carried over
+ * where it differs from what registering gave it: the credit above the
+ * default balance, or a debt left by fines (see {@link #carriedBalance}). The items naming them are found through a
+ * {@link ReferenceIndex}, so a merge only touches the records it changes.
+ *
+ * @author jeffreyhaddad
+ */
+public class MemberDeduplicator {
+
+    /** Largest block whose pairs are compared */
+    static final int MAX_BLOCK = 100;
+    /** Score from which two members are considered the same person */
+    static final double THRESHOLD = 0.7;
+
+    private final List<Person> members;
+
+    /**
+     * Creates a deduplicator over a member list.
+     * @param members all members
+     */
+    public MemberDeduplicator(List<Person> members) {
+        this.members = members;
+    }
+
+    /**
+     * Returns the groups of members that look like the same person, each
+     * in list order.
+     * @return clusters of two or more members
+     */
+    public ArrayList<List<Person>> findDuplicates() {
+        int n = members.size();
+        Features[] features = IntStream.range(0, n).parallel()
+                .mapToObj(i -> new Features(members.get(i))).toArray(Features[]::new);
+
+        // Block on each key; the key kind is prefixed so keys of different kinds never collide
+        ConcurrentHashMap<String, List<Integer>> blocks = IntStream.range(0, n).parallel().boxed()
+                .flatMap(i -> features[i].blockingKeys().stream().map(key -> new Object[] {key, i}))
+                .collect(Collectors.groupingByConcurrent(pair -> (String) pair[0], ConcurrentHashMap::new,
+                        Collectors.mapping(pair -> (Integer) pair[1], Collectors.toList())));
+
+        // Candidate pairs packed as (lower index << 32 | higher index), sorted so repeats are adjacent
+        long[] pairs = blocks.values().parallelStream()
+                .filter(block -> block.size() > 1 && block.size() <= MAX_BLOCK)
+                .flatMapToLong(block -> {
+                    LongStream.Builder packed = LongStream.builder();
+                    for (int a = 0; a < block.size(); a++) {
+                        for (int b = a + 1; b < block.size(); b++) {
+                            int i = Math.min(block.get(a), block.get(b));
+                            int j = Math.max(block.get(a), block.get(b));
+                            packed.add((long) i << 32 | j);
+                        }
+                    }
+                    return packed.build();
+                })
+                .toArray();
+        Arrays.parallelSort(pairs);
+        long[] matches = IntStream.range(0, pairs.length).parallel()
+                .filter(k -> k == 0 || pairs[k] != pairs[k - 1])
+                .mapToLong(k -> pairs[k])
+                .filter(pair -> score(features[(int) (pair >>> 32)], features[(int) pair]) >= THRESHOLD)
+                .toArray();
+
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (long match : matches) {
+            int a = find(parent, (int) (match >>> 32));
+            int b = find(parent, (int) match);
+            // The lower index becomes the root so the oldest registration survives
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+        // Keyed by root, which is the lowest index of its cluster, so clusters come out in list order
+        TreeMap<Integer, List<Person>> clusters = new TreeMap<>();
+        for (long match : matches) {
+            clusters.computeIfAbsent(find(parent, (int) match), root -> new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            List<Person> cluster = clusters.get(find(parent, i));
+            if (cluster != null) {
+                cluster.add(members.get(i));
+            }
+        }
+        return new ArrayList<>(clusters.values());
+    }
+
+    /**
+     * Merges each cluster into its first member and removes the others from
+     * the member list.
+     *
+     * @param clusters groups returned by {@link #findDuplicates()}
+     * @param references index of the items naming each member
+     * @return the removed members
+     */
+    public ArrayList<Person> merge(List<List<Person>> clusters, ReferenceIndex references) {
+        IdentityHashMap<Person, Person> survivorOf = new IdentityHashMap<>();
+        for (List<Person> cluster : clusters) {
+            for (Person duplicate : cluster.subList(1, cluster.size())) {
+                survivorOf.put(duplicate, cluster.get(0));
+            }
+        }
+        if (survivorOf.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        for (Map.Entry<Person, Person> entry : survivorOf.entrySet()) {
+            Person duplicate = entry.getKey();
+            Person survivor = entry.getValue();
+            for (LibraryItem item : references.getHistory(duplicate)) {
+                item.replacePastOwner(duplicate, survivor);
+            }
+            for (LibraryItem item : new ArrayList<>(duplicate.getBorrowedItem())) {
+                duplicate.removeBorrowedItem(item);
+                if (!survivor.getBorrowedItem().contains(item)) {
+                    survivor.addBorrowedItem(item);
+                }
+            }
+            if (survivor instanceof Civilian && duplicate instanceof Civilian) {
+                Civilian kept = (Civilian) survivor;
+                kept.copyBalance(kept.getCurrentBal() + carriedBalance((Civilian) duplicate));
+            }
+            survivor.markDirty();
+        }
+        members.removeIf(survivorOf::containsKey);
+        return new ArrayList<>(survivorOf.keySet());
+    }
+
+    /**
+     * Returns the part of a duplicate's balance its survivor takes over.
+     * Registering with no credit gave the duplicate the default balance,
+     * which was never paid in, so only credit above the default is carried;
+     * a balance below zero is an unpaid fine and is carried in full.
+     *
+     * @param duplicate civilian being merged away
+     * @return amount to add to the survivor's balance (negative for a debt)
+     */
+    static double carriedBalance(Civilian duplicate) {
+        double balance = duplicate.getCurrentBal();
+        if (balance > Civilian.DEFAULT_BALANCE) {
+            return balance - Civilian.DEFAULT_BALANCE;
+        }
+        return Math.min(balance, 0);
+    }
+
+    /**
+     * Scores how likely two members are the same person, from 0 to 1.
+     */
+    static double score(Person a, Person b) {
+        return score(new Features(a), new Features(b));
+    }
+
+    private static double score(Features a, Features b) {
+        if (a.type != b.type) {
+            return 0;
+        }
+        if (isRealId(a.id) && a.id.equals(b.id)) {
+            return 1;
+        }
+        double score = 0.5 * similarity(a.name, b.name);
+        if (a.phone != PhoneNumbers.INVALID && a.phone == b.phone) {
+            score += 0.3;
+        }
+        if (!a.address.isEmpty() && a.address.equals(b.address)) {
+            score += 0.2;
+        }
+        return score;
+    }
+
+    /**
+     * Returns false for missing IDs and the "unknown" placeholder.
+     */
+    private static boolean isRealId(String id) {
+        return id != null && !id.isEmpty() && !id.equalsIgnoreCase("unknown");
+    }
+
+    /**
+     * Returns the sorted words of a name, so "Doe, John" matches "john doe".
+     */
+    private static String[] nameTokens(String name) {
+        String normalized = normalize(name);
+        if (normalized.isEmpty()) {
+            return new String[0];
+        }
+        String[] tokens = normalized.split(" ");
+        Arrays.sort(tokens);
+        return tokens;
+    }
+
+    /**
+     * Shares of words two sorted word lists have in common (Jaccard index).
+     */
+    private static double similarity(String[] a, String[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return 0;
+        }
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            int order = a[i].compareTo(b[j]);
+            if (order == 0) {
+                common++;
+                i++;
+                j++;
+            } else if (order < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (a.length + b.length - common);
+    }
+
+    /**
+     * Lower-cases the letters and digits of a text and joins the runs of
+     * them with single spaces.
+     */
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean gap = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (gap && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(Character.toLowerCase(c));
+                gap = false;
+            } else {
+                gap = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * The normalized fields of one member, computed once and shared by
+     * blocking and scoring.
+     */
+    private static final class Features {
+        private final Class<?> type;
+        private final String id;
+        private final String[] name;
+        private final long phone;
+        private final String address;
+
+        Features(Person member) {
+            type = member.getClass();
+            id = Main.memberId(member);
+            name = nameTokens(member.getName());
+            phone = member.getPhoneKey();
+            address = normalize(member.getAddress());
+        }
+
+        /**
+         * Returns the blocking keys: ID, name, phone and address.
+         */
+        List<String> blockingKeys() {
+            ArrayList<String> keys = new ArrayList<>(4);
+            if (isRealId(id)) {
+                keys.add("i:" + id);
+            }
+            if (name.length > 0) {
+                keys.add("n:" + String.join(" ", name));
+            }
+            if (phone != PhoneNumbers.INVALID) {
+                keys.add("p:" + phone);
+            }
+            if (!address.isEmpty()) {
+                keys.add("a:" + address);
+            }
+            return keys;
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+/**
+ * Item records kept outside the Java heap, for scanning catalogs too large
+ * to hold as {@link LibraryItem} objects without long garbage collection
+ * pauses.
+ *
+ * Every item is a fixed-width record in a direct {@link ByteBuffer}; its
+ * strings (title, author, publisher and genre) are UTF-8 bytes in a second
+ * direct buffer, referenced by offset and length. Repeated authors,
+ * publishers and genres are stored once. The collector sees two buffers
+ * however many items there are.
+ *
+ * The store is filled from items files, each line copied straight into a
+ * record without building an item, and read through a reusable
+ * {@link Cursor}, so a scan allocates nothing per record. It is read-only:
+ * {@code Main --find} uses it to search titles, while the interactive menus
+ * work on the heap item list.
+ *
+ * @author jeffreyhaddad
+ */
+public class OffHeapItemStore {
+
+    /** Record types */
+    private static final byte BOOK_RECORD = 1;
+    private static final byte DVD_RECORD = 2;
+
+    /** Record field offsets */
+    private static final int TYPE = 0;
+    private static final int STATUS = 2;
+    private static final int PAGES = 4;
+    private static final int SERIAL = 8;
+    private static final int DATE = 16;
+    private static final int SIZE = 24;
+    private static final int TITLE = 32;
+    private static final int AUTHOR = 40;
+    private static final int PUBLISHER = 48;
+    private static final int GENRE = 56;
+    /** Bytes per record; each string field is an (offset, length) pair of ints */
+    static final int RECORD_BYTES = 64;
+
+    private ByteBuffer records;
+    private ByteBuffer strings;
+    private int recordCount;
+    /** Offset and length of each shared string, packed into a long */
+    private final HashMap<String, Long> shared = new HashMap<>();
+
+    /**
+     * Creates an empty store.
+     *
+     * @param expectedItems number of items to make room for
+     */
+    public OffHeapItemStore(int expectedItems) {
+        records = ByteBuffer.allocateDirect(Math.max(1, expectedItems) * RECORD_BYTES);
+        strings = ByteBuffer.allocateDirect(Math.max(1, expectedItems) * 64);
+    }
+
+    /**
+     * Appends the items of an items file to the store. Lines that are not
+     * valid items are reported and skipped, as when loading the catalog.
+     *
+     * @param file items file
+     * @throws IOException if the file cannot be read
+     */
+    public void load(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.isEmpty() && !append(line.split("#"))) {
+                    System.out.println("Warning: Error loading item from line: " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the fields of one items file line into a new record.
+     * @return false if the line is not a valid item
+     */
+    private boolean append(String[] tokens) {
+        byte type = tokens[0].equals("D") ? DVD_RECORD : tokens[0].equals("B") ? BOOK_RECORD : 0;
+        if (type == 0 || tokens.length < 9 || tokens[5].isEmpty()) {
+            return false;
+        }
+        long serial;
+        long date;
+        int pages = 0;
+        double size = 0;
+        try {
+            serial = Long.parseLong(tokens[1]);
+            date = Long.parseLong(tokens[7]);
+            if (type == DVD_RECORD) {
+                size = Double.parseDouble(tokens[8]);
+            } else {
+                pages = Integer.parseInt(tokens[8]);
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (records.remaining() < RECORD_BYTES) {
+            records = grow(records, RECORD_BYTES);
+        }
+        int base = recordCount * RECORD_BYTES;
+        records.put(base + TYPE, type);
+        records.putChar(base + STATUS, tokens[5].charAt(0));
+        records.putInt(base + PAGES, pages);
+        records.putLong(base + SERIAL, serial);
+        records.putLong(base + DATE, date);
+        records.putDouble(base + SIZE, size);
+        putString(base + TITLE, tokens[2], false);
+        putString(base + AUTHOR, tokens[3], true);
+        putString(base + PUBLISHER, tokens[4], true);
+        putString(base + GENRE, tokens[6], true);
+        records.position(base + RECORD_BYTES);
+        recordCount++;
+        return true;
+    }
+
+    /**
+     * Returns a cursor for reading records in place.
+     * @return a new cursor, positioned nowhere
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Returns the number of records.
+     * @return items loaded
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the off-heap bytes in use.
+     * @return record and string bytes
+     */
+    public long getOffHeapBytes() {
+        return (long) recordCount * RECORD_BYTES + strings.position();
+    }
+
+    private void putString(int field, String value, boolean share) {
+        Long location = share ? shared.get(value) : null;
+        if (location == null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (strings.remaining() < bytes.length) {
+                strings = grow(strings, bytes.length);
+            }
+            location = (long) strings.position() << 32 | bytes.length;
+            strings.put(bytes);
+            if (share) {
+                shared.put(value, location);
+            }
+        }
+        records.putInt(field, (int) (location >>> 32));
+        records.putInt(field + 4, (int) (long) location);
+    }
+
+    private String string(int field) {
+        int offset = records.getInt(field);
+        int length = records.getInt(field + 4);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = strings.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a buffer with at least {@code needed} more bytes free, keeping
+     * the written contents.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + needed);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Off-heap item store is full");
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect((int) capacity);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    @Override
+    public String toString() {
+        return "Off-heap store: " + recordCount + " item(s), " + getOffHeapBytes() / 1024 + " KB off heap";
+    }
+
+    /**
+     * Reads the fields of one record at a time, in place. A cursor is a
+     * flyweight: move it to a record with {@link #moveTo} and read; nothing
+     * is allocated except for the strings asked for. Cursors must not be
+     * used while items are still being loaded.
+     */
+    public final class Cursor {
+        private int base = -1;
+
+        /**
+         * Positions the cursor on a record.
+         * @param record record number
+         * @return false if the record does not exist
+         */
+        public boolean moveTo(int record) {
+            if (record < 0 || record >= recordCount) {
+                return false;
+            }
+            base = record * RECORD_BYTES;
+            return true;
+        }
+
+        public long getSerialNumber() {
+            return records.getLong(base + SERIAL);
+        }
+
+        public boolean isBook() {
+            return records.get(base + TYPE) == BOOK_RECORD;
+        }
+
+        public char getStatus() {
+            return records.getChar(base + STATUS);
+        }
+
+        /**
+         * Returns the availability date, in milliseconds.
+         * @return date available
+         */
+        public long getDateAvailable() {
+            return records.getLong(base + DATE);
+        }
+
+        /**
+         * Returns the page count of a book.
+         * @return pages, or 0 for a DVD
+         */
+        public int getNbOfPages() {
+            return records.getInt(base + PAGES);
+        }
+
+        /**
+         * Returns the size of a DVD.
+         * @return size in MB, or 0 for a book
+         */
+        public double getSizeInMB() {
+            return records.getDouble(base + SIZE);
+        }
+
+        public String getTitle() {
+            return string(base + TITLE);
+        }
+
+        public String getAuthor() {
+            return string(base + AUTHOR);
+        }
+
+        public String getGenre() {
+            return string(base + GENRE);
+        }
+    }
+}
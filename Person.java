@@ -1,4 +1,7 @@
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Represents a person in the library system.
@@ -18,8 +21,18 @@ public class Person {
     private int age;
     /** Person's contact phone number */
     String phoneNumber;
+    /** Canonical form of the phone number, or {@link PhoneNumbers#INVALID} if none was valid */
+    private long phoneKey = PhoneNumbers.INVALID;
     /** List of items currently borrowed by this person */
     private ArrayList<LibraryItem> borrowedItem;
+    /** True if the member changed since they were last loaded or saved */
+    private volatile boolean dirty;
+    /** Number of members currently marked dirty */
+    private static final AtomicInteger dirtyCount = new AtomicInteger();
+    /** Indexes notified when a member's fields change */
+    private static final CopyOnWriteArrayList<MemberChangeListener> listeners = new CopyOnWriteArrayList<>();
+    /** Told every time an member is marked dirty, or null */
+    private static volatile Consumer<Person> dirtyListener;
 
     /**
      * Constructs a person with the specified details.
@@ -53,6 +66,7 @@ public class Person {
 
     public void setName(String name) {
         this.name = name;
+        markDirty();
     }
     /**
      * Returns the person's gender as a char ('M' or 'F').
@@ -72,6 +86,7 @@ public class Person {
             this.gender = 'F';
         else
             this.gender='M';
+        markDirty();
     }
 
     public String getAddress() {
@@ -80,6 +95,7 @@ public class Person {
 
     public void setAddress(String address) {
         this.address = address;
+        markDirty();
     }
 
     public int getAge() {
@@ -91,58 +107,181 @@ public class Person {
             this.age = age;
         else
             this.age = 18;
+        markDirty();
     }
 
     public String getPhoneNumber() {
         return phoneNumber;
     }
 
-    public void setPhoneNumber(String phoneNumber) {
-        phoneNumber= phoneNumber.trim();
-        if(checkValidNumber(phoneNumber))
-            this.phoneNumber = phoneNumber;
+    /**
+     * Returns the canonical form of the phone number.
+     * @return canonical number, or {@link PhoneNumbers#INVALID} if the member has no valid number
+     */
+    public long getPhoneKey() {
+        return phoneKey;
+    }
+
+    /**
+     * Sets the phone number, stored in the standard layout whatever the
+     * spacing it was typed with. An invalid number is rejected and the
+     * previous one is kept.
+     *
+     * @param phoneNumber new phone number
+     * @return true if the number was valid and set
+     */
+    public boolean setPhoneNumber(String phoneNumber) {
+        long key = PhoneNumbers.parse(phoneNumber);
+        if (key == PhoneNumbers.INVALID) {
+            return false;
+        }
+        long old = phoneKey;
+        String formatted = PhoneNumbers.format(key);
+        // Keep the caller's (possibly pooled) string when it is already in the standard layout
+        this.phoneNumber = formatted.equals(phoneNumber) ? phoneNumber : formatted;
+        this.phoneKey = key;
+        markDirty();
+        fireChanged("phone", old, key);
+        return true;
     }
 
     /**
-     * Validates a phone number format. Accepts two formats:
-     * - 9 characters: digits with a dash at position 2 (eg "12-345678")
-     * - 14 characters: starts with '+' and uses dashes at positions 4 and 7
+     * Validates a phone number. Accepts local numbers of 8 digits (eg
+     * "12-345678") and international numbers of 11 digits starting with '+'
+     * (eg "+123-45-678901"); spaces, dashes, dots and parentheses are ignored.
      *
      * @param phoneNb phone number string to validate
      * @return true if valid, false otherwise
      */
     public static boolean checkValidNumber(String phoneNb){
-        if(phoneNb.length()==9)
-            {for(int i=0; i<9; i++)
-               { if(i==2)
-               {  if(phoneNb.charAt(i)!='-')
-                    return false;}
-                else if(!Character.isDigit(phoneNb.charAt(i)))
-                    return false;
-               }
-              return true;
-            }
-        else if(phoneNb.length()==14)
-        {
-        for(int i=0; i<14; i++)
-               { if(i==0 )
-               {if( phoneNb.charAt(i)!='+')
-                    return false;}
-                else if(i==4 || i==7)
-                   {   if( phoneNb.charAt(i)!='-')
-                    return false;}
-                else
-                   {if(!Character.isDigit(phoneNb.charAt(i)))
-                    return false;}
-               }
-              return true;
+        return PhoneNumbers.isValid(phoneNb);
+    }
+    /**
+     * Attempts to borrow a library item. A plain person has no borrowing
+     * rights; {@link Student} and {@link Civilian} override this with their
+     * own rules.
+     *
+     * @param item The item to borrow
+     * @return true if the borrowing was successful, false otherwise
+     */
+    public boolean borrowItem(LibraryItem item) {
+        return false;
+    }
+
+    /**
+     * Returns a borrowed library item. Overridden by member types that can borrow.
+     *
+     * @param item The item to return
+     * @return true if the item was returned, false otherwise
+     */
+    public boolean returnItem(LibraryItem item) {
+        return false;
+    }
+
+    /**
+     * Marks the member as changed so the next save serializes them again.
+     */
+    public synchronized void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            dirtyCount.incrementAndGet();
+        }
+        Consumer<Person> listener = dirtyListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * Returns true if the member changed since they were last loaded or saved.
+     * @return whether the member needs saving
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the member as saved.
+     */
+    public synchronized void clearDirty() {
+        if (dirty) {
+            dirty = false;
+            dirtyCount.decrementAndGet();
         }
+    }
+
+    /**
+     * Registers a listener called whenever a member's indexed fields change.
+     * @param listener listener to add
+     */
+    public static void addChangeListener(MemberChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     * @param listener listener to remove
+     */
+    public static void removeChangeListener(MemberChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the hook told every time a member is marked dirty, even if it
+     * already was, so that changes can be shipped to a standby as they
+     * happen.
+     * @param listener hook to call, or null for none
+     */
+    public static void setDirtyListener(Consumer<Person> listener) {
+        dirtyListener = listener;
+    }
 
-        return false;       
+    /**
+     * Tells the listeners that a field changed.
+     * @param field name of the field
+     * @param oldValue value before the change
+     * @param newValue value after the change
+     */
+    protected void fireChanged(String field, Object oldValue, Object newValue) {
+        for (MemberChangeListener listener : listeners) {
+            listener.memberChanged(this, field, oldValue, newValue);
+        }
     }
+
+    /**
+     * Returns the number of members that changed since they were last saved.
+     * @return dirty member count
+     */
+    public static int getDirtyCount() {
+        return dirtyCount.get();
+    }
+
     public ArrayList<LibraryItem> getBorrowedItem() {
         return borrowedItem;
     }
+
+    /**
+     * Adds an item to the member's loans.
+     * @param item borrowed item
+     */
+    public void addBorrowedItem(LibraryItem item) {
+        borrowedItem.add(item);
+        fireChanged("borrowed", null, item);
+    }
+
+    /**
+     * Removes an item from the member's loans.
+     * @param item returned item
+     * @return true if the member had the item
+     */
+    public boolean removeBorrowedItem(LibraryItem item) {
+        if (!borrowedItem.remove(item)) {
+            return false;
+        }
+        fireChanged("borrowed", item, null);
+        return true;
+    }
+
     @Override
     public String toString() {
         return name + ", " + age + " " + gender + ", residence:" + address + "\nphone number: " + phoneNumber;
@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Parsing and formatting of member phone numbers.
+ *
+ * Two kinds of numbers are accepted: local numbers of 8 digits, written
+ * {@code 12-345678}, and international numbers of 11 digits with a leading
+ * '+', written {@code +123-45-678901}. On input, spaces, dashes, dots and
+ * parentheses are ignored, so {@code 12 345 678} and {@code (12) 345-678}
+ * are the same local number.
+ *
+ * A number is reduced to a canonical {@code long}: its digit count in the
+ * high bits and its digits in the low 40, so leading zeros survive and two
+ * spellings of a number compare equal with {@code ==}. The scanner does one
+ * table lookup per character to classify it, with no per-position rules.
+ *
+ * @author jeffreyhaddad
+ */
+public final class PhoneNumbers {
+
+    /** Returned for text that is not a phone number */
+    public static final long INVALID = -1;
+
+    private static final int LOCAL_DIGITS = 8;
+    private static final int INTERNATIONAL_DIGITS = 11;
+    private static final int DIGIT_BITS = 40;
+    private static final long DIGIT_MASK = (1L << DIGIT_BITS) - 1;
+
+    private static final byte OTHER = 0;
+    private static final byte DIGIT = 1;
+    private static final byte SEPARATOR = 2;
+    private static final byte PLUS = 3;
+    /** Class of every ASCII character */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT;
+        }
+        for (char c : " -.()".toCharArray()) {
+            CLASSES[c] = SEPARATOR;
+        }
+        CLASSES['+'] = PLUS;
+    }
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Reduces a phone number to its canonical form.
+     * @param text number as typed or stored
+     * @return canonical number, or {@link #INVALID}
+     */
+    public static long parse(CharSequence text) {
+        if (text == null) {
+            return INVALID;
+        }
+        long digits = 0;
+        int count = 0;
+        boolean plus = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c < 128 ? CLASSES[c] : OTHER) {
+                case DIGIT:
+                    if (++count > INTERNATIONAL_DIGITS) {
+                        return INVALID;
+                    }
+                    digits = digits * 10 + (c - '0');
+                    break;
+                case SEPARATOR:
+                    break;
+                case PLUS:
+                    // Only as the first digit-bearing character
+                    if (plus || count > 0) {
+                        return INVALID;
+                    }
+                    plus = true;
+                    break;
+                default:
+                    return INVALID;
+            }
+        }
+        if (plus ? count != INTERNATIONAL_DIGITS : count != LOCAL_DIGITS) {
+            return INVALID;
+        }
+        return (long) count << DIGIT_BITS | digits;
+    }
+
+    /**
+     * Returns true if the text is a phone number.
+     * @param text number as typed or stored
+     * @return whether it parses
+     */
+    public static boolean isValid(CharSequence text) {
+        return parse(text) != INVALID;
+    }
+
+    /**
+     * Writes a canonical number in the library's standard layout.
+     * @param canonical canonical number from {@link #parse}
+     * @return {@code 12-345678} or {@code +123-45-678901}
+     */
+    public static String format(long canonical) {
+        int count = (int) (canonical >>> DIGIT_BITS);
+        StringBuilder digits = new StringBuilder(Long.toString(canonical & DIGIT_MASK));
+        while (digits.length() < count) {
+            digits.insert(0, '0');
+        }
+        if (count == LOCAL_DIGITS) {
+            return digits.insert(2, '-').toString();
+        }
+        return digits.insert(0, '+').insert(4, '-').insert(7, '-').toString();
+    }
+
+    /**
+     * Parses many numbers at once, in parallel, and counts the invalid and
+     * repeated ones. Repeats are found by sorting the canonical values, so
+     * no per-number objects are created. Used to check the members of an
+     * import in one pass.
+     *
+     * @param numbers numbers to parse (null entries count as invalid)
+     * @return counts of invalid and repeated numbers
+     */
+    public static Bulk parseAll(List<? extends CharSequence> numbers) {
+        long[] canonical = new long[numbers.size()];
+        IntStream.range(0, canonical.length).parallel().forEach(i -> canonical[i] = parse(numbers.get(i)));
+        Arrays.parallelSort(canonical);
+        int invalid = 0;
+        int repeated = 0;
+        for (int i = 0; i < canonical.length; i++) {
+            if (canonical[i] == INVALID) {
+                invalid++;
+            } else if (i > 0 && canonical[i] == canonical[i - 1]) {
+                repeated++;
+            }
+        }
+        return new Bulk(canonical.length, invalid, repeated);
+    }
+
+    /**
+     * The result of {@link #parseAll}.
+     */
+    public static final class Bulk {
+        private final int count;
+        private final int invalid;
+        private final int repeated;
+
+        Bulk(int count, int invalid, int repeated) {
+            this.count = count;
+            this.invalid = invalid;
+            this.repeated = repeated;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getInvalidCount() {
+            return invalid;
+        }
+
+        /**
+         * Returns how many valid numbers repeat an earlier one.
+         * @return number of repeats
+         */
+        public int getRepeatedCount() {
+            return repeated;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Holds the {@link BorrowingPolicy} in effect and reloads it when the
+ * policy file changes, without a restart.
+ *
+ * The rules are read from {@code policies.txt}, or the file named by the
+ * {@code library.policies} system property. Without the file the defaults
+ * apply. An edited file is compiled once and swapped in as a whole; if it
+ * does not compile, the previous policy stays in effect.
+ *
+ * @author jeffreyhaddad
+ */
+public final class PolicyEngine {
+
+    /** Default policy file name */
+    public static final String POLICY_FILE = "policies.txt";
+
+    private static final File file = new File(System.getProperty("library.policies", POLICY_FILE));
+    private static volatile BorrowingPolicy current = BorrowingPolicy.defaults();
+    /** Modification time of the file the current policy was read from, or 0 if none */
+    private static long loadedModified;
+
+    private PolicyEngine() {
+    }
+
+    /**
+     * Returns the policy in effect.
+     * @return current borrowing policy
+     */
+    public static BorrowingPolicy current() {
+        return current;
+    }
+
+    /**
+     * Replaces the policy in effect, for example to change one limit.
+     * @param policy new policy
+     */
+    public static void publish(BorrowingPolicy policy) {
+        current = policy;
+    }
+
+    /**
+     * Compiles the policy file again if it changed since it was last read,
+     * and goes back to the defaults if it was deleted.
+     */
+    public static synchronized void reloadIfChanged() {
+        long modified = file.lastModified();
+        if (modified == loadedModified) {
+            return;
+        }
+        loadedModified = modified;
+        if (modified == 0) {
+            current = BorrowingPolicy.defaults();
+            return;
+        }
+        try {
+            current = BorrowingPolicy.compile(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+            System.out.println("Borrowing policy loaded from " + file + ".");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Warning: keeping the previous borrowing policy, " + file + " is invalid: "
+                    + e.getMessage());
+        }
+    }
+}
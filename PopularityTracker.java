@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Tracks which items are borrowed most right now.
+ *
+ * Every borrow adds a weight that halves every {@code library.popularity.halfLifeDays}
+ * days (default 14), so old loans fade out. The weights use forward decay: a
+ * borrow at time t adds {@code 2^((t - origin) / halfLife)} instead of
+ * decaying every stored value, and scores are divided by the same factor for
+ * the current time when read. Comparing two items therefore needs no decay
+ * at all.
+ *
+ * Per-item scores are exact. A Count-Min sketch estimates the same scores in
+ * fixed memory and feeds a bounded min-heap of the hottest items, one heap
+ * for the whole catalog and one per genre. A top-N query only copies a heap,
+ * so it costs the same whatever the catalog size.
+ *
+ * @author jeffreyhaddad
+ */
+public class PopularityTracker {
+
+    /** Number of hash rows of the sketch */
+    private static final int DEPTH = 4;
+    /** Number of counters per hash row (a power of two) */
+    private static final int WIDTH = 1 << 12;
+    /** Number of items kept in each heap */
+    public static final int TOP_K = 20;
+    /** Key of the heap covering every genre */
+    private static final String ALL = "";
+    /** Largest forward-decay exponent before the weights are rescaled */
+    private static final double MAX_EXPONENT = 500;
+
+    private final double halfLifeMs;
+    /** Time the forward-decay weights are measured from */
+    private long origin;
+    /** Forward-decayed score of each item, keyed by serial number */
+    private final LongDoubleMap scores = new LongDoubleMap();
+    /** Count-Min sketch over forward-decayed weights */
+    private final double[][] sketch = new double[DEPTH][WIDTH];
+    /** Hottest items per genre (and {@link #ALL}), least hot at the head */
+    private final HashMap<String, PriorityQueue<Candidate>> heaps = new HashMap<>();
+
+    /**
+     * Creates a tracker with the half-life from the system properties.
+     */
+    public PopularityTracker() {
+        this(Double.parseDouble(System.getProperty("library.popularity.halfLifeDays", "14")));
+    }
+
+    /**
+     * Creates a tracker with the given half-life.
+     * @param halfLifeDays days after which a borrow counts half
+     */
+    public PopularityTracker(double halfLifeDays) {
+        this.halfLifeMs = Math.max(halfLifeDays, 1e-6) * 24 * 60 * 60 * 1000;
+        this.origin = System.currentTimeMillis();
+    }
+
+    /**
+     * Counts a borrow happening now.
+     * @param serialNb serial number of the item
+     * @param genre genre of the item
+     */
+    public void recordBorrow(long serialNb, String genre) {
+        recordBorrow(serialNb, genre, System.currentTimeMillis());
+    }
+
+    /**
+     * Counts a borrow at the given time, for example when replaying history.
+     *
+     * @param serialNb serial number of the item
+     * @param genre genre of the item
+     * @param time time of the borrow, in milliseconds
+     */
+    public synchronized void recordBorrow(long serialNb, String genre, long time) {
+        if ((time - origin) / halfLifeMs > MAX_EXPONENT) {
+            rescale(time);
+        }
+        double weight = Math.pow(2, (time - origin) / halfLifeMs);
+        scores.add(serialNb, weight);
+
+        double estimate = Double.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int column = column(serialNb, row);
+            sketch[row][column] += weight;
+            estimate = Math.min(estimate, sketch[row][column]);
+        }
+        offer(ALL, serialNb, estimate);
+        if (genre != null) {
+            offer(genre.toLowerCase(), serialNb, estimate);
+        }
+    }
+
+    /**
+     * Returns an item's decayed borrow count as of now.
+     * @param serialNb serial number of the item
+     * @return borrows, each weighted by its age
+     */
+    public synchronized double getScore(long serialNb) {
+        return scores.get(serialNb) / Math.pow(2, (System.currentTimeMillis() - origin) / halfLifeMs);
+    }
+
+    /**
+     * Returns the hottest items of a genre, hottest first.
+     *
+     * @param genre genre to look at, or null for every genre
+     * @param n maximum number of items (at most {@link #TOP_K})
+     * @return serial numbers
+     */
+    public synchronized long[] top(String genre, int n) {
+        PriorityQueue<Candidate> heap = heaps.get(genre == null ? ALL : genre.toLowerCase());
+        if (heap == null) {
+            return new long[0];
+        }
+        ArrayList<Candidate> sorted = new ArrayList<>(heap);
+        sorted.sort((a, b) -> Double.compare(b.estimate, a.estimate));
+        long[] serials = new long[Math.min(Math.max(0, n), sorted.size())];
+        for (int i = 0; i < serials.length; i++) {
+            serials[i] = sorted.get(i).serialNb;
+        }
+        return serials;
+    }
+
+    /**
+     * Offers an item's new estimate to a heap, replacing its old entry or
+     * the least hot one when the heap is full.
+     */
+    private void offer(String key, long serialNb, double estimate) {
+        PriorityQueue<Candidate> heap = heaps.computeIfAbsent(key,
+                k -> new PriorityQueue<>(TOP_K, (a, b) -> Double.compare(a.estimate, b.estimate)));
+        heap.removeIf(candidate -> candidate.serialNb == serialNb);
+        if (heap.size() < TOP_K) {
+            heap.add(new Candidate(serialNb, estimate));
+        } else if (heap.peek().estimate < estimate) {
+            heap.poll();
+            heap.add(new Candidate(serialNb, estimate));
+        }
+    }
+
+    /**
+     * Moves the origin to the given time so the weights stay in double range.
+     * Every stored value is divided by the same factor, so rankings are kept.
+     */
+    private void rescale(long newOrigin) {
+        double factor = Math.pow(2, (newOrigin - origin) / halfLifeMs);
+        origin = newOrigin;
+        scores.divideAll(factor);
+        for (double[] row : sketch) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] /= factor;
+            }
+        }
+        for (PriorityQueue<Candidate> heap : heaps.values()) {
+            ArrayList<Candidate> rescaled = new ArrayList<>();
+            for (Candidate candidate : heap) {
+                rescaled.add(new Candidate(candidate.serialNb, candidate.estimate / factor));
+            }
+            heap.clear();
+            heap.addAll(rescaled);
+        }
+    }
+
+    private static int column(long serialNb, int row) {
+        long hash = (serialNb + row) * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        return (int) (hash >>> 32) & (WIDTH - 1);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Popularity: " + scores.size() + " item(s) borrowed, half-life "
+                + Math.round(halfLifeMs / (24 * 60 * 60 * 1000)) + " day(s), "
+                + Math.max(0, heaps.size() - 1) + " genre(s) tracked";
+    }
+
+    /**
+     * An item in a top-k heap with its estimated score.
+     */
+    private static final class Candidate {
+        private final long serialNb;
+        private final double estimate;
+
+        Candidate(long serialNb, double estimate) {
+            this.serialNb = serialNb;
+            this.estimate = estimate;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.List;
+
+/**
+ * One immutable version of the library's prices and late fines.
+ *
+ * Prices are precomputed for every item type and member type when the
+ * table is built, so the price of a loan is two array reads. A table never
+ * changes once built: {@link PricingEngine} publishes a new version instead,
+ * and a borrow that read one table uses it for both its balance check and its
+ * charge even if the prices change meanwhile.
+ *
+ * @author jeffreyhaddad
+ */
+public final class PriceTable {
+
+    /** Item type of plain library items */
+    public static final int ITEM = 0;
+    /** Item type of books */
+    public static final int BOOK = 1;
+    /** Item type of DVDs */
+    public static final int DVD = 2;
+    /** Member type of civilians */
+    public static final int CIVILIAN = 0;
+    /** Member type of students */
+    public static final int STUDENT = 1;
+
+    private static final int ITEM_TYPES = 3;
+    private static final int MEMBER_TYPES = 2;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private final long version;
+    private final double baseCost;
+    /** Cost added to the base cost, by item type */
+    private final double[] surcharges;
+    /** Fraction of the price each member type pays */
+    private final double[] memberRates;
+    /** Price of a loan, by item type and member type */
+    private final double[][] prices;
+    /** Fine per day late, by item type */
+    private final double[] finesPerDay;
+    /** Days after the due date before fines start */
+    private final int graceDays;
+
+    private PriceTable(Builder builder, long version) {
+        this.version = version;
+        this.baseCost = builder.baseCost;
+        this.surcharges = builder.surcharges.clone();
+        this.memberRates = builder.memberRates.clone();
+        this.finesPerDay = builder.finesPerDay.clone();
+        this.graceDays = builder.graceDays;
+        this.prices = new double[ITEM_TYPES][MEMBER_TYPES];
+        for (int type = 0; type < ITEM_TYPES; type++) {
+            for (int member = 0; member < MEMBER_TYPES; member++) {
+                prices[type][member] = (baseCost + surcharges[type]) * memberRates[member];
+            }
+        }
+    }
+
+    /**
+     * Returns the default prices: $10 per item plus $8 for a book or $5 for
+     * a DVD, free loans for students, and fines after two days of grace.
+     * @return version 1 of the prices
+     */
+    public static PriceTable defaults() {
+        return new Builder().build(1);
+    }
+
+    /**
+     * Returns the item type code of an item.
+     * @param item item to classify
+     * @return {@link #BOOK}, {@link #DVD} or {@link #ITEM}
+     */
+    public static int typeOf(LibraryItem item) {
+        return item instanceof Book ? BOOK : item instanceof DVD ? DVD : ITEM;
+    }
+
+    /**
+     * Returns the member type code of a member.
+     * @param member member to classify
+     * @return {@link #STUDENT} or {@link #CIVILIAN}
+     */
+    public static int typeOf(Person member) {
+        return member instanceof Student ? STUDENT : CIVILIAN;
+    }
+
+    /**
+     * Returns the list price of an item, as a civilian pays it.
+     * @param item item to price
+     * @return price
+     */
+    public double priceOf(LibraryItem item) {
+        return prices[typeOf(item)][CIVILIAN];
+    }
+
+    /**
+     * Returns what a member pays to borrow an item.
+     * @param item item to borrow
+     * @param member borrower
+     * @return price
+     */
+    public double priceFor(LibraryItem item, Person member) {
+        return prices[typeOf(item)][typeOf(member)];
+    }
+
+    /**
+     * Returns the list prices of several items from this one version.
+     * @param items items to price
+     * @return price of each item, in list order
+     */
+    public double[] pricesOf(List<LibraryItem> items) {
+        double[] result = new double[items.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = priceOf(items.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the fine owed for an item on loan if it were returned at the
+     * given time. The due date is the item's availability date; whole days
+     * past it, less the grace days, are charged.
+     *
+     * @param item item on loan
+     * @param returnTime time of the return, in milliseconds
+     * @return fine, 0 if the item is not late or not on loan
+     */
+    public double fine(LibraryItem item, long returnTime) {
+        return finesPerDay[typeOf(item)] * chargeableDays(item, returnTime);
+    }
+
+    /**
+     * Returns the whole days late beyond the grace period.
+     * @param item item on loan
+     * @param returnTime time of the return, in milliseconds
+     * @return days charged
+     */
+    public long chargeableDays(LibraryItem item, long returnTime) {
+        if (item.getStatus() != 'o' || item.getDateAvailable() == null) {
+            return 0;
+        }
+        long daysLate = (returnTime - item.getDateAvailable().getTime()) / DAY_MS;
+        return Math.max(0, daysLate - graceDays);
+    }
+
+    /**
+     * Returns the cost added to the base cost for an item type.
+     * @param itemType item type code
+     * @return surcharge
+     */
+    public double getSurcharge(int itemType) {
+        return surcharges[itemType];
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a builder holding this table's settings, to derive the next version.
+     * @return a builder
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.baseCost = baseCost;
+        builder.surcharges = surcharges.clone();
+        builder.memberRates = memberRates.clone();
+        builder.finesPerDay = finesPerDay.clone();
+        builder.graceDays = graceDays;
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Prices v%d: item $%.2f, book $%.2f, DVD $%.2f (students pay %.0f%%), "
+                        + "fines $%.2f/$%.2f/$%.2f a day after %d day(s)", version, prices[ITEM][CIVILIAN],
+                prices[BOOK][CIVILIAN], prices[DVD][CIVILIAN], memberRates[STUDENT] * 100,
+                finesPerDay[ITEM], finesPerDay[BOOK], finesPerDay[DVD], graceDays);
+    }
+
+    /**
+     * Settings for a new price table.
+     */
+    public static final class Builder {
+        private double baseCost = 10;
+        private double[] surcharges = {0, 8, 5};
+        private double[] memberRates = {1, 0};
+        private double[] finesPerDay = {0.25, 0.25, 1};
+        private int graceDays = 2;
+
+        public Builder setBaseCost(double baseCost) {
+            this.baseCost = baseCost;
+            return this;
+        }
+
+        public Builder setSurcharge(int itemType, double surcharge) {
+            surcharges[itemType] = surcharge;
+            return this;
+        }
+
+        /**
+         * Sets the fraction of the price a member type pays.
+         * @param memberType member type code
+         * @param rate 1 for the full price, 0 for free
+         * @return this builder
+         */
+        public Builder setMemberRate(int memberType, double rate) {
+            memberRates[memberType] = rate;
+            return this;
+        }
+
+        public Builder setFinePerDay(int itemType, double fine) {
+            finesPerDay[itemType] = fine;
+            return this;
+        }
+
+        public Builder setGraceDays(int graceDays) {
+            this.graceDays = Math.max(0, graceDays);
+            return this;
+        }
+
+        PriceTable build(long version) {
+            return new PriceTable(this, version);
+        }
+    }
+}
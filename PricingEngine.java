@@ -0,0 +1,129 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds the current {@link PriceTable} and publishes new versions.
+ *
+ * Readers take the current table with one volatile read and keep using that
+ * snapshot. A change builds a complete new table from the current one and
+ * swaps it in with compare-and-set, retrying if another change won the race,
+ * so no reader ever sees a half-applied price change.
+ *
+ * @author jeffreyhaddad
+ */
+public final class PricingEngine {
+
+    private static final AtomicReference<PriceTable> current = new AtomicReference<>(PriceTable.defaults());
+    /** Called with every newly published table */
+    private static final CopyOnWriteArrayList<Consumer<PriceTable>> listeners = new CopyOnWriteArrayList<>();
+
+    private PricingEngine() {
+    }
+
+    /**
+     * Returns the prices in effect.
+     * @return current price table
+     */
+    public static PriceTable current() {
+        return current.get();
+    }
+
+    /**
+     * Publishes a new version of the prices.
+     *
+     * @param change edits the settings of the current table (may be called
+     *               more than once if another change is published meanwhile)
+     * @return the published table
+     */
+    public static PriceTable update(UnaryOperator<PriceTable.Builder> change) {
+        return swap(change)[1];
+    }
+
+    /**
+     * Publishes new prices and returns every item's price under the version
+     * replaced and the version published.
+     *
+     * @param items items to re-price
+     * @param change edits the settings of the current table
+     * @return old and new prices of the items
+     */
+    public static Repricing reprice(List<LibraryItem> items, UnaryOperator<PriceTable.Builder> change) {
+        PriceTable[] tables = swap(change);
+        return new Repricing(items, tables[0], tables[1]);
+    }
+
+    /**
+     * Replaces the current table with one derived from it, then tells the
+     * listeners.
+     *
+     * @return the replaced and the published table
+     */
+    private static PriceTable[] swap(UnaryOperator<PriceTable.Builder> change) {
+        PriceTable before;
+        PriceTable after;
+        do {
+            before = current.get();
+            after = change.apply(before.toBuilder()).build(before.getVersion() + 1);
+        } while (!current.compareAndSet(before, after));
+        for (Consumer<PriceTable> listener : listeners) {
+            listener.accept(after);
+        }
+        return new PriceTable[] {before, after};
+    }
+
+    /**
+     * Registers a listener called after each new table is published.
+     * @param listener listener to add
+     */
+    public static void addListener(Consumer<PriceTable> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * The prices of a list of items under two table versions.
+     */
+    public static final class Repricing {
+        private final double[] oldPrices;
+        private final double[] newPrices;
+        private final PriceTable table;
+
+        Repricing(List<LibraryItem> items, PriceTable before, PriceTable after) {
+            this.newPrices = after.pricesOf(items);
+            this.oldPrices = before.pricesOf(items);
+            this.table = after;
+        }
+
+        /**
+         * Returns the price of each item before the change.
+         * @return old prices in list order
+         */
+        public double[] getOldPrices() {
+            return oldPrices;
+        }
+
+        public double[] getNewPrices() {
+            return newPrices;
+        }
+
+        public PriceTable getTable() {
+            return table;
+        }
+
+        /**
+         * Returns the number of items whose price changed.
+         * @return changed item count
+         */
+        public int getChangedCount() {
+            int changed = 0;
+            for (int i = 0; i < newPrices.length; i++) {
+                if (oldPrices[i] != newPrices[i]) {
+                    changed++;
+                }
+            }
+            return changed;
+        }
+    }
+}
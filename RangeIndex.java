@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Ordered indexes over the numeric attributes of items: page count, DVD
+ * size, price and availability date.
+ *
+ * Each attribute keeps a sorted set of (value, item) entries, so a range
+ * query is one O(log n) descent followed by the k entries it returns, and
+ * the largest or smallest values are read from either end. Paging is done
+ * with the last item of the previous page as a cursor rather than an
+ * offset, so every page costs the same.
+ *
+ * Entries follow the items through {@link ItemChangeListener}, and prices
+ * are re-read when a new price table is published.
+ *
+ * @author jeffreyhaddad
+ */
+public class RangeIndex implements ItemChangeListener {
+
+    /** Numeric attributes items can be ranged over */
+    public enum Attribute {
+        /** Number of pages of a book */
+        PAGES,
+        /** Size of a DVD in MB */
+        SIZE,
+        /** Price of the item */
+        PRICE,
+        /** Date the item becomes available, in milliseconds */
+        AVAILABLE
+    }
+
+    /** Entries of each attribute in value order */
+    private final EnumMap<Attribute, TreeSet<Entry>> sorted = new EnumMap<>(Attribute.class);
+    /** Current entries of each indexed item, by attribute ordinal (null if the item has no such value) */
+    private final IdentityHashMap<LibraryItem, Entry[]> entriesOf = new IdentityHashMap<>();
+    /** Tie-breaker giving every indexed item a stable position among equal values */
+    private long nextSequence;
+
+    /**
+     * Creates an empty index.
+     */
+    public RangeIndex() {
+        for (Attribute attribute : Attribute.values()) {
+            sorted.put(attribute, new TreeSet<>());
+        }
+    }
+
+    /**
+     * Indexes an item.
+     * @param item item to add
+     */
+    public synchronized void add(LibraryItem item) {
+        if (entriesOf.containsKey(item)) {
+            return;
+        }
+        long sequence = nextSequence++;
+        Entry[] entries = new Entry[Attribute.values().length];
+        for (Attribute attribute : Attribute.values()) {
+            Double value = valueOf(item, attribute);
+            if (value != null) {
+                entries[attribute.ordinal()] = new Entry(value, sequence, item);
+                sorted.get(attribute).add(entries[attribute.ordinal()]);
+            }
+        }
+        entriesOf.put(item, entries);
+    }
+
+    /**
+     * Indexes every item of a list.
+     * @param items items to add
+     */
+    public synchronized void addAll(List<LibraryItem> items) {
+        for (LibraryItem item : items) {
+            add(item);
+        }
+    }
+
+    /**
+     * Removes an item from the index.
+     * @param item item to remove
+     */
+    public synchronized void remove(LibraryItem item) {
+        Entry[] entries = entriesOf.remove(item);
+        if (entries == null) {
+            return;
+        }
+        for (Attribute attribute : Attribute.values()) {
+            if (entries[attribute.ordinal()] != null) {
+                sorted.get(attribute).remove(entries[attribute.ordinal()]);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void itemChanged(LibraryItem item, String field, Object oldValue, Object newValue) {
+        switch (field) {
+            case "pages":
+                update(item, Attribute.PAGES);
+                break;
+            case "size":
+                update(item, Attribute.SIZE);
+                break;
+            case "dateAvailable":
+                update(item, Attribute.AVAILABLE);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Re-reads the price of every indexed item, after the prices changed.
+     */
+    public synchronized void refreshPrices() {
+        for (LibraryItem item : entriesOf.keySet()) {
+            update(item, Attribute.PRICE);
+        }
+    }
+
+    /**
+     * Returns the items whose value lies in {@code [from, to)}, in increasing
+     * order.
+     *
+     * @param attribute attribute to range over
+     * @param from lowest value (inclusive)
+     * @param to highest value (exclusive)
+     * @param after last item of the previous page, or null for the first page
+     * @param limit maximum number of items
+     * @return matching items, lowest value first
+     */
+    public synchronized ArrayList<LibraryItem> range(Attribute attribute, double from, double to,
+                                                     LibraryItem after, int limit) {
+        ArrayList<LibraryItem> items = new ArrayList<>();
+        if (!(from < to)) {
+            return items;
+        }
+        NavigableSet<Entry> inRange = sorted.get(attribute)
+                .subSet(new Entry(from, Long.MIN_VALUE, null), true, new Entry(to, Long.MIN_VALUE, null), false);
+        Entry cursor = after == null ? null : entryOf(after, attribute);
+        if (cursor != null) {
+            inRange = inRange.tailSet(cursor, false);
+        }
+        for (Entry entry : inRange) {
+            if (items.size() >= limit) {
+                break;
+            }
+            items.add(entry.item);
+        }
+        return items;
+    }
+
+    /**
+     * Returns the items with the highest (or lowest) values.
+     *
+     * @param attribute attribute to rank by
+     * @param n maximum number of items
+     * @param highest true for the highest values first, false for the lowest
+     * @return ranked items
+     */
+    public synchronized ArrayList<LibraryItem> top(Attribute attribute, int n, boolean highest) {
+        ArrayList<LibraryItem> items = new ArrayList<>();
+        NavigableSet<Entry> entries = highest ? sorted.get(attribute).descendingSet() : sorted.get(attribute);
+        for (Entry entry : entries) {
+            if (items.size() >= n) {
+                break;
+            }
+            items.add(entry.item);
+        }
+        return items;
+    }
+
+    /**
+     * Returns the number of items having a value for an attribute.
+     * @param attribute attribute to count
+     * @return indexed item count
+     */
+    public synchronized int size(Attribute attribute) {
+        return sorted.get(attribute).size();
+    }
+
+    private Entry entryOf(LibraryItem item, Attribute attribute) {
+        Entry[] entries = entriesOf.get(item);
+        return entries == null ? null : entries[attribute.ordinal()];
+    }
+
+    /**
+     * Moves an item's entry to its current value.
+     */
+    private void update(LibraryItem item, Attribute attribute) {
+        Entry[] entries = entriesOf.get(item);
+        if (entries == null) {
+            return;
+        }
+        Entry old = entries[attribute.ordinal()];
+        Double value = valueOf(item, attribute);
+        if (old != null && value != null && old.value == value) {
+            return;
+        }
+        if (old != null) {
+            sorted.get(attribute).remove(old);
+        }
+        entries[attribute.ordinal()] = null;
+        if (value != null) {
+            long sequence = old != null ? old.sequence : anySequence(entries);
+            entries[attribute.ordinal()] = new Entry(value, sequence, item);
+            sorted.get(attribute).add(entries[attribute.ordinal()]);
+        }
+    }
+
+    /**
+     * Returns the item's sequence number from any of its entries.
+     */
+    private long anySequence(Entry[] entries) {
+        for (Entry entry : entries) {
+            if (entry != null) {
+                return entry.sequence;
+            }
+        }
+        return nextSequence++;
+    }
+
+    /**
+     * Returns an item's value for an attribute, or null if it has none.
+     */
+    private static Double valueOf(LibraryItem item, Attribute attribute) {
+        switch (attribute) {
+            case PAGES:
+                return item instanceof Book ? (double) ((Book) item).getNbOfPages() : null;
+            case SIZE:
+                return item instanceof DVD ? ((DVD) item).getSizeInMB() : null;
+            case PRICE:
+                return item.getPrice();
+            default:
+                return item.getDateAvailable() == null ? null : (double) item.getDateAvailable().getTime();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Range index: " + size(Attribute.PAGES) + " page count(s), " + size(Attribute.SIZE)
+                + " DVD size(s), " + size(Attribute.PRICE) + " price(s), " + size(Attribute.AVAILABLE) + " date(s)";
+    }
+
+    /**
+     * An item's value for one attribute. Equal values are ordered by the
+     * item's sequence number so every entry has a distinct position.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final double value;
+        private final long sequence;
+        private final LibraryItem item;
+
+        Entry(double value, long sequence, LibraryItem item) {
+            this.value = value;
+            this.sequence = sequence;
+            this.item = item;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byValue = Double.compare(value, other.value);
+            return byValue != 0 ? byValue : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Reverse references between items and members: the member each item is on
+ * loan to, and the items whose history names each member.
+ *
+ * The forward references live in the objects themselves (a member's
+ * borrowed items, an item's past owners), so without this index deleting
+ * either side means scanning the whole other collection to find what points
+ * at it. With it, a delete touches only the references it affects. The
+ * index follows loans and histories through {@link MemberChangeListener}
+ * ("borrowed") and {@link ItemChangeListener} ("pastOwners").
+ *
+ * Histories that are still in their serialized form (see
+ * {@link LibraryItem#setPendingOwners}) are indexed when they are resolved;
+ * until then they hold member IDs rather than references, and IDs of
+ * deleted members are dropped on resolution.
+ *
+ * @author jeffreyhaddad
+ */
+public class ReferenceIndex implements ItemChangeListener, MemberChangeListener {
+
+    /** Member each item is on loan to */
+    private final IdentityHashMap<LibraryItem, Person> borrowerOf = new IdentityHashMap<>();
+    /** Items naming each member as a past owner, with the number of times they do */
+    private final IdentityHashMap<Person, IdentityHashMap<LibraryItem, Integer>> historyOf = new IdentityHashMap<>();
+
+    /**
+     * Indexes the loans of every member and the resolved histories of every item.
+     * @param members all members
+     * @param items all items
+     */
+    public void addAll(List<Person> members, List<LibraryItem> items) {
+        synchronized (this) {
+            for (Person member : members) {
+                for (LibraryItem item : member.getBorrowedItem()) {
+                    borrowerOf.put(item, member);
+                }
+            }
+        }
+        for (LibraryItem item : items) {
+            if (!item.hasPendingOwners()) {
+                // Items lock before the index, as when a history is resolved
+                List<Person> owners = item.getPastOwners();
+                synchronized (this) {
+                    for (Person owner : owners) {
+                        count(owner, item, 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes an item from the index.
+     * @param item deleted item
+     */
+    public void remove(LibraryItem item) {
+        // Read the history before locking, resolving it may call back into the index
+        List<Person> owners = item.hasPendingOwners() ? new ArrayList<>() : item.getPastOwners();
+        synchronized (this) {
+            borrowerOf.remove(item);
+            for (Person owner : owners) {
+                IdentityHashMap<LibraryItem, Integer> history = historyOf.get(owner);
+                if (history != null && history.remove(item) != null && history.isEmpty()) {
+                    historyOf.remove(owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a member from the index.
+     * @param member deleted member
+     */
+    public synchronized void remove(Person member) {
+        historyOf.remove(member);
+        for (LibraryItem item : member.getBorrowedItem()) {
+            borrowerOf.remove(item, member);
+        }
+    }
+
+    @Override
+    public synchronized void memberChanged(Person member, String field, Object oldValue, Object newValue) {
+        if (!field.equals("borrowed")) {
+            return;
+        }
+        if (oldValue != null) {
+            borrowerOf.remove(oldValue, member);
+        }
+        if (newValue != null) {
+            borrowerOf.put((LibraryItem) newValue, member);
+        }
+    }
+
+    @Override
+    public synchronized void itemChanged(LibraryItem item, String field, Object oldValue, Object newValue) {
+        if (!field.equals("pastOwners")) {
+            return;
+        }
+        if (oldValue != null) {
+            count((Person) oldValue, item, -1);
+        }
+        if (newValue != null) {
+            count((Person) newValue, item, 1);
+        }
+    }
+
+    /**
+     * Returns the member an item is on loan to.
+     * @param item item to look up
+     * @return current borrower, or null if the item is not on loan
+     */
+    public synchronized Person getBorrower(LibraryItem item) {
+        return borrowerOf.get(item);
+    }
+
+    /**
+     * Returns the items whose history names a member.
+     * @param member member to look up
+     * @return items the member borrowed before (empty if none)
+     */
+    public synchronized List<LibraryItem> getHistory(Person member) {
+        IdentityHashMap<LibraryItem, Integer> history = historyOf.get(member);
+        return history == null ? new ArrayList<>() : new ArrayList<>(history.keySet());
+    }
+
+    private void count(Person owner, LibraryItem item, int delta) {
+        IdentityHashMap<LibraryItem, Integer> history = historyOf.computeIfAbsent(owner, k -> new IdentityHashMap<>());
+        int times = history.getOrDefault(item, 0) + delta;
+        if (times > 0) {
+            history.put(item, times);
+        } else {
+            history.remove(item);
+            if (history.isEmpty()) {
+                historyOf.remove(owner);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Reference index: " + borrowerOf.size() + " item(s) on loan, " + historyOf.size()
+                + " member(s) with a loan history";
+    }
+}
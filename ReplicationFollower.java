@@ -0,0 +1,548 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The standby side of replication: tails the primary's
+ * {@link ReplicationJournal} and applies each record to this process's own
+ * items and members, so that it can take over without loading the files
+ * again.
+ *
+ * The standby loads the data files once, starting from the journal offset
+ * named by the last checkpoint before the load, and then polls the journal
+ * for new records. Puts are applied in place, so the objects already
+ * referenced by loans and histories stay the same. A journal whose opening
+ * checkpoint names a different epoch was started again by a restarted
+ * primary and is read from the beginning, however long it already is.
+ *
+ * Items sharing a serial number and members sharing an ID are kept in list
+ * order under it. A put of a changed record names the line it replaces and
+ * a delete names the whole record, so among such duplicates the one with
+ * that line is taken, then the one with the same details; only a lone
+ * record is taken whatever its details. Circulation events go to the first
+ * of them, as on the primary.
+ *
+ * @author jeffreyhaddad
+ */
+public class ReplicationFollower {
+
+    /** Persistence hooks for records the standby adds or deletes */
+    public interface Registry {
+        void itemAdded(LibraryItem item);
+
+        void itemRemoved(LibraryItem item);
+
+        void memberAdded(Person member);
+
+        void memberRemoved(Person member);
+    }
+
+    private final File file;
+    private final ArrayList<Person> members;
+    private final ArrayList<LibraryItem> items;
+    private final Registry registry;
+    /** Items of each serial number, in list order; the first is the one {@link Main#searchItemBySerialNb} finds */
+    private final LongObjectMap<ArrayList<LibraryItem>> bySerial;
+    /** Members of each ID, in list order */
+    private final HashMap<String, ArrayList<Person>> byId = new HashMap<>();
+    private final StringPool pool = new StringPool();
+    /** Offset of the next record to read */
+    private long offset;
+    /** Epoch of the journal being read, or null if there was none yet */
+    private String epoch;
+    /** Journal length seen by the last poll */
+    private long journalLength;
+    private int applied;
+    /** Local time the last record was read, heartbeats included */
+    private long lastHeard = System.currentTimeMillis();
+    /**
+     * Delay between the primary writing the last record and it being
+     * applied, or since its oldest change not shipped yet
+     */
+    private long lagMs;
+    private long maxLagMs;
+
+    /**
+     * Creates a follower over items and members just loaded from the files.
+     *
+     * @param file journal file written by the primary
+     * @param start checkpoint to start from, from {@link #lastCheckpoint(File)}
+     *              taken before the files were loaded
+     * @param members loaded members, updated in place
+     * @param items loaded items, updated in place
+     * @param registry hooks told about added and deleted records
+     */
+    public ReplicationFollower(File file, Checkpoint start, ArrayList<Person> members, ArrayList<LibraryItem> items,
+                               Registry registry) {
+        this.file = file;
+        this.offset = start.offset;
+        this.epoch = start.epoch;
+        this.members = members;
+        this.items = items;
+        this.registry = registry;
+        bySerial = new LongObjectMap<>(items.size());
+        for (LibraryItem item : items) {
+            sameSerial(item.getSerialNumber()).add(item);
+        }
+        for (Person member : members) {
+            byId.computeIfAbsent(Main.memberId(member), k -> new ArrayList<>(1)).add(member);
+        }
+    }
+
+    /**
+     * Returns the journal's epoch and the offset named by its last
+     * checkpoint. Every change before that offset is in the data files, so
+     * it must be read before they are.
+     *
+     * @param file journal file
+     * @return checkpoint to replay from, at offset 0 if there is no journal yet
+     * @throws IOException if the journal cannot be read
+     */
+    public static Checkpoint lastCheckpoint(File file) throws IOException {
+        Checkpoint checkpoint = new Checkpoint(0, null);
+        if (!file.exists()) {
+            return checkpoint;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("#", 3);
+                if (parts.length == 3 && parts[1].equals(String.valueOf(ReplicationJournal.CHECKPOINT))) {
+                    String[] fields = parts[2].split(" ");
+                    try {
+                        checkpoint = new Checkpoint(Long.parseLong(fields[0]),
+                                fields.length > 1 ? fields[1] : checkpoint.epoch);
+                    } catch (NumberFormatException e) {
+                        // A checkpoint cut short by a crash; the previous one still holds
+                    }
+                }
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Returns the epoch named by the journal's opening checkpoint.
+     * @return the epoch, or null if the opening checkpoint is not fully written
+     */
+    private String readEpoch() throws IOException {
+        byte[] head = new byte[128];
+        int read;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            read = in.read(head);
+        }
+        for (int i = 0; i < read; i++) {
+            if (head[i] == '\n') {
+                String[] parts = new String(head, 0, i, StandardCharsets.UTF_8).split("#", 3);
+                String[] fields = parts.length == 3 ? parts[2].split(" ") : new String[0];
+                return fields.length > 1 ? fields[1] : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the records written since the last poll and applies them. A
+     * line not yet fully written is left for the next poll.
+     *
+     * @return number of records read, heartbeats included
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized int poll() throws IOException {
+        long length = file.length();
+        String current = length == 0 ? null : readEpoch();
+        if (current == null) {
+            // Missing, or being started again: wait for its opening checkpoint
+            journalLength = length;
+            return 0;
+        }
+        if (!current.equals(epoch)) {
+            epoch = current;
+            offset = 0;
+        } else if (length < offset) {
+            offset = 0;
+        }
+        journalLength = length;
+        if (length == offset) {
+            return 0;
+        }
+        byte[] chunk = new byte[(int) Math.min(length - offset, Integer.MAX_VALUE - 8)];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(offset);
+            in.readFully(chunk);
+        }
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i < chunk.length; i++) {
+            if (chunk[i] == '\n') {
+                apply(new String(chunk, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+                count++;
+            }
+        }
+        offset += start;
+        return count;
+    }
+
+    private void apply(String line) {
+        String[] parts = line.split("#", 3);
+        try {
+            long time = Long.parseLong(parts[0]);
+            String payload = parts[2];
+            switch (parts[1].charAt(0)) {
+                case ReplicationJournal.ITEM_PUT:
+                    putItem(ReplicationJournal.replacedLine(payload), ReplicationJournal.putLine(payload));
+                    break;
+                case ReplicationJournal.ITEM_DELETE:
+                    deleteItem(matchItem(payload, true));
+                    break;
+                case ReplicationJournal.MEMBER_PUT:
+                    putMember(ReplicationJournal.replacedLine(payload), ReplicationJournal.putLine(payload));
+                    break;
+                case ReplicationJournal.MEMBER_DELETE:
+                    deleteMember(matchMember(payload, true));
+                    break;
+                case ReplicationJournal.EVENT:
+                    applyEvent(CirculationLog.Event.parse(payload));
+                    break;
+                default:
+                    // Heartbeats and checkpoints only show the primary is alive
+                    break;
+            }
+            long now = System.currentTimeMillis();
+            lastHeard = now;
+            if (parts[1].charAt(0) == ReplicationJournal.HEARTBEAT && !payload.isEmpty()) {
+                // Changes the primary has not shipped yet are behind too
+                time = Math.min(time, Long.parseLong(payload));
+            }
+            lagMs = Math.max(0, now - time);
+            maxLagMs = Math.max(maxLagMs, lagMs);
+            if (parts[1].charAt(0) != ReplicationJournal.HEARTBEAT) {
+                applied++;
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Warning: skipping replication record: " + line);
+        }
+    }
+
+    /**
+     * Adds an item or brings an existing one up to date with its line.
+     *
+     * @param replaced line the item had before the change, or null for an added item
+     * @param line the item's new line
+     */
+    private void putItem(String replaced, String line) {
+        ArrayList<LibraryItem> parsed = new ArrayList<>(1);
+        ArrayList<String> owners = new ArrayList<>(1);
+        Main.parseItemLine(line, parsed, owners, pool);
+        if (parsed.isEmpty()) {
+            return;
+        }
+        LibraryItem update = parsed.get(0);
+        // A put replayed from before the files were loaded finds the item by its new line
+        LibraryItem item = replaced != null ? matchItem(replaced, true) : null;
+        if (item == null) {
+            item = matchItem(line, false);
+        }
+        if (item != null && item.getClass() != update.getClass()) {
+            deleteItem(item);
+            item = null;
+        }
+        if (item == null) {
+            item = update;
+            items.add(item);
+            sameSerial(item.getSerialNumber()).add(item);
+            registry.itemAdded(item);
+        } else if (Main.itemLine(item).equals(line)) {
+            return;
+        } else {
+            item.setTitle(update.getTitle());
+            item.setAuthor(update.getAuthor());
+            item.setPublisher(update.getPublisher());
+            item.setStatus(update.getStatus());
+            item.setGenre(update.getGenre());
+            item.setDateAvailable(update.getDateAvailable());
+            if (item instanceof Book) {
+                ((Book) item).setNbOfPages(((Book) update).getNbOfPages());
+            } else if (item instanceof DVD) {
+                ((DVD) item).setSizeInMB(((DVD) update).getSizeInMB());
+            }
+            item.setPastOwners(new ArrayList<>());
+        }
+        String ownerIds = owners.get(0);
+        if (ownerIds != null && !ownerIds.isEmpty()) {
+            item.setPendingOwners(ownerIds, id -> Main.searchMemberById(id, members));
+        }
+    }
+
+    private void deleteItem(LibraryItem item) {
+        if (item == null) {
+            return;
+        }
+        ArrayList<LibraryItem> sameSerial = bySerial.get(item.getSerialNumber());
+        if (sameSerial != null && sameSerial.remove(item) && sameSerial.isEmpty()) {
+            bySerial.remove(item.getSerialNumber());
+        }
+        items.remove(item);
+        for (Person member : members) {
+            member.removeBorrowedItem(item);
+        }
+        registry.itemRemoved(item);
+    }
+
+    /**
+     * Adds a member or brings an existing one up to date with its line,
+     * including the items on loan.
+     *
+     * @param replaced line the member had before the change, or null for an added member
+     * @param line the member's new line
+     */
+    private void putMember(String replaced, String line) {
+        ArrayList<Person> parsed = new ArrayList<>(1);
+        ArrayList<String> borrowed = new ArrayList<>(1);
+        Main.parseMemberLine(line, parsed, borrowed, pool);
+        if (parsed.isEmpty()) {
+            return;
+        }
+        Person update = parsed.get(0);
+        String id = Main.memberId(update);
+        Person member = replaced != null ? matchMember(replaced, true) : null;
+        if (member == null) {
+            member = matchMember(line, false);
+        }
+        if (member != null && member.getClass() != update.getClass()) {
+            deleteMember(member);
+            member = null;
+        }
+        if (member == null) {
+            member = update;
+            members.add(member);
+            byId.computeIfAbsent(id, k -> new ArrayList<>(1)).add(member);
+            registry.memberAdded(member);
+        } else if (Main.memberLine(member).equals(line)) {
+            return;
+        } else {
+            member.setName(update.getName());
+            member.setAddress(update.getAddress());
+            member.setGender(update.getGender());
+            member.setAge(update.getAge());
+            member.setPhoneNumber(update.getPhoneNumber());
+            if (member instanceof Civilian) {
+                ((Civilian) member).copyBalance(((Civilian) update).getCurrentBal());
+            }
+        }
+
+        ArrayList<LibraryItem> loans = new ArrayList<>();
+        String serials = borrowed.get(0);
+        if (serials != null) {
+            for (String serial : serials.split("##")) {
+                LibraryItem item = serial.isEmpty() ? null : firstItem(Long.parseLong(serial));
+                if (item != null) {
+                    loans.add(item);
+                }
+            }
+        }
+        for (LibraryItem item : new ArrayList<>(member.getBorrowedItem())) {
+            if (!loans.contains(item)) {
+                member.removeBorrowedItem(item);
+            }
+        }
+        for (LibraryItem item : loans) {
+            if (!member.getBorrowedItem().contains(item)) {
+                member.addBorrowedItem(item);
+            }
+        }
+    }
+
+    private void deleteMember(Person member) {
+        if (member == null) {
+            return;
+        }
+        String id = Main.memberId(member);
+        ArrayList<Person> sameId = byId.get(id);
+        if (sameId != null && sameId.remove(member) && sameId.isEmpty()) {
+            byId.remove(id);
+        }
+        members.remove(member);
+        registry.memberRemoved(member);
+    }
+
+    private Person firstMember(String id) {
+        ArrayList<Person> sameId = byId.get(id);
+        return sameId == null ? null : sameId.get(0);
+    }
+
+    private LibraryItem firstItem(long serialNb) {
+        ArrayList<LibraryItem> sameSerial = bySerial.get(serialNb);
+        return sameSerial == null ? null : sameSerial.get(0);
+    }
+
+    private ArrayList<LibraryItem> sameSerial(long serialNb) {
+        ArrayList<LibraryItem> sameSerial = bySerial.get(serialNb);
+        if (sameSerial == null) {
+            sameSerial = new ArrayList<>(1);
+            bySerial.put(serialNb, sameSerial);
+        }
+        return sameSerial;
+    }
+
+    /**
+     * Returns the item a line names. Among items sharing its serial number,
+     * the one with the same line is taken, then the one with the same
+     * details: its status and dates may have moved on since.
+     *
+     * @param line items.txt line
+     * @param lone true to take the only item with the serial even if its details differ
+     */
+    private LibraryItem matchItem(String line, boolean lone) {
+        ArrayList<LibraryItem> parsed = new ArrayList<>(1);
+        Main.parseItemLine(line, parsed, new ArrayList<>(1), pool);
+        if (parsed.isEmpty()) {
+            return null;
+        }
+        LibraryItem named = parsed.get(0);
+        ArrayList<LibraryItem> sameSerial = bySerial.get(named.getSerialNumber());
+        if (sameSerial == null) {
+            return null;
+        }
+        for (LibraryItem item : sameSerial) {
+            if (Main.itemLine(item).equals(line)) {
+                return item;
+            }
+        }
+        for (LibraryItem item : sameSerial) {
+            if (sameDetails(item, named)) {
+                return item;
+            }
+        }
+        return lone && sameSerial.size() == 1 ? sameSerial.get(0) : null;
+    }
+
+    private static boolean sameDetails(LibraryItem a, LibraryItem b) {
+        return a.getClass() == b.getClass() && a.getTitle().equals(b.getTitle())
+                && a.getAuthor().equals(b.getAuthor()) && a.getPublisher().equals(b.getPublisher())
+                && a.getGenre().equals(b.getGenre())
+                && (!(a instanceof Book) || ((Book) a).getNbOfPages() == ((Book) b).getNbOfPages())
+                && (!(a instanceof DVD) || ((DVD) a).getSizeInMB() == ((DVD) b).getSizeInMB());
+    }
+
+    /**
+     * Returns the member a line names. Among members sharing its ID, the
+     * one with the same line is taken, then the one with the same details:
+     * a merged duplicate's loans have already moved to the member kept.
+     *
+     * @param line members.txt line
+     * @param lone true to take the only member with the ID even if their details differ
+     */
+    private Person matchMember(String line, boolean lone) {
+        ArrayList<Person> parsed = new ArrayList<>(1);
+        Main.parseMemberLine(line, parsed, new ArrayList<>(1), pool);
+        if (parsed.isEmpty()) {
+            return null;
+        }
+        Person deleted = parsed.get(0);
+        ArrayList<Person> sameId = byId.get(Main.memberId(deleted));
+        if (sameId == null) {
+            return null;
+        }
+        for (Person member : sameId) {
+            if (Main.memberLine(member).equals(line)) {
+                return member;
+            }
+        }
+        for (Person member : sameId) {
+            if (sameDetails(member, deleted)) {
+                return member;
+            }
+        }
+        return lone && sameId.size() == 1 ? sameId.get(0) : null;
+    }
+
+    private static boolean sameDetails(Person a, Person b) {
+        return a.getClass() == b.getClass() && a.getName().equals(b.getName())
+                && a.getAddress().equals(b.getAddress()) && a.getGender() == b.getGender()
+                && a.getAge() == b.getAge() && a.getPhoneNumber().equals(b.getPhoneNumber())
+                && (!(a instanceof Civilian) || ((Civilian) a).getCurrentBal() == ((Civilian) b).getCurrentBal());
+    }
+
+    /**
+     * Applies the loan side of a borrow or return right away; the balance,
+     * dates and history follow with the records' next puts. An event the
+     * standby already reflects is skipped.
+     */
+    private void applyEvent(CirculationLog.Event event) {
+        LibraryItem item = firstItem(event.getSerialNumber());
+        Person member = firstMember(event.getMemberId());
+        if (item == null || member == null) {
+            return;
+        }
+        boolean holds = member.getBorrowedItem().contains(item);
+        if (event.getType() == CirculationLog.Type.BORROW && !holds) {
+            member.addBorrowedItem(item);
+            member.markDirty();
+            item.setStatus('o');
+            item.addPastOwner(member);
+        } else if (event.getType() == CirculationLog.Type.RETURN && holds) {
+            member.removeBorrowedItem(item);
+            member.markDirty();
+            item.setStatus('a');
+        }
+    }
+
+    /**
+     * Returns the delay between the primary writing the last record read and
+     * the standby applying it. A heartbeat reporting changes the primary has
+     * not shipped yet counts from the oldest of them instead.
+     *
+     * @return replication lag in milliseconds
+     */
+    public synchronized long getLagMs() {
+        return lagMs;
+    }
+
+    /**
+     * Returns how much of the journal seen by the last poll is not applied.
+     * @return bytes behind
+     */
+    public synchronized long getBytesBehind() {
+        return journalLength - offset;
+    }
+
+    /**
+     * Returns how long ago the primary last wrote anything, heartbeats included.
+     * @return milliseconds since the last record was read
+     */
+    public synchronized long getSilenceMs() {
+        return System.currentTimeMillis() - lastHeard;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Standby: " + applied + " record(s) applied, lag " + lagMs + " ms (max " + maxLagMs + " ms), "
+                + getBytesBehind() + " byte(s) behind, primary last heard " + getSilenceMs() / 1000.0 + " s ago";
+    }
+
+    /**
+     * Where a standby starts reading a journal.
+     */
+    public static final class Checkpoint {
+        private final long offset;
+        private final String epoch;
+
+        Checkpoint(long offset, String epoch) {
+            this.offset = offset;
+            this.epoch = epoch;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal of every change made by the primary process, shipped through a
+ * shared directory to a warm standby ({@link ReplicationFollower}).
+ *
+ * The journal is a text file with one record per line:
+ * {@code timeMillis#kind#payload}. The kinds are:
+ * <ul>
+ *   <li>{@code I} / {@code M}: the full items.txt or members.txt line of an
+ *       added or changed item or member. A change is preceded by the line it
+ *       replaces and that line's length, as {@code <length>:<old><new>}, so
+ *       the standby can tell apart items sharing a serial number or members
+ *       sharing an ID; data lines never start with a digit;</li>
+ *   <li>{@code i} / {@code m}: the items.txt or members.txt line of a
+ *       deleted item or member, for the same reason;</li>
+ *   <li>{@code C}: a circulation event, in its circulation.log form;</li>
+ *   <li>{@code H}: a heartbeat, written every second so the standby can tell
+ *       an idle primary from a dead one. It holds the time of the oldest
+ *       change not shipped yet, or nothing if every change is shipped;</li>
+ *   <li>{@code K}: a checkpoint after a save, holding the journal offset
+ *       from which the saved files may be missing changes.</li>
+ * </ul>
+ * Puts carry the whole record rather than the change, so replaying a
+ * record that the standby already has leaves it as it was. The primary
+ * notes each change with {@link #changed()} and ships the changed records
+ * once the command making them is over. The journal is started afresh each
+ * time the primary starts, since the files it loads already hold everything
+ * before; its opening checkpoint also holds a random epoch, so a standby
+ * can tell a new journal from the one it was reading.
+ *
+ * @author jeffreyhaddad
+ */
+public class ReplicationJournal {
+
+    /** Added or changed item */
+    public static final char ITEM_PUT = 'I';
+    /** Deleted item */
+    public static final char ITEM_DELETE = 'i';
+    /** Added or changed member */
+    public static final char MEMBER_PUT = 'M';
+    /** Deleted member */
+    public static final char MEMBER_DELETE = 'm';
+    /** Circulation event */
+    public static final char EVENT = 'C';
+    /** Primary still alive */
+    public static final char HEARTBEAT = 'H';
+    /** Data files saved */
+    public static final char CHECKPOINT = 'K';
+    /** Time between heartbeats, in milliseconds */
+    public static final long HEARTBEAT_MS = 1000;
+
+    private final File file;
+    private OutputStream out;
+    private ScheduledExecutorService heartbeat;
+    /** Bytes written since the journal was started */
+    private long length;
+    private int records;
+    private long lastCheckpoint;
+    /** Identifies this run of the journal */
+    private String epoch;
+    /** Time of the oldest change not shipped yet, or 0 */
+    private long pendingSince;
+
+    /**
+     * Creates a journal over the given file. Call {@link #open()} before use.
+     * @param file journal file, in a directory the standby can read
+     */
+    public ReplicationJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Empties the journal, writes a first checkpoint and starts the heartbeats.
+     * @throws IOException if the file cannot be created
+     */
+    public synchronized void open() throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(file, false));
+        length = 0;
+        epoch = UUID.randomUUID().toString();
+        append(CHECKPOINT, "0 " + epoch, true);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replication-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::heartbeat, HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Notes that a record changed and is waiting to be shipped, so that
+     * heartbeats report how long it has been waiting.
+     */
+    public synchronized void changed() {
+        if (pendingSince == 0) {
+            pendingSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Writes the buffered puts out, once every waiting change is shipped.
+     */
+    public synchronized void flush() {
+        pendingSince = 0;
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.out.println("Warning: could not write to the replication journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ships an added or changed item. Puts are buffered until the next
+     * {@link #flush()}, so the puts of one command are written together.
+     * @param replaced the line last shipped for the item, or null for an added item
+     * @param line the item's items.txt line
+     */
+    public void itemPut(String replaced, String line) {
+        append(ITEM_PUT, putPayload(replaced, line), false);
+    }
+
+    /**
+     * Ships a deleted item.
+     * @param line the line last shipped for the item
+     */
+    public void itemDeleted(String line) {
+        append(ITEM_DELETE, line, true);
+    }
+
+    /**
+     * Ships an added or changed member.
+     * @param replaced the line last shipped for the member, or null for an added member
+     * @param line the member's members.txt line
+     */
+    public void memberPut(String replaced, String line) {
+        append(MEMBER_PUT, putPayload(replaced, line), false);
+    }
+
+    /**
+     * Ships a deleted member.
+     * @param line the line last shipped for the member
+     */
+    public void memberDeleted(String line) {
+        append(MEMBER_DELETE, line, true);
+    }
+
+    /**
+     * Ships a circulation event as soon as it is recorded.
+     * @param event recorded event
+     */
+    public void event(CirculationLog.Event event) {
+        append(EVENT, event.toLine(), true);
+    }
+
+    /**
+     * Returns the current end of the journal. Taken before a save snapshots
+     * the records, it is the offset to pass to {@link #checkpoint(long)}
+     * once the files are written.
+     *
+     * @return bytes written so far
+     */
+    public synchronized long position() {
+        return length;
+    }
+
+    /**
+     * Records that the data files now hold every change shipped before the
+     * given offset, so a standby starting from those files only needs the
+     * records from there on.
+     *
+     * @param position journal offset taken before the save
+     */
+    public synchronized void checkpoint(long position) {
+        append(CHECKPOINT, String.valueOf(position), true);
+        lastCheckpoint = position;
+    }
+
+    /**
+     * Stops the heartbeats and closes the file. The standby then promotes
+     * itself if failover is enabled.
+     */
+    public void close() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = heartbeat;
+            heartbeat = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    System.out.println("Warning: could not close the replication journal: " + e.getMessage());
+                }
+                out = null;
+            }
+        }
+    }
+
+    private static String putPayload(String replaced, String line) {
+        return replaced == null || replaced.equals(line) ? line : replaced.length() + ":" + replaced + line;
+    }
+
+    /**
+     * Returns the line a put's payload replaces.
+     * @param payload payload of an {@code I} or {@code M} record
+     * @return the replaced line, or null if the put names none
+     */
+    public static String replacedLine(String payload) {
+        int colon = payload.indexOf(':');
+        if (payload.isEmpty() || !Character.isDigit(payload.charAt(0)) || colon < 0) {
+            return null;
+        }
+        return payload.substring(colon + 1, colon + 1 + Integer.parseInt(payload.substring(0, colon)));
+    }
+
+    /**
+     * Returns the new line of a put's payload.
+     * @param payload payload of an {@code I} or {@code M} record
+     * @return the record's line
+     */
+    public static String putLine(String payload) {
+        String replaced = replacedLine(payload);
+        return replaced == null ? payload : payload.substring(payload.indexOf(':') + 1 + replaced.length());
+    }
+
+    private synchronized void heartbeat() {
+        append(HEARTBEAT, pendingSince == 0 ? "" : String.valueOf(pendingSince), true);
+    }
+
+    /**
+     * Appends one record. A write error is reported but does not stop the
+     * primary; the standby simply falls behind.
+     */
+    private synchronized void append(char kind, String payload, boolean flush) {
+        if (out == null) {
+            return;
+        }
+        byte[] bytes = (System.currentTimeMillis() + "#" + kind + "#" + payload + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        try {
+            out.write(bytes);
+            if (flush) {
+                out.flush();
+            }
+            length += bytes.length;
+            if (kind != HEARTBEAT) {
+                records++;
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: could not write to the replication journal: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Replication journal: " + records + " record(s) shipped, " + length + " byte(s), last checkpoint at "
+                + lastCheckpoint;
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe writing and verified reading of the text data files.
+ *
+ * A save never truncates the live file. The new content goes to a temporary
+ * file, which is flushed to disk and then renamed over the live file. The
+ * previous generation is kept as {@code <file>.prev}. Next to each data file a
+ * {@code <file>.crc} file holds one CRC32 per block of {@link #BLOCK_LINES}
+ * lines. Before loading, a streaming pass checks those checksums and falls
+ * back to the previous generation if the live file is damaged.
+ *
+ * Files written before checksums existed have no {@code .crc} file and are
+ * accepted as-is. Files are written and read as UTF-8, the encoding the
+ * checksums are computed over.
+ *
+ * @author jeffreyhaddad
+ */
+public class SafeDataFile {
+
+    /** Number of lines covered by each checksum */
+    public static final int BLOCK_LINES = 256;
+
+    /**
+     * Atomically replaces the file with the given lines and writes its checksums.
+     *
+     * @param file live data file
+     * @param lines records to write, one per line
+     * @throws IOException if the new generation cannot be written
+     */
+    public static void write(File file, List<String> lines) throws IOException {
+        File tmp = sibling(file, ".tmp");
+        File crcTmp = sibling(file, ".crc.tmp");
+        writeSynced(tmp, lines);
+        writeSynced(crcTmp, checksums(lines));
+
+        // Each step leaves either the live file or the previous generation
+        // consistent with its checksums, so a crash at any point can recover.
+        // A damaged live file is not rotated, so it cannot replace a good previous one.
+        if (file.exists() && verify(file, sibling(file, ".crc"))) {
+            File crc = sibling(file, ".crc");
+            if (crc.exists()) {
+                move(crc, sibling(file, ".prev.crc"));
+            } else {
+                sibling(file, ".prev.crc").delete();
+            }
+            move(file, sibling(file, ".prev"));
+        }
+        move(crcTmp, sibling(file, ".crc"));
+        move(tmp, file);
+        syncDirectory(file);
+    }
+
+    /**
+     * Returns the file to load from: the live file if it passes its
+     * checksums, otherwise the previous generation if that one does. A
+     * warning is printed when falling back.
+     *
+     * @param file live data file
+     * @return the file whose content should be loaded
+     */
+    public static File verifiedSource(File file) {
+        return verifiedSource(file, true);
+    }
+
+    /**
+     * Returns the file to load from, as {@link #verifiedSource(File)}, with
+     * the fallback warning optional for repeated internal reads.
+     *
+     * @param file live data file
+     * @param warn whether to print a warning when falling back
+     * @return the file whose content should be loaded
+     */
+    public static File verifiedSource(File file, boolean warn) {
+        File prev = sibling(file, ".prev");
+        if (file.exists() && verify(file, sibling(file, ".crc"))) {
+            return file;
+        }
+        if (prev.exists() && verify(prev, sibling(file, ".prev.crc"))) {
+            if (warn) {
+                System.out.println("Warning: " + file.getName() + (file.exists() ? " failed verification" : " is missing")
+                        + "; recovering from the previous save.");
+            }
+            return prev;
+        }
+        if (warn && file.exists()) {
+            System.out.println("Warning: " + file.getName() + " failed verification and no valid previous save exists.");
+        }
+        return file;
+    }
+
+    /**
+     * Checks a data file against its checksum file in one streaming pass.
+     * A data file without a checksum file is considered valid.
+     *
+     * @param data data file
+     * @param crc checksum file
+     * @return true if every block matches
+     */
+    public static boolean verify(File data, File crc) {
+        if (!crc.exists()) {
+            return true;
+        }
+        try (BufferedReader expected = reader(crc);
+             BufferedReader reader = reader(data)) {
+            String[] header = expected.readLine().split("#");
+            int blockLines = Integer.parseInt(header[1]);
+            long lineCount = Long.parseLong(header[2]);
+
+            CRC32 block = new CRC32();
+            long read = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                update(block, line);
+                read++;
+                if (read % blockLines == 0 && !matches(expected.readLine(), block)) {
+                    return false;
+                }
+            }
+            if (read % blockLines != 0 && !matches(expected.readLine(), block)) {
+                return false;
+            }
+            return read == lineCount && expected.readLine() == null;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds the checksum file content for the given lines.
+     */
+    private static List<String> checksums(List<String> lines) {
+        ArrayList<String> out = new ArrayList<>();
+        out.add("CRC#" + BLOCK_LINES + "#" + lines.size());
+        CRC32 block = new CRC32();
+        for (int i = 0; i < lines.size(); i++) {
+            update(block, lines.get(i));
+            if ((i + 1) % BLOCK_LINES == 0 || i == lines.size() - 1) {
+                out.add(Long.toHexString(block.getValue()));
+                block.reset();
+            }
+        }
+        return out;
+    }
+
+    private static void update(CRC32 crc, String line) {
+        crc.update(line.getBytes(StandardCharsets.UTF_8));
+        crc.update('\n');
+    }
+
+    private static boolean matches(String expected, CRC32 block) {
+        boolean ok = expected != null && Long.parseLong(expected, 16) == block.getValue();
+        block.reset();
+        return ok;
+    }
+
+    private static void writeSynced(File target, List<String> lines) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(target)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (String line : lines) {
+                writer.write(line);
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Opens a data or checksum file for reading as UTF-8.
+     */
+    private static BufferedReader reader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Flushes the directory entry changes made by the renames, so the new
+     * generation is still in place after a power loss. Platforms that cannot
+     * open a directory (Windows) make renames durable on their own.
+     *
+     * @param file a file whose directory is flushed
+     */
+    static void syncDirectory(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported for directories here
+        }
+    }
+
+    private static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static File sibling(File file, String suffix) {
+        return new File(file.getPath() + suffix);
+    }
+}
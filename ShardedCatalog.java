@@ -0,0 +1,411 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A catalog split into independent shards by serial number. Each shard has
+ * its own item list, serial index, read/write lock and data file
+ * ({@code items-0.txt}, {@code items-1.txt}, ...), so lookups and borrows on
+ * one shard never wait on another and loads and saves run one shard per core.
+ *
+ * Members stay in the shared {@code members.txt}: a member may borrow from
+ * any shard.
+ *
+ * With a single shard the data file is the unsharded {@code items.txt}.
+ * Every items file found, {@code items.txt} and {@code items-<n>.txt}
+ * alike, is loaded whatever shard count it was written with, and each item
+ * is routed to the shard owning its serial number. If the layout changed,
+ * every shard is written again on the next save and the files the new
+ * layout does not use are emptied, so switching between one shard and
+ * several in either direction loses nothing and leaves no stale copy.
+ *
+ * @author jeffreyhaddad
+ */
+public class ShardedCatalog {
+
+    /** Name of an items file, sharded or not, or of its previous version */
+    private static final Pattern ITEMS_FILE = Pattern.compile("items(?:-(\\d+))?\\.txt(\\.prev)?");
+
+    /** The independent partitions of the catalog */
+    private final Shard[] shards;
+    private final File dataDir;
+    /** True if the items were read from another layout and still need writing out */
+    private boolean migrated;
+    /** Items read from each shard file, until their versions are recorded */
+    private final Map<File, ArrayList<LibraryItem>> loadedFrom = new LinkedHashMap<>();
+    /** Items files the shard count does not use, emptied on the next save */
+    private final ArrayList<File> strays = new ArrayList<>();
+
+    /**
+     * Creates an empty catalog with the given number of shards, whose data
+     * files are stored in the given directory.
+     *
+     * @param dataDir directory holding the shard files
+     * @param shardCount number of shards (at least 1); a single shard is kept in {@code items.txt}
+     */
+    public ShardedCatalog(File dataDir, int shardCount) {
+        this.dataDir = dataDir;
+        shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(shards.length == 1 ? new File(dataDir, TextFileStorage.ITEMS_FILE)
+                    : new File(dataDir, "items-" + i + ".txt"));
+        }
+    }
+
+    /**
+     * Tells whether any {@code items-<n>.txt} file in a directory holds
+     * items, so a run with a single shard still reads what a sharded run
+     * saved.
+     *
+     * @param dataDir directory holding the items files
+     * @return true if a shard file is not empty
+     */
+    public static boolean hasShardData(File dataDir) {
+        for (Map.Entry<Integer, File> entry : findItemFiles(dataDir).entrySet()) {
+            if (entry.getKey() >= 0 && SafeDataFile.verifiedSource(entry.getValue()).length() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns every items file in a directory, {@code items.txt} first and
+     * then the shard files in index order, including the ones only present
+     * as a previous version.
+     *
+     * @param dataDir directory holding the items files
+     * @return the items files
+     */
+    public static List<File> itemFiles(File dataDir) {
+        return new ArrayList<>(findItemFiles(dataDir).values());
+    }
+
+    /**
+     * Returns the number of shards.
+     * @return shard count
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the index of the shard owning the given serial number.
+     * @param serialNb serial number
+     * @return shard index
+     */
+    public int shardOf(long serialNb) {
+        return Math.floorMod(Long.hashCode(serialNb * 0x9E3779B97F4A7C15L), shards.length);
+    }
+
+    /**
+     * Adds an item to the shard owning its serial number.
+     * @param item item to add
+     */
+    public void add(LibraryItem item) {
+        Shard shard = shards[shardOf(item.getSerialNumber())];
+        shard.lock.writeLock().lock();
+        try {
+            shard.add(item);
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an item from its shard.
+     * @param item item to remove
+     * @return true if the item was in the catalog
+     */
+    public boolean remove(LibraryItem item) {
+        Shard shard = shards[shardOf(item.getSerialNumber())];
+        shard.lock.writeLock().lock();
+        try {
+            return shard.remove(item);
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds an item by serial number through its shard's index.
+     * @param serialNb serial number
+     * @return the first item added with that serial, or null
+     */
+    public LibraryItem findBySerial(long serialNb) {
+        Shard shard = shards[shardOf(serialNb)];
+        shard.lock.readLock().lock();
+        try {
+            return shard.bySerial.get(serialNb);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the items whose title matches, ignoring case. All shards are
+     * searched in parallel and the results are returned in shard order.
+     *
+     * @param title title to look for
+     * @return matching items
+     */
+    public ArrayList<LibraryItem> findByTitle(String title) {
+        ArrayList<LibraryItem> found = new ArrayList<>();
+        IntStream.range(0, shards.length).parallel()
+                .mapToObj(i -> shards[i].findByTitle(title))
+                .forEachOrdered(found::addAll);
+        return found;
+    }
+
+    /**
+     * Lends an item while holding only its shard's write lock, so borrows in
+     * other shards proceed in parallel. The member is locked too because it
+     * may borrow from several shards at once.
+     *
+     * @param borrower member borrowing the item
+     * @param item item to borrow
+     * @return true if the borrow succeeded
+     */
+    public boolean borrow(Person borrower, LibraryItem item) {
+        Shard shard = shards[shardOf(item.getSerialNumber())];
+        shard.lock.writeLock().lock();
+        try {
+            synchronized (borrower) {
+                return borrower.borrowItem(item);
+            }
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes an item back while holding only its shard's write lock.
+     *
+     * @param borrower member returning the item
+     * @param item item being returned
+     * @return true if the member had the item
+     */
+    public boolean giveBack(Person borrower, LibraryItem item) {
+        Shard shard = shards[shardOf(item.getSerialNumber())];
+        shard.lock.writeLock().lock();
+        try {
+            synchronized (borrower) {
+                return borrower.returnItem(item);
+            }
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns every item, shard by shard.
+     * @return all items in the catalog
+     */
+    public ArrayList<LibraryItem> allItems() {
+        ArrayList<LibraryItem> all = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                all.addAll(shard.items);
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Loads every items file in parallel, {@code items.txt} and the shard
+     * files of any shard count, and routes each item to the shard owning its
+     * serial number. Items read from a file this layout does not use are
+     * written to their shards on the next save and that file is emptied.
+     *
+     * @param members loaded members, used to resolve past owners
+     */
+    public void load(ArrayList<Person> members) {
+        List<File> sources = itemFiles(dataDir);
+        List<ArrayList<LibraryItem>> loaded = sources.parallelStream()
+                .map(file -> read(file, members))
+                .collect(Collectors.toList());
+        for (int i = 0; i < sources.size(); i++) {
+            File source = sources.get(i);
+            loadedFrom.put(source, loaded.get(i));
+            if (!isShardFile(source)) {
+                strays.add(source);
+            }
+            for (LibraryItem item : loaded.get(i)) {
+                Shard shard = shards[shardOf(item.getSerialNumber())];
+                if (shard.file.equals(source)) {
+                    shard.add(item);
+                    continue;
+                }
+                migrated = true;
+                LibraryItem existing = shard.bySerial.get(item.getSerialNumber());
+                // A copy left behind by a save interrupted while changing the shard count
+                if (existing == null || !Main.itemLine(existing).equals(Main.itemLine(item))) {
+                    shard.add(item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the items files in a directory by shard index, -1 standing for
+     * {@code items.txt}.
+     */
+    private static TreeMap<Integer, File> findItemFiles(File dataDir) {
+        TreeMap<Integer, File> files = new TreeMap<>();
+        String[] names = dataDir.list();
+        if (names == null) {
+            return files;
+        }
+        for (String name : names) {
+            Matcher matcher = ITEMS_FILE.matcher(name);
+            if (matcher.matches()) {
+                if (matcher.group(1) == null) {
+                    files.put(-1, new File(dataDir, TextFileStorage.ITEMS_FILE));
+                } else {
+                    int index = Integer.parseInt(matcher.group(1));
+                    files.put(index, new File(dataDir, "items-" + index + ".txt"));
+                }
+            }
+        }
+        return files;
+    }
+
+    private boolean isShardFile(File file) {
+        for (Shard shard : shards) {
+            if (shard.file.equals(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads one shard file, falling back to its previous version if it fails
+     * its checksums.
+     */
+    private static ArrayList<LibraryItem> read(File file, ArrayList<Person> members) {
+        ArrayList<LibraryItem> loaded = new ArrayList<>();
+        ArrayList<String> owners = new ArrayList<>();
+        try {
+            Main.loadAllItems(loaded, owners, SafeDataFile.verifiedSource(file).getPath(), new StringPool());
+        } catch (FileNotFoundException e) {
+            return loaded;
+        }
+        Main.adjustOwners(members, loaded, owners);
+        return loaded;
+    }
+
+    /**
+     * Records every shard's loaded state as the baseline for merging on save.
+     * The baseline of a file is what was read from it, so items routed to
+     * another shard are saved as moved rather than as kept.
+     */
+    public void markSynced() {
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                VersionedDataFile file = VersionedDataFile.forItems(shard.file.getPath());
+                file.markSynced(Main.itemLines(loadedFrom.getOrDefault(shard.file, shard.items)));
+                if (migrated) {
+                    file.markRestructured();
+                }
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        for (File stray : strays) {
+            VersionedDataFile file = VersionedDataFile.forItems(stray.getPath());
+            file.markSynced(Main.itemLines(loadedFrom.get(stray)));
+            if (!loadedFrom.get(stray).isEmpty()) {
+                file.markRestructured();
+            }
+        }
+        loadedFrom.clear();
+    }
+
+    /**
+     * Adds the lines of every shard file that needs writing to the snapshot.
+     * Shards with no added, deleted or changed item are left out, so they
+     * stay untouched on disk.
+     *
+     * @param snapshot lines to write, per data file
+     */
+    public void snapshotChanges(Map<VersionedDataFile, ArrayList<String>> snapshot) {
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                Main.snapshotItems(snapshot, shard.file.getPath(), shard.items);
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        for (File stray : strays) {
+            Main.snapshotItems(snapshot, stray.getPath(), new ArrayList<>());
+        }
+    }
+
+    /**
+     * One partition of the catalog with its own lock domain and data file.
+     */
+    private static class Shard {
+        private final File file;
+        private final ArrayList<LibraryItem> items = new ArrayList<>();
+        private final LongObjectMap<LibraryItem> bySerial = new LongObjectMap<>();
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        Shard(File file) {
+            this.file = file;
+        }
+
+        void add(LibraryItem item) {
+            items.add(item);
+            bySerial.putIfAbsent(item.getSerialNumber(), item);
+            VersionedDataFile.forItems(file.getPath()).markRestructured();
+        }
+
+        boolean remove(LibraryItem item) {
+            if (!items.remove(item)) {
+                return false;
+            }
+            VersionedDataFile.forItems(file.getPath()).markRestructured();
+            if (bySerial.get(item.getSerialNumber()) == item) {
+                bySerial.remove(item.getSerialNumber());
+                // Another item may share the serial; index the next one in list order
+                for (LibraryItem other : items) {
+                    if (other.getSerialNumber() == item.getSerialNumber()) {
+                        bySerial.put(other.getSerialNumber(), other);
+                        break;
+                    }
+                }
+            }
+            return true;
+        }
+
+        ArrayList<LibraryItem> findByTitle(String title) {
+            ArrayList<LibraryItem> found = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (LibraryItem item : items) {
+                    if (item.getTitle().equalsIgnoreCase(title)) {
+                        found.add(item);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.HashMap;
+
+/**
+ * A load-time pool for low-cardinality strings such as genres, authors,
+ * publishers and addresses. Every parsed line would otherwise keep its own
+ * copy of values like "Fiction"; passing them through the pool makes all
+ * records share one instance per distinct value.
+ *
+ * The pool is meant to live only as long as a load: once the records hold
+ * the shared instances it can be dropped.
+ *
+ * @author jeffreyhaddad
+ */
+public class StringPool {
+
+    /** Approximate size of a String object header plus its array header, in bytes */
+    private static final int STRING_OVERHEAD = 40;
+
+    /** Canonical instance for each distinct value seen so far */
+    private final HashMap<String, String> pool = new HashMap<>();
+    /** Number of strings passed through the pool */
+    private long lookups;
+    /** Number of strings that were replaced by an existing instance */
+    private long hits;
+    /** Estimated heap no longer held by duplicate copies */
+    private long savedBytes;
+
+    /**
+     * Returns the shared instance equal to the given value, adding the value
+     * to the pool if it has not been seen before.
+     *
+     * @param value string to deduplicate (may be null)
+     * @return the pooled instance, or null if value is null
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        lookups++;
+        String shared = pool.putIfAbsent(value, value);
+        if (shared == null) {
+            return value;
+        }
+        hits++;
+        savedBytes += STRING_OVERHEAD + 2L * value.length();
+        return shared;
+    }
+
+    /**
+     * Returns the number of distinct values held by the pool.
+     * @return distinct value count
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * Returns the number of strings passed through the pool.
+     * @return lookup count
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Returns the number of duplicates that were replaced by a shared instance.
+     * @return hit count
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the estimated number of bytes saved by sharing duplicates.
+     * @return estimated heap saving in bytes
+     */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "String pool: " + size() + " distinct of " + lookups + " strings, "
+                + hits + " duplicates shared, ~" + (savedBytes / 1024) + " KB saved";
+    }
+}
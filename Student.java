@@ -1,15 +1,14 @@
 /**
  * Represents a student member of the library system. Extends {@link Person}.
  * Students have specific borrowing privileges and limitations, including a
- * maximum number of items they can borrow simultaneously.
+ * maximum number of items they can borrow simultaneously, set by the
+ * {@link BorrowingPolicy} in effect.
  * 
  * @author jeffreyhaddad
  */
 public class Student extends Person {
     /** Unique identifier for the student */
     private String studentId;
-    /** Maximum number of items a student can borrow at once */
-    private static int maxNumberToBorrow = 3;
 
     /**
      * Constructs a student with specified details.
@@ -38,12 +37,14 @@ public class Student extends Person {
      * @param item The item to borrow
      * @return true if the borrowing was successful, false otherwise
      */
+    @Override
     public boolean borrowItem(LibraryItem item) {
-        if (getBorrowedItem().size() < maxNumberToBorrow && item.getStatus() == 'a'){
+        if (item.getStatus() == 'a' && PolicyEngine.current().check(this, item) == BorrowingPolicy.ALLOWED){
             item.setStatus('o');
             item.setRegistration();
-            item.getPastOwners().add(this);
-            getBorrowedItem().add(item);
+            item.addPastOwner(this);
+            addBorrowedItem(item);
+            markDirty();
             return true;
         }
         return false;
@@ -56,11 +57,13 @@ public class Student extends Person {
      * @param item The item to return
      * @return true if the item was returned, false if the student didn't have it
      */
+    @Override
     public boolean returnItem(LibraryItem item) {
         if (getBorrowedItem().contains(item)){
             item.setStatus('a');
             item.setRegistration();
-            getBorrowedItem().remove(item);
+            removeBorrowedItem(item);
+            markDirty();
             return true;
         }
         return false;
@@ -71,11 +74,11 @@ public class Student extends Person {
     }
 
     public static int getMaxNumberToBorrow() {
-        return maxNumberToBorrow;
+        return PolicyEngine.current().getMaxTotal(PriceTable.STUDENT);
     }
 
     public static void setMaxNumberToBorrow(int maxNumberToBorrow) {
-        Student.maxNumberToBorrow = maxNumberToBorrow;
+        PolicyEngine.publish(PolicyEngine.current().withMaxTotal(PriceTable.STUDENT, maxNumberToBorrow));
     }
 
     @Override
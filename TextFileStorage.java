@@ -0,0 +1,54 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * The original storage: {@code members.txt} and {@code items.txt} (or one
+ * items file per shard) in the working directory, merged record by record
+ * and written atomically on save.
+ *
+ * @author jeffreyhaddad
+ */
+public class TextFileStorage implements LibraryStorage {
+
+    /** Members data file */
+    public static final String MEMBERS_FILE = "members.txt";
+    /** Unsharded items data file */
+    public static final String ITEMS_FILE = "items.txt";
+
+    @Override
+    public void load(ArrayList<Person> members, ArrayList<LibraryItem> items) throws IOException {
+        Main.LoadFromFiles(members, items);
+    }
+
+    @Override
+    public Runnable prepareSave(ArrayList<Person> members, ArrayList<LibraryItem> items, boolean quiet) {
+        LinkedHashMap<VersionedDataFile, ArrayList<String>> snapshot = Main.snapshotChanges(members, items);
+        return () -> Main.writeSnapshot(snapshot, quiet);
+    }
+
+    @Override
+    public void itemAdded(LibraryItem item) {
+        VersionedDataFile.forItems(ITEMS_FILE).markRestructured();
+    }
+
+    @Override
+    public void itemRemoved(LibraryItem item) {
+        VersionedDataFile.forItems(ITEMS_FILE).markRestructured();
+    }
+
+    @Override
+    public void memberAdded(Person member) {
+        VersionedDataFile.forMembers(MEMBERS_FILE).markRestructured();
+    }
+
+    @Override
+    public void memberRemoved(Person member) {
+        VersionedDataFile.forMembers(MEMBERS_FILE).markRestructured();
+    }
+
+    @Override
+    public void close() {
+        // Nothing is held open between saves
+    }
+}
@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Typo-tolerant search over item titles and authors.
+ *
+ * Every title and author is normalized (lower case, punctuation to spaces)
+ * and split into overlapping three-character grams. Each gram has a posting
+ * list of the items containing it. A query is split the same way; items
+ * sharing enough grams with it become candidates (one edit changes at most
+ * three grams), and each candidate is then verified with an edit distance
+ * that stops as soon as it exceeds the allowed number of typos. Results are
+ * ranked by distance, title matches first.
+ *
+ * The index follows title and author changes through
+ * {@link ItemChangeListener}; items are added and removed explicitly.
+ *
+ * @author jeffreyhaddad
+ */
+public class TitleIndex implements ItemChangeListener {
+
+    /** Indexed items by slot; removed items leave a null slot that is reused */
+    private final ArrayList<LibraryItem> slots = new ArrayList<>();
+    /** Slot of each indexed item */
+    private final IdentityHashMap<LibraryItem, Integer> slotOf = new IdentityHashMap<>();
+    /** Free slots left by removed items */
+    private final IntArrayList freeSlots = new IntArrayList();
+    /** Slots of the items containing each gram */
+    private final HashMap<String, Postings> postings = new HashMap<>();
+    /** Per-slot gram hit counts, reused between queries */
+    private int[] hits = new int[0];
+
+    /**
+     * Indexes an item's title and author.
+     * @param item item to add
+     */
+    public synchronized void add(LibraryItem item) {
+        if (slotOf.containsKey(item)) {
+            return;
+        }
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = slots.size();
+            slots.add(item);
+        } else {
+            slot = freeSlots.removeLast();
+            slots.set(slot, item);
+        }
+        slotOf.put(item, slot);
+        for (String gram : itemGrams(item.getTitle(), item.getAuthor())) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(slot);
+        }
+    }
+
+    /**
+     * Indexes every item of a list.
+     * @param items items to add
+     */
+    public synchronized void addAll(List<LibraryItem> items) {
+        for (LibraryItem item : items) {
+            add(item);
+        }
+    }
+
+    /**
+     * Removes an item from the index.
+     * @param item item to remove
+     */
+    public synchronized void remove(LibraryItem item) {
+        Integer slot = slotOf.remove(item);
+        if (slot == null) {
+            return;
+        }
+        removeGrams(slot, itemGrams(item.getTitle(), item.getAuthor()));
+        slots.set(slot, null);
+        freeSlots.add(slot);
+    }
+
+    @Override
+    public synchronized void itemChanged(LibraryItem item, String field, Object oldValue, Object newValue) {
+        if (!field.equals("title") && !field.equals("author")) {
+            return;
+        }
+        Integer slot = slotOf.get(item);
+        if (slot == null) {
+            return;
+        }
+        LinkedHashSet<String> before = field.equals("title") ? itemGrams((String) oldValue, item.getAuthor())
+                                                             : itemGrams(item.getTitle(), (String) oldValue);
+        LinkedHashSet<String> after = itemGrams(item.getTitle(), item.getAuthor());
+        LinkedHashSet<String> gone = new LinkedHashSet<>(before);
+        gone.removeAll(after);
+        removeGrams(slot, gone);
+        after.removeAll(before);
+        for (String gram : after) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(slot);
+        }
+    }
+
+    /**
+     * Returns the items whose title or author is within a few typos of the
+     * query, best match first. Up to a quarter of the query's characters (at
+     * most 3) may differ. A longer field also matches when its first words
+     * do, so "harry poter" finds "Harry Potter and the Goblet of Fire".
+     *
+     * @param query text to look for
+     * @param limit maximum number of results
+     * @return matching items, closest first
+     */
+    public synchronized ArrayList<LibraryItem> search(String query, int limit) {
+        String normalized = normalize(query);
+        ArrayList<LibraryItem> results = new ArrayList<>();
+        if (normalized.isEmpty() || limit <= 0) {
+            return results;
+        }
+        int maxEdits = Math.min(3, normalized.length() / 4);
+        LinkedHashSet<String> grams = grams(normalized);
+        int needed = Math.max(1, grams.size() - 3 * maxEdits);
+
+        if (hits.length < slots.size()) {
+            hits = new int[slots.size()];
+        }
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        for (String gram : grams) {
+            Postings list = postings.get(gram);
+            if (list == null) {
+                continue;
+            }
+            for (int i = 0; i < list.size; i++) {
+                int slot = list.slots[i];
+                if (hits[slot]++ == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = slot;
+                }
+            }
+        }
+
+        ArrayList<long[]> ranked = new ArrayList<>();
+        int wordCount = normalized.split(" ").length;
+        for (int t = 0; t < touchedCount; t++) {
+            int slot = touched[t];
+            if (hits[slot] >= needed) {
+                LibraryItem item = slots.get(slot);
+                int title = bestDistance(normalized, normalize(item.getTitle()), wordCount, maxEdits);
+                int author = bestDistance(normalized, normalize(item.getAuthor()), wordCount, maxEdits);
+                // Title matches rank ahead of author matches at the same distance
+                int score = Math.min(title * 2, author * 2 + 1);
+                if (score <= maxEdits * 2 + 1) {
+                    ranked.add(new long[] {score, -hits[slot], slot});
+                }
+            }
+            hits[slot] = 0;
+        }
+        ranked.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        for (int i = 0; i < ranked.size() && results.size() < limit; i++) {
+            results.add(slots.get((int) ranked.get(i)[2]));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the number of indexed items.
+     * @return item count
+     */
+    public synchronized int size() {
+        return slotOf.size();
+    }
+
+    /**
+     * Distance between the query and a field, or the field's first words.
+     */
+    private static int bestDistance(String query, String field, int wordCount, int maxEdits) {
+        int best = boundedDistance(query, field, maxEdits);
+        String[] words = field.split(" ");
+        if (words.length > wordCount) {
+            String prefix = String.join(" ", Arrays.copyOf(words, wordCount));
+            best = Math.min(best, boundedDistance(query, prefix, maxEdits));
+        }
+        return best;
+    }
+
+    /**
+     * Levenshtein distance, giving up with {@code max + 1} as soon as every
+     * cell of a row exceeds {@code max}.
+     */
+    static int boundedDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    /**
+     * Returns the grams of a title and author together, each once.
+     */
+    private static LinkedHashSet<String> itemGrams(String title, String author) {
+        LinkedHashSet<String> grams = grams(normalize(title));
+        grams.addAll(grams(normalize(author)));
+        return grams;
+    }
+
+    private void removeGrams(int slot, Iterable<String> grams) {
+        for (String gram : grams) {
+            Postings list = postings.get(gram);
+            if (list != null) {
+                list.remove(slot);
+                if (list.size == 0) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.toLowerCase().replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    /**
+     * Returns the distinct three-character grams of a normalized text,
+     * padded so the start and end of the text form grams too.
+     */
+    private static LinkedHashSet<String> grams(String normalized) {
+        LinkedHashSet<String> grams = new LinkedHashSet<>();
+        if (normalized.isEmpty()) {
+            return grams;
+        }
+        String padded = "  " + normalized + " ";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Title index: " + slotOf.size() + " item(s), " + postings.size() + " gram(s)";
+    }
+
+    /**
+     * A growable list of slots containing one gram.
+     */
+    private static final class Postings {
+        private int[] slots = new int[4];
+        private int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,430 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * A data file shared by several processes, saved by merging records instead
+ * of overwriting the whole file.
+ *
+ * Every record (one line) is identified by a key taken from its fields.
+ * After a load or save the file remembers two base versions per key: the
+ * line this process had in memory and the line on disk (kept as a CRC unless
+ * it differs from the first). On the next save it re-reads the file and,
+ * record by record:
+ * <ul>
+ *   <li>keeps the disk copy when this process did not change the record,</li>
+ *   <li>when it did, merges field by field: the fields this process changed
+ *       come from its copy and the others from disk, so another process's
+ *       change to a different field is kept. A field changed differently by
+ *       both is counted as a conflict and this process's value is written;</li>
+ *   <li>keeps records that other processes added and drops records that
+ *       only this process deleted.</li>
+ * </ul>
+ * The fields a loan changes (a member's balance and borrowed items, an
+ * item's status, availability date and past owners) are merged as one unit
+ * rather than field by field, so a record never ends up with one session's
+ * balance and the other's borrowed items. A record whose loan fields both
+ * sides changed differently is a loan conflict: the matching records of the
+ * other file may disagree with it, so the caller should write no file of
+ * the save (see {@link Merge#getLoanConflicts()}).
+ *
+ * Saving is done in two steps: {@link #merge} reads the file and merges,
+ * and {@link #write} writes the result through {@link SafeDataFile}, so a
+ * failed save leaves the previous content in place. The caller must hold
+ * the exclusive {@link DataDirectoryLock} from the merge to the write.
+ *
+ * @author jeffreyhaddad
+ */
+public class VersionedDataFile {
+
+    /** One instance per path, so baselines survive between saves */
+    private static final HashMap<String, VersionedDataFile> files = new HashMap<>();
+
+    private final File file;
+    /** Field separator of the record format */
+    private final String separator;
+    /** Index of the field that identifies a record (together with field 0) */
+    private final int keyField;
+    /** Tells which fields a loan changes, merged together */
+    private final IntPredicate loanField;
+    /** Each record as this process last held it */
+    private final HashMap<String, String> ourBases = new HashMap<>();
+    /** Version of each record as it was last seen on disk */
+    private final HashMap<String, Long> diskVersions = new HashMap<>();
+    /** Text of the disk versions that differ from this process's base */
+    private final HashMap<String, String> diskBases = new HashMap<>();
+    /** True if records were added or removed since the last load or save */
+    private boolean restructured;
+
+    private VersionedDataFile(File file, String separator, int keyField, IntPredicate loanField) {
+        this.file = file;
+        this.separator = separator;
+        this.keyField = keyField;
+        this.loanField = loanField;
+    }
+
+    /**
+     * Returns the shared instance for a members file ("&amp;" separated, keyed
+     * by member ID). The fields after the ID (a civilian's balance and both
+     * kinds of member's borrowed items) are the loan fields.
+     * @param path path of the file
+     * @return the file's instance
+     */
+    public static synchronized VersionedDataFile forMembers(String path) {
+        return files.computeIfAbsent(path, p -> new VersionedDataFile(new File(p), "&", 6, field -> field >= 7));
+    }
+
+    /**
+     * Returns the shared instance for an items file ("#" separated, keyed by
+     * serial number). The status, availability date and past owners are the
+     * loan fields.
+     * @param path path of the file
+     * @return the file's instance
+     */
+    public static synchronized VersionedDataFile forItems(String path) {
+        return files.computeIfAbsent(path, p -> new VersionedDataFile(new File(p), "#", 1,
+                field -> field == 5 || field == 7 || field >= 9));
+    }
+
+    /**
+     * Records the versions this process starts from: the given lines as held
+     * in memory and the records currently on disk. Call after loading, while
+     * holding at least the shared {@link DataDirectoryLock}.
+     *
+     * @param ourLines serialized records as held in memory
+     */
+    public synchronized void markSynced(List<String> ourLines) {
+        ourBases.clear();
+        ourBases.putAll(keyed(ourLines));
+        diskVersions.clear();
+        diskBases.clear();
+        for (Map.Entry<String, String> entry : keyed(readDisk()).entrySet()) {
+            recordDiskBase(entry.getKey(), entry.getValue());
+        }
+        restructured = false;
+    }
+
+    /**
+     * Merges this process's records with the file's current content. Nothing
+     * is written until the merge is passed to {@link #write}.
+     *
+     * @param ourLines serialized records as held in memory
+     * @return the merged records
+     */
+    public synchronized Merge merge(List<String> ourLines) {
+        LinkedHashMap<String, String> ours = keyed(ourLines);
+        LinkedHashMap<String, String> disk = keyed(readDisk());
+        ArrayList<String> merged = new ArrayList<>();
+        LinkedHashMap<String, String> written = new LinkedHashMap<>();
+        int conflicts = 0;
+        int loanConflicts = 0;
+        int taken = 0;
+
+        for (Map.Entry<String, String> entry : ours.entrySet()) {
+            String key = entry.getKey();
+            String line = entry.getValue();
+            String ourBase = ourBases.get(key);
+            Long diskBase = diskVersions.get(key);
+            String diskLine = disk.get(key);
+            boolean weChanged = ourBase == null || !ourBase.equals(line);
+
+            if (diskLine == null) {
+                if (!weChanged && diskBase != null) {
+                    // Deleted by another process and untouched here
+                    continue;
+                }
+            } else {
+                boolean theyChanged = diskBase == null || diskBase != version(diskLine);
+                if (!weChanged) {
+                    // Untouched here: the disk copy is the latest, whoever wrote it
+                    line = diskLine;
+                    if (theyChanged) {
+                        taken++;
+                    }
+                } else if (theyChanged) {
+                    String diskBaseLine = diskBaseLine(key, ourBase);
+                    if (loanConflicting(ourBase, diskBaseLine, line, diskLine)) {
+                        loanConflicts++;
+                    } else if (conflicting(ourBase, diskBaseLine, line, diskLine)) {
+                        conflicts++;
+                    }
+                    line = mergeFields(ourBase, diskBaseLine, line, diskLine);
+                }
+            }
+            merged.add(line);
+            written.put(key, line);
+        }
+
+        for (Map.Entry<String, String> entry : disk.entrySet()) {
+            String key = entry.getKey();
+            if (ours.containsKey(key)) {
+                continue;
+            }
+            Long diskBase = diskVersions.get(key);
+            if (ourBases.containsKey(key) && diskBase != null && diskBase == version(entry.getValue())) {
+                // Deleted here and unchanged elsewhere
+                continue;
+            }
+            if (ourBases.containsKey(key)) {
+                // Deleted here but changed elsewhere: keep the other process's copy
+                conflicts++;
+            } else {
+                taken++;
+            }
+            merged.add(entry.getValue());
+            written.put(key, entry.getValue());
+        }
+
+        return new Merge(ours, merged, written, conflicts, loanConflicts, taken);
+    }
+
+    /**
+     * Writes merged records and makes them the base of the next merge.
+     * Nothing may be saved to the file between the merge and the write.
+     *
+     * @param merge result of {@link #merge} on this file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void write(Merge merge) throws IOException {
+        SafeDataFile.write(file, merge.lines);
+
+        ourBases.clear();
+        ourBases.putAll(merge.ours);
+        diskVersions.clear();
+        diskBases.clear();
+        for (Map.Entry<String, String> entry : merge.written.entrySet()) {
+            recordDiskBase(entry.getKey(), entry.getValue());
+        }
+        restructured = false;
+    }
+
+    /**
+     * Merges two changed copies of a record field by field. Each field comes
+     * from this process's copy if it changed it, and from the disk copy
+     * otherwise; the loan fields all come from this process's copy if it
+     * changed any of them. Without a base to compare with, this process's
+     * copy is returned whole.
+     */
+    private String mergeFields(String ourBase, String diskBase, String line, String diskLine) {
+        if (ourBase == null || diskBase == null) {
+            return line;
+        }
+        String[] base = ourBase.split(separator, -1);
+        String[] mine = line.split(separator, -1);
+        String[] theirs = diskLine.split(separator, -1);
+        ArrayList<String> values = new ArrayList<>();
+        int fields = Math.max(base.length, Math.max(mine.length, theirs.length));
+        boolean loanChanged = loanChanged(base, mine);
+        for (int i = 0; i < fields; i++) {
+            boolean ours = loanField.test(i) ? loanChanged : !field(mine, i).equals(field(base, i));
+            values.add(ours ? field(mine, i) : field(theirs, i));
+        }
+        // Optional trailing fields (borrowed items, past owners) are left out when empty
+        int minFields = Math.min(mine.length, theirs.length);
+        while (values.size() > minFields && values.get(values.size() - 1).isEmpty()) {
+            values.remove(values.size() - 1);
+        }
+        return String.join(separator, values);
+    }
+
+    /**
+     * Returns true if a field was changed to different values by this
+     * process and on disk, or if there is no base to tell.
+     */
+    private boolean conflicting(String ourBase, String diskBase, String line, String diskLine) {
+        if (ourBase == null || diskBase == null) {
+            return true;
+        }
+        String[] base = ourBase.split(separator, -1);
+        String[] theirBase = diskBase.split(separator, -1);
+        String[] mine = line.split(separator, -1);
+        String[] theirs = diskLine.split(separator, -1);
+        int fields = Math.max(Math.max(base.length, theirBase.length), Math.max(mine.length, theirs.length));
+        for (int i = 0; i < fields; i++) {
+            boolean weChanged = !field(mine, i).equals(field(base, i));
+            boolean theyChanged = !field(theirs, i).equals(field(theirBase, i));
+            if (weChanged && theyChanged && !field(mine, i).equals(field(theirs, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if both copies changed the loan fields of a record and
+     * left them different.
+     */
+    private boolean loanConflicting(String ourBase, String diskBase, String line, String diskLine) {
+        if (ourBase == null || diskBase == null) {
+            return false;
+        }
+        String[] mine = line.split(separator, -1);
+        String[] theirs = diskLine.split(separator, -1);
+        if (!loanChanged(ourBase.split(separator, -1), mine) || !loanChanged(diskBase.split(separator, -1), theirs)) {
+            return false;
+        }
+        return loanChanged(mine, theirs);
+    }
+
+    /**
+     * Returns true if a loan field differs between two copies of a record.
+     */
+    private boolean loanChanged(String[] before, String[] after) {
+        for (int i = 0; i < Math.max(before.length, after.length); i++) {
+            if (loanField.test(i) && !field(before, i).equals(field(after, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String field(String[] fields, int index) {
+        return index < fields.length ? fields[index] : "";
+    }
+
+    /**
+     * Returns the disk copy of a record as last seen, which is usually the
+     * same as this process's base.
+     */
+    private String diskBaseLine(String key, String ourBase) {
+        String text = diskBases.get(key);
+        if (text != null) {
+            return text;
+        }
+        Long version = diskVersions.get(key);
+        return ourBase != null && version != null && version == version(ourBase) ? ourBase : null;
+    }
+
+    private void recordDiskBase(String key, String line) {
+        diskVersions.put(key, version(line));
+        if (!line.equals(ourBases.get(key))) {
+            diskBases.put(key, line);
+        }
+    }
+
+    /**
+     * Returns the name of the underlying file.
+     * @return file name
+     */
+    public String getName() {
+        return file.getName();
+    }
+
+    /**
+     * Notes that records were added to or removed from this file in memory,
+     * so the next save must write it even if no record is marked dirty.
+     */
+    public synchronized void markRestructured() {
+        restructured = true;
+    }
+
+    /**
+     * Returns true if records were added or removed since the last load or save.
+     * @return whether the file must be rewritten
+     */
+    public synchronized boolean isRestructured() {
+        return restructured;
+    }
+
+
+    /**
+     * Keys each line, numbering repeated keys so duplicates stay distinct.
+     */
+    private LinkedHashMap<String, String> keyed(List<String> lines) {
+        LinkedHashMap<String, String> keyed = new LinkedHashMap<>();
+        for (String line : lines) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] tokens = line.split(separator);
+            String key = tokens[0] + separator + (tokens.length > keyField ? tokens[keyField] : "");
+            String unique = key;
+            for (int n = 1; keyed.containsKey(unique); n++) {
+                unique = key + separator + n;
+            }
+            keyed.put(unique, line);
+        }
+        return keyed;
+    }
+
+    private ArrayList<String> readDisk() {
+        ArrayList<String> lines = new ArrayList<>();
+        File source = SafeDataFile.verifiedSource(file, false);
+        if (!source.exists()) {
+            return lines;
+        }
+        try (Scanner reader = new Scanner(source, "UTF-8")) {
+            while (reader.hasNextLine()) {
+                lines.add(reader.nextLine());
+            }
+        } catch (FileNotFoundException e) {
+            // Removed between the check and the open: treat as empty
+        }
+        return lines;
+    }
+
+    private static long version(String line) {
+        CRC32 crc = new CRC32();
+        crc.update(line.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * The records of a file merged with its disk content, ready to be written.
+     */
+    public static final class Merge {
+        private final LinkedHashMap<String, String> ours;
+        private final ArrayList<String> lines;
+        private final LinkedHashMap<String, String> written;
+        private final int conflicts;
+        private final int loanConflicts;
+        private final int taken;
+
+        private Merge(LinkedHashMap<String, String> ours, ArrayList<String> lines, LinkedHashMap<String, String> written,
+                      int conflicts, int loanConflicts, int taken) {
+            this.ours = ours;
+            this.lines = lines;
+            this.written = written;
+            this.conflicts = conflicts;
+            this.loanConflicts = loanConflicts;
+            this.taken = taken;
+        }
+
+        /**
+         * Returns the number of records with a field changed differently
+         * here and by another process. This process's value was kept.
+         * @return conflict count
+         */
+        public int getConflicts() {
+            return conflicts;
+        }
+
+        /**
+         * Returns the number of records whose loan fields were changed
+         * differently here and by another process. Such a merge should not
+         * be written.
+         * @return loan conflict count
+         */
+        public int getLoanConflicts() {
+            return loanConflicts;
+        }
+
+        /**
+         * Returns the number of records added or changed by another process
+         * that the merge kept from disk.
+         * @return merged record count
+         */
+        public int getMerged() {
+            return taken;
+        }
+    }
+}